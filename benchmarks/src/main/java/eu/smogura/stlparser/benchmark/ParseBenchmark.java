@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2016 Radek Smogura <mail@smogura.eu>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package eu.smogura.stlparser.benchmark;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import eu.smogura.stlparser.STLBatchingHandler;
+import eu.smogura.stlparser.STLFacetAbstractHandler;
+import eu.smogura.stlparser.STLParallelParser;
+import eu.smogura.stlparser.STLParser;
+import eu.smogura.stlparser.STLParserAbstractHandler;
+import eu.smogura.stlparser.STLParserFactory;
+
+/**
+ * Throughput of parsing generated models, for stream and mapped input, and for
+ * array, primitive and batch handlers.
+ * <p>
+ * Besides parses per second, benchmarks report {@code facets} and {@code bytes}
+ * counters as rates per second. Allocation rate is measured by running with
+ * {@code -prof gc}. Models are generated into directory given by
+ * {@code stl.benchmark.dir} system property, by default in temporary
+ * directory.
+ * </p>
+ * 
+ * @author Radek Smogura
+ * @since 1.1.0
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParseBenchmark {
+
+	@Param({ STLGenerator.BINARY, STLGenerator.ASCII })
+	public String							format;
+
+	@Param({ "1000", "100000", "1000000" })
+	public int								facets;
+
+	private Path							model;
+
+	private long							size;
+
+	private STLParser					parser;
+
+	private STLParallelParser	parallelParser;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		Path directory = Paths.get(System.getProperty("stl.benchmark.dir",
+				Paths.get(System.getProperty("java.io.tmpdir"), "stl-benchmark").toString()));
+		model = STLGenerator.model(directory, format, facets);
+		size = Files.size(model);
+		parser = STLParserFactory.getInstance().createParser();
+		parallelParser = STLParserFactory.getInstance().createParallelParser();
+	}
+
+	/**
+	 * Counters reported as rates per second.
+	 */
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	@State(Scope.Thread)
+	public static class Counters {
+
+		public long	facets;
+
+		public long	bytes;
+	}
+
+	/** Handler using array callbacks. */
+	private static class ArrayHandler extends STLParserAbstractHandler {
+
+		private final Blackhole	blackhole;
+
+		ArrayHandler(Blackhole blackhole) {
+			this.blackhole = blackhole;
+		}
+
+		@Override
+		public void beginFacet(float[] n) {
+			blackhole.consume(n);
+		}
+
+		@Override
+		public void triangle(float[] v1, float[] v2, float[] v3) {
+			blackhole.consume(v1);
+			blackhole.consume(v2);
+			blackhole.consume(v3);
+		}
+	}
+
+	/** Handler using primitive callback. */
+	private static class FacetHandler extends STLFacetAbstractHandler {
+
+		private final Blackhole	blackhole;
+
+		FacetHandler(Blackhole blackhole) {
+			this.blackhole = blackhole;
+		}
+
+		@Override
+		public void facet(float nx, float ny, float nz, float x1, float y1, float z1, float x2, float y2, float z2,
+				float x3, float y3, float z3, short attributes) {
+			blackhole.consume(nx + x1 + y2 + z3);
+		}
+	}
+
+	/** Handler summing coordinates, used where handlers run on other threads. */
+	private static class SumHandler extends STLFacetAbstractHandler {
+
+		private double	sum;
+
+		@Override
+		public void facet(float nx, float ny, float nz, float x1, float y1, float z1, float x2, float y2, float z2,
+				float x3, float y3, float z3, short attributes) {
+			sum += nx + x1 + y2 + z3;
+		}
+
+		SumHandler merge(SumHandler other) {
+			sum += other.sum;
+			return this;
+		}
+	}
+
+	private void count(Counters counters) {
+		counters.facets += facets;
+		counters.bytes += size;
+	}
+
+	@Benchmark
+	public void streamArrayHandler(Counters counters, Blackhole blackhole) throws IOException {
+		try (InputStream in = new BufferedInputStream(Files.newInputStream(model), 1 << 16)) {
+			parser.parse(in, new ArrayHandler(blackhole));
+		}
+		count(counters);
+	}
+
+	@Benchmark
+	public void streamFacetHandler(Counters counters, Blackhole blackhole) throws IOException {
+		try (InputStream in = new BufferedInputStream(Files.newInputStream(model), 1 << 16)) {
+			parser.parse(in, new FacetHandler(blackhole));
+		}
+		count(counters);
+	}
+
+	@Benchmark
+	public void mappedArrayHandler(Counters counters, Blackhole blackhole) {
+		parser.parse(model, new ArrayHandler(blackhole));
+		count(counters);
+	}
+
+	@Benchmark
+	public void mappedFacetHandler(Counters counters, Blackhole blackhole) {
+		parser.parse(model, new FacetHandler(blackhole));
+		count(counters);
+	}
+
+	@Benchmark
+	public void mappedBatchHandler(Counters counters, Blackhole blackhole) {
+		parser.parse(model, new STLBatchingHandler((data, attributes, count) -> blackhole.consume(data[0] + count)));
+		count(counters);
+	}
+
+	@Benchmark
+	public void parallelFacetHandler(Counters counters, Blackhole blackhole) {
+		blackhole.consume(parallelParser.parse(model, SumHandler::new, SumHandler::merge).sum);
+		count(counters);
+	}
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2016 Radek Smogura <mail@smogura.eu>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package eu.smogura.stlparser.benchmark;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.SplittableRandom;
+
+/**
+ * Generator of synthetic STL models used by benchmarks. Models are random,
+ * generated with fixed seed, and cached in directory, so forks of benchmark
+ * reuse them.
+ * 
+ * @author Radek Smogura
+ * @since 1.1.0
+ */
+public class STLGenerator {
+
+	public static final String	BINARY	= "binary";
+
+	public static final String	ASCII		= "ascii";
+
+	private static final long		SEED		= 0x5EEDL;
+
+	private STLGenerator() {
+	}
+
+	/**
+	 * Returns path of generated model, generating it if not present in
+	 * directory.
+	 * 
+	 * @param format
+	 *          {@link #BINARY} or {@link #ASCII}
+	 */
+	public static Path model(Path directory, String format, int facets) throws IOException {
+		Path path = directory.resolve(format + "-" + facets + ".stl");
+		if (Files.exists(path))
+			return path;
+		Files.createDirectories(directory);
+		Path tmp = Files.createTempFile(directory, format, ".tmp");
+		try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16)) {
+			if (BINARY.equals(format))
+				writeBinary(out, facets);
+			else if (ASCII.equals(format))
+				writeAscii(out, facets);
+			else
+				throw new IllegalArgumentException("Unknown format " + format);
+		}
+		Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		return path;
+	}
+
+	public static void writeBinary(OutputStream out, int facets) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(84).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.put("synthetic benchmark model".getBytes(StandardCharsets.US_ASCII));
+		buffer.putInt(80, facets);
+		out.write(buffer.array());
+		SplittableRandom random = new SplittableRandom(SEED);
+		buffer = ByteBuffer.allocate(50).order(ByteOrder.LITTLE_ENDIAN);
+		for (int f = 0; f < facets; f++) {
+			buffer.clear();
+			for (int i = 0; i < 12; i++)
+				buffer.putFloat(coordinate(random));
+			buffer.putShort((short) 0);
+			out.write(buffer.array());
+		}
+	}
+
+	public static void writeAscii(OutputStream out, int facets) throws IOException {
+		Writer writer = new OutputStreamWriter(out, StandardCharsets.US_ASCII);
+		writer.write("solid synthetic\n");
+		SplittableRandom random = new SplittableRandom(SEED);
+		for (int f = 0; f < facets; f++) {
+			writer.write("  facet normal ");
+			writeVector(writer, random);
+			writer.write("    outer loop\n");
+			for (int v = 0; v < 3; v++) {
+				writer.write("      vertex ");
+				writeVector(writer, random);
+			}
+			writer.write("    endloop\n  endfacet\n");
+		}
+		writer.write("endsolid synthetic\n");
+		writer.flush();
+	}
+
+	private static void writeVector(Writer writer, SplittableRandom random) throws IOException {
+		writer.write(Float.toString(coordinate(random)));
+		writer.write(' ');
+		writer.write(Float.toString(coordinate(random)));
+		writer.write(' ');
+		writer.write(Float.toString(coordinate(random)));
+		writer.write('\n');
+	}
+
+	private static float coordinate(SplittableRandom random) {
+		return (float) ((random.nextDouble() - 0.5) * 200);
+	}
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2016 Radek Smogura <mail@smogura.eu>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package eu.smogura.stlparser;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Base of cursors, keeping data of current facet.
+ * 
+ * @author Radek Smogura
+ * @since 1.1.0
+ */
+abstract class STLAbstractFacetCursor implements STLFacetCursor {
+
+	/** Normal and vertices coordinates of current facet. */
+	protected final float	facet[]	= new float[STLBatchingHandler.FLOATS_PER_FACET];
+
+	protected short				attributes;
+
+	/** The resource opened for cursor, closed with it. */
+	private Closeable			resource;
+
+	void setResource(Closeable resource) {
+		this.resource = resource;
+	}
+
+	@Override
+	public float getNormalX() {
+		return facet[0];
+	}
+
+	@Override
+	public float getNormalY() {
+		return facet[1];
+	}
+
+	@Override
+	public float getNormalZ() {
+		return facet[2];
+	}
+
+	@Override
+	public float getX(int vertex) {
+		return facet[3 + vertex * 3];
+	}
+
+	@Override
+	public float getY(int vertex) {
+		return facet[4 + vertex * 3];
+	}
+
+	@Override
+	public float getZ(int vertex) {
+		return facet[5 + vertex * 3];
+	}
+
+	@Override
+	public short getAttributes() {
+		return attributes;
+	}
+
+	@Override
+	public void copyTo(float dest[], int offset) {
+		System.arraycopy(facet, 0, dest, offset, facet.length);
+	}
+
+	@Override
+	public byte[] getHeader() {
+		return null;
+	}
+
+	@Override
+	public String getSolidName() {
+		return null;
+	}
+
+	@Override
+	public STLDiagnostics getDiagnostics() {
+		return null;
+	}
+
+	@Override
+	public void close() throws STLParserException {
+		if (resource == null)
+			return;
+		try {
+			resource.close();
+		} catch (IOException ioe) {
+			throw new STLParserException("STLP_0028: Unexpected IO exception while closing model.", ioe);
+		} finally {
+			resource = null;
+		}
+	}
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2016 Radek Smogura <mail@smogura.eu>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package eu.smogura.stlparser;
+
+/**
+ * The cursor of ASCII models.
+ * 
+ * @author Radek Smogura
+ * @since 1.1.0
+ */
+final class STLAsciiFacetCursor extends STLAbstractFacetCursor {
+
+	private final STLAsciiParser	parser;
+
+	private final STLAsciiReader	reader;
+
+	private final String					solidName;
+
+	/** Lenient grammar, or {@code null} for strict one. */
+	private final STLAsciiRecovery	recovery;
+
+	private boolean								done;
+
+	/**
+	 * @param reader
+	 *          the reader positioned after header line
+	 */
+	STLAsciiFacetCursor(STLAsciiParser parser, STLAsciiReader reader, String solidName, STLAsciiRecovery recovery) {
+		this.parser = parser;
+		this.reader = reader;
+		this.solidName = solidName;
+		this.recovery = recovery;
+	}
+
+	@Override
+	public boolean next() throws STLParserException {
+		if (done)
+			return false;
+		if (!parser.readFacet(reader, recovery, facet, 0)) {
+			done = true;
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	public boolean isAscii() {
+		return true;
+	}
+
+	@Override
+	public String getSolidName() {
+		return solidName;
+	}
+
+	@Override
+	public STLDiagnostics getDiagnostics() {
+		return recovery != null ? recovery.getDiagnostics() : null;
+	}
+}
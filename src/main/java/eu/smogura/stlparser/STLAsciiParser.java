@@ -22,10 +22,17 @@
 
 package eu.smogura.stlparser;
 
-import java.io.*;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.function.IntSupplier;
 
 /**
  * The ASCII implementation of {@link STLParser} capable to handle ASCII files
+ * <p>
+ * Model is read with {@link STLAsciiReader}, scanning keywords and numbers
+ * directly in bytes of stream.
+ * </p>
  * 
  * @author Radek Smogura
  * @since 1.0.0
@@ -46,131 +53,345 @@ class STLAsciiParser implements STLParser {
 
 	public static final String	END_SOLID			= "endsolid";
 
+	static final byte						SOLID_BYTES[]					= SOLID_HEADER.getBytes(StandardCharsets.US_ASCII);
+
+	static final byte						FACET_NORMAL_BYTES[]	= FACET_NORMAL.getBytes(StandardCharsets.US_ASCII);
+
+	static final byte						OUTER_LOOP_BYTES[]		= OUTER_LOOP.getBytes(StandardCharsets.US_ASCII);
+
+	static final byte						VERTEX_BYTES[]				= VERTEX.getBytes(StandardCharsets.US_ASCII);
+
+	static final byte						END_LOOP_BYTES[]			= END_LOOP.getBytes(StandardCharsets.US_ASCII);
+
+	static final byte						END_FACET_BYTES[]			= END_FACET.getBytes(StandardCharsets.US_ASCII);
+
+	static final byte						END_SOLID_BYTES[]			= END_SOLID.getBytes(StandardCharsets.US_ASCII);
+
+	/** Number of bytes of model body sampled to estimate number of facets. */
+	static final int						SAMPLE_LENGTH					= 1 << 14;
+
+	/**
+	 * Length of facet assumed if sample doesn't hold whole facet, close to length
+	 * of facets written with exponents by common exporters.
+	 */
+	static final int						TYPICAL_FACET_LENGTH	= 256;
+
+	private final STLParserOptions	options;
+
 	STLAsciiParser() {
+		this(STLParserOptions.DEFAULT);
+	}
+
+	STLAsciiParser(STLParserOptions options) {
+		this.options = options;
+	}
+
+	STLParserOptions getOptions() {
+		return options;
 	}
 
-	protected void ensureNotEOF(String line) throws STLParserException {
-		if (line == null) {
+	protected void ensureNotEOF(boolean read) throws STLParserException {
+		if (!read) {
 			throw new STLParserException("STLP_0012: Unexpected end of file while parsing ASCII STL.");
 		} else {
 			return;
 		}
 	}
 
-	protected String readNonEmptyLine(LineNumberReader lnr) throws STLParserException {
-		String line;
-		do {
-			try {
-				line = lnr.readLine().trim();
-			} catch (IOException ioe) {
-				throw new STLParserException(
-						(new StringBuilder()).append("STLP_0008: Unexpected IO exception while parsing ASCII STL at line ")
-								.append(lnr.getLineNumber()).append(".").toString(),
-						ioe);
-			}
-		} while (line != null && line.isEmpty());
-		return line;
-	}
-
-	protected float[] readVector(String str) throws NumberFormatException {
-		float result[] = new float[3];
-		int space = -1;
-		int i;
-		for (i = 0; i < result.length; i++) {
-			str = str.substring(space + 1).trim();
-			space = str.indexOf(' ');
-			if (space == -1) {
-				space = str.length();
-			}
-			result[i] = Float.parseFloat(str.substring(0, space));
+	/**
+	 * Reads next non empty line.
+	 * 
+	 * @return {@code false} at end of stream
+	 */
+	protected boolean readNonEmptyLine(STLAsciiReader reader) throws STLParserException {
+		try {
+			do {
+				if (!reader.readLine())
+					return false;
+			} while (reader.isEmpty());
+			return true;
+		} catch (IOException ioe) {
+			throw new STLParserException(
+					(new StringBuilder()).append("STLP_0008: Unexpected IO exception while parsing ASCII STL at line ")
+							.append(reader.getLineNumber()).append(".").toString(),
+					ioe);
 		}
+	}
 
-		if (i != result.length) {
-			throw new NumberFormatException("STLP_0011: Could not read all vector values.");
-		} else {
-			return result;
-		}
+	/**
+	 * Reads three coordinates of vector from current line into {@code result},
+	 * starting at {@code offset}.
+	 */
+	protected void readVector(STLAsciiReader reader, float result[], int offset) throws NumberFormatException {
+		result[offset] = reader.readFloat();
+		result[offset + 1] = reader.readFloat();
+		result[offset + 2] = reader.readFloat();
 	}
 
-	protected boolean readFacet(LineNumberReader lnr, STLParserHandler handler) throws STLParserException {
-		String line = readNonEmptyLine(lnr);
-		ensureNotEOF(line);
-		if (line.startsWith("endsolid")) {
+	/**
+	 * Reads single facet into {@code facet} buffer.
+	 * 
+	 * @param facet
+	 *          the buffer for normal and vertices coordinates
+	 * @param offset
+	 *          the offset of facet in buffer
+	 * @return {@code true} if facet has been read, {@code false} at the end of
+	 *         solid
+	 */
+	protected boolean readFacet(STLAsciiReader reader, float facet[], int offset) throws STLParserException {
+		ensureNotEOF(readNonEmptyLine(reader));
+		if (reader.startsWith(END_SOLID_BYTES)) {
 			return false;
 		}
-		if (!line.startsWith("facet normal")) {
+		readFacetLines(reader, facet, offset);
+		return true;
+	}
+
+	/**
+	 * Reads single facet with strict grammar, or with lenient one if
+	 * {@code recovery} is given.
+	 */
+	boolean readFacet(STLAsciiReader reader, STLAsciiRecovery recovery, float facet[], int offset)
+			throws STLParserException {
+		return recovery != null ? recovery.readFacet(reader, facet, offset) : readFacet(reader, facet, offset);
+	}
+
+	/**
+	 * Returns lenient grammar for single model, or {@code null} if models are
+	 * parsed with strict grammar.
+	 */
+	STLAsciiRecovery recovery() {
+		return options.lenient ? new STLAsciiRecovery(this, true) : null;
+	}
+
+	/**
+	 * Estimates number of facets of model body, from average length of facets in
+	 * sample of its beginning. Facets are counted by {@code endfacet} keywords,
+	 * in any case.
+	 * 
+	 * @param bytes
+	 *          the size of body, including sample
+	 * @return the estimated number of facets, exact if sample holds whole body
+	 */
+	static long estimateFacets(byte sample[], int length, long bytes) {
+		int facets = 0;
+		int end = 0;
+		for (int i = 0; i <= length - END_FACET_BYTES.length; i++) {
+			int k = 0;
+			while (k < END_FACET_BYTES.length && (sample[i + k] | 0x20) == END_FACET_BYTES[k])
+				k++;
+			if (k == END_FACET_BYTES.length) {
+				facets++;
+				i += k - 1;
+				end = i + 1;
+			}
+		}
+		if (bytes <= length)
+			return facets;
+		double facetLength = facets > 0 ? (double) end / facets : TYPICAL_FACET_LENGTH;
+		return Math.round(bytes / facetLength);
+	}
+
+	/**
+	 * Passes estimated number of triangles to handler, if it accepts it.
+	 */
+	static void sizeHint(STLParserHandler handler, long facets) {
+		if (handler instanceof STLSizeHintHandler)
+			((STLSizeHintHandler) handler).estimatedNumberOfTriangles((int) Math.min(facets, Integer.MAX_VALUE));
+	}
+
+	/**
+	 * Passes diagnostics of lenient grammar to handler, if it accepts them.
+	 */
+	static void diagnostics(STLParserHandler handler, STLAsciiRecovery recovery) {
+		if (recovery != null && handler instanceof STLDiagnosticsHandler)
+			((STLDiagnosticsHandler) handler).diagnostics(recovery.getDiagnostics());
+	}
+
+	/**
+	 * Reads facet which 1st line has been already read.
+	 */
+	protected void readFacetLines(STLAsciiReader reader, float facet[], int offset) throws STLParserException {
+		readNormalLine(reader, facet, offset);
+		ensureNotEOF(readNonEmptyLine(reader));
+		expectLine(reader, OUTER_LOOP_BYTES, "STLP_0014");
+		for (int vIdx = 0; vIdx < 3; vIdx++) {
+			ensureNotEOF(readNonEmptyLine(reader));
+			readVertexLine(reader, facet, offset + 3 + vIdx * 3);
+		}
+		ensureNotEOF(readNonEmptyLine(reader));
+		expectLine(reader, END_LOOP_BYTES, "STLP_0015");
+		ensureNotEOF(readNonEmptyLine(reader));
+		expectLine(reader, END_FACET_BYTES, "STLP_0016");
+	}
+
+	/**
+	 * Reads normal from current {@code facet normal} line.
+	 */
+	void readNormalLine(STLAsciiReader reader, float facet[], int offset) throws STLParserException {
+		if (!reader.startsWith(FACET_NORMAL_BYTES)) {
 			throw new STLParserException("STLP_0009: Wrong format of ASCII STL file: facet line has wrong format.");
 		}
-		float normal[];
 		try {
-			normal = readVector(line.substring("facet normal".length() + 1));
+			reader.skip(FACET_NORMAL_BYTES.length);
+			readVector(reader, facet, offset);
 		} catch (NumberFormatException nfe) {
 			throw new STLParserException((new StringBuilder()).append("STLP_0010: Wrong format of ASCII STL file at line ")
-					.append(lnr.getLineNumber()).append(" while reading facet normal.").toString(), nfe);
-		}
-		handler.beginFacet(normal);
-		line = readNonEmptyLine(lnr);
-		ensureNotEOF(line);
-		if (!line.startsWith("outer loop")) {
-			throw new STLParserException((new StringBuilder()).append("STLP_0014: Wrong format of ASCII STL file at line ")
-					.append(lnr.getLineNumber()).append(" expected 'outer loop'.").toString());
-		}
-		float verts[][] = new float[3][];
-		int vIdx;
-		for (vIdx = 0; vIdx < verts.length; vIdx++) {
-			line = readNonEmptyLine(lnr);
-			ensureNotEOF(line);
-			if (!line.startsWith("vertex")) {
-				throw new STLParserException((new StringBuilder()).append("STLP_0017: Wrong format of ASCII STL file at line ")
-						.append(lnr.getLineNumber()).append(" expected 'vertex'.").toString());
-			}
-			try {
-				verts[vIdx] = readVector(line.substring("vertex".length() + 1));
-			} catch (NumberFormatException nfe) {
-				throw new STLParserException((new StringBuilder()).append("STLP_0018: Wrong format of ASCII STL file at line ")
-						.append(lnr.getLineNumber()).append(" while reading vertex data.").toString(), nfe);
-			}
+					.append(reader.getLineNumber()).append(" while reading facet normal.").toString(), nfe);
 		}
+	}
 
-		if (vIdx != verts.length) {
-			throw new NumberFormatException((new StringBuilder())
-					.append("STLP_0019: Wrong format of ASCII STL file: could not read all vertexes, at line")
-					.append(lnr.getLineNumber()).append(".").toString());
+	/**
+	 * Reads vertex from current {@code vertex} line.
+	 * 
+	 * @param offset
+	 *          the offset of vertex coordinates in {@code facet}
+	 */
+	void readVertexLine(STLAsciiReader reader, float facet[], int offset) throws STLParserException {
+		if (!reader.startsWith(VERTEX_BYTES)) {
+			throw new STLParserException((new StringBuilder()).append("STLP_0017: Wrong format of ASCII STL file at line ")
+					.append(reader.getLineNumber()).append(" expected 'vertex'.").toString());
 		}
-		handler.triangle(verts[0], verts[1], verts[2]);
-		line = readNonEmptyLine(lnr);
-		ensureNotEOF(line);
-		if (!line.startsWith("endloop")) {
-			throw new STLParserException((new StringBuilder()).append("STLP_0015: Wrong format of ASCII STL file at line ")
-					.append(lnr.getLineNumber()).append(" expected 'endloop'.").toString());
+		try {
+			reader.skip(VERTEX_BYTES.length);
+			readVector(reader, facet, offset);
+		} catch (NumberFormatException nfe) {
+			throw new STLParserException((new StringBuilder()).append("STLP_0018: Wrong format of ASCII STL file at line ")
+					.append(reader.getLineNumber()).append(" while reading vertex data.").toString(), nfe);
 		}
-		line = readNonEmptyLine(lnr);
-		ensureNotEOF(line);
-		if (!line.startsWith("endfacet")) {
-			throw new STLParserException((new StringBuilder()).append("STLP_0016: Wrong format of ASCII STL file at line ")
-					.append(lnr.getLineNumber()).append(" expected 'endfacet'.").toString());
-		} else {
-			handler.endFacet();
-			return true;
+	}
+
+	/**
+	 * Checks if current line starts with keyword.
+	 * 
+	 * @param code
+	 *          the error code reported if it doesn't
+	 */
+	void expectLine(STLAsciiReader reader, byte keyword[], String code) throws STLParserException {
+		if (!reader.startsWith(keyword)) {
+			throw new STLParserException((new StringBuilder()).append(code)
+					.append(": Wrong format of ASCII STL file at line ").append(reader.getLineNumber()).append(" expected '")
+					.append(new String(keyword, StandardCharsets.US_ASCII)).append("'.").toString());
 		}
 	}
 
-	public void parse(InputStream inStream, STLParserHandler handler) throws STLParserException {
-		java.io.Reader in = new InputStreamReader(inStream);
-		LineNumberReader lnr = new LineNumberReader(in);
-		String line;
+	/**
+	 * Returns name of solid from header line. Lenient grammar ignores case of
+	 * {@code solid} keyword, and white spaces around name.
+	 * 
+	 * @return the name, or {@code null} if line is not header
+	 */
+	protected String solidName(String line) {
+		if (options.lenient) {
+			line = line.trim();
+			if (!line.regionMatches(true, 0, SOLID_HEADER, 0, SOLID_HEADER.length()))
+				return null;
+			return line.substring(SOLID_HEADER.length()).trim();
+		}
+		if (!line.startsWith(SOLID_HEADER))
+			return null;
+		return line.length() > SOLID_HEADER.length() ? line.substring(SOLID_HEADER.length() + 1) : "";
+	}
+
+	/**
+	 * Reads header line.
+	 * 
+	 * @return the name of solid
+	 */
+	String readHeader(STLAsciiReader reader) throws STLParserException {
+		String name = null;
 		try {
-			line = lnr.readLine().trim();
+			boolean read;
+			// Lenient grammar skips empty lines before header
+			while ((read = reader.readLine()) && options.lenient && reader.isEmpty())
+				;
+			if (read)
+				name = solidName(reader.remaining(options.charset));
 		} catch (IOException ioe) {
 			throw new STLParserException("STLP_0006: Unexpected IO exception while reading ASCII STL header.", ioe);
 		}
-		if (line == null || !line.startsWith("solid")) {
+		if (name == null) {
 			throw new STLParserException(
 					"STLP_0007: Unexpected end of stream or wrong STL header while reading ASCII STL header.");
 		}
-		handler.beginAscii(line.substring("solid".length() + 1));
-		while (readFacet(lnr, handler))
-			;
+		return name;
+	}
+
+	/**
+	 * Opens cursor of ASCII model read from stream.
+	 */
+	STLAbstractFacetCursor cursor(InputStream inStream) throws STLParserException {
+		STLAsciiReader reader = new STLAsciiReader(inStream, () -> 0, options.bufferSize);
+		return new STLAsciiFacetCursor(this, reader, readHeader(reader), recovery());
+	}
+
+	/**
+	 * Parses chunk of model consisting only of facets, and optionally
+	 * {@code endsolid} line. Used to parse model split into chunks, thus neither
+	 * {@code begin} nor {@code endSolid} events are passed to handler.
+	 * 
+	 * @param lineOffset
+	 *          the supplier of number of lines preceding chunk in model, used
+	 *          for error messages only
+	 * @return {@code true} if {@code endsolid} has been read, always
+	 *         {@code false} for lenient grammar, which reads many solids
+	 */
+	boolean parseChunk(InputStream inStream, IntSupplier lineOffset, STLParserHandler parserHandler)
+			throws STLParserException {
+		STLFacetHandler handler = STLFacetHandlerAdapter.wrap(parserHandler);
+		STLAsciiReader reader = new STLAsciiReader(inStream, lineOffset, options.bufferSize);
+		float facet[] = new float[12];
+		if (options.lenient) {
+			STLAsciiRecovery recovery = new STLAsciiRecovery(this, false);
+			while (recovery.readFacet(reader, facet, 0))
+				handler.facet(facet[0], facet[1], facet[2], facet[3], facet[4], facet[5], facet[6], facet[7], facet[8],
+						facet[9], facet[10], facet[11], (short) 0);
+			diagnostics(parserHandler, recovery);
+			return false;
+		}
+		while (readNonEmptyLine(reader)) {
+			if (reader.startsWith(END_SOLID_BYTES))
+				return true;
+			readFacetLines(reader, facet, 0);
+			handler.facet(facet[0], facet[1], facet[2], facet[3], facet[4], facet[5], facet[6], facet[7], facet[8], facet[9],
+					facet[10], facet[11], (short) 0);
+		}
+		return false;
+	}
+
+	public void parse(InputStream inStream, STLParserHandler parserHandler) throws STLParserException {
+		parse(inStream, parserHandler, -1);
+	}
+
+	/**
+	 * Parses model, passing number of triangles estimated from its size to
+	 * handler, after header.
+	 * 
+	 * @param size
+	 *          the size of model, or {@code -1} if it's unknown
+	 */
+	void parse(InputStream inStream, STLParserHandler parserHandler, long size) throws STLParserException {
+		STLFacetHandler handler = STLFacetHandlerAdapter.wrap(parserHandler);
+		STLAsciiReader reader = new STLAsciiReader(inStream, () -> 0, options.bufferSize);
+		handler.beginAscii(readHeader(reader));
+		if (size != -1 && parserHandler instanceof STLSizeHintHandler) {
+			// Data buffered after header is sampled, so nothing more is read
+			byte sample[] = new byte[SAMPLE_LENGTH];
+			int length = reader.peek(sample);
+			sizeHint(parserHandler, estimateFacets(sample, length, Math.max(length, size - reader.consumed())));
+		}
+		STLAsciiRecovery recovery = recovery();
+		if (parserHandler instanceof STLBatchingHandler) {
+			STLBatchingHandler batcher = (STLBatchingHandler) parserHandler;
+			while (readFacet(reader, recovery, batcher.facets, batcher.reserve()))
+				batcher.commit((short) 0);
+		} else {
+			float facet[] = new float[12];
+			while (readFacet(reader, recovery, facet, 0))
+				handler.facet(facet[0], facet[1], facet[2], facet[3], facet[4], facet[5], facet[6], facet[7], facet[8],
+						facet[9], facet[10], facet[11], (short) 0);
+		}
+		diagnostics(parserHandler, recovery);
 		handler.endSolid();
 	}
 }
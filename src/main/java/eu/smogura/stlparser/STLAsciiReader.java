@@ -0,0 +1,410 @@
+/*
+ * Copyright (c) 2016 Radek Smogura <mail@smogura.eu>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package eu.smogura.stlparser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.IntSupplier;
+
+/**
+ * Byte level line reader and tokenizer of ASCII models.
+ * <p>
+ * Lines are read into reusable byte buffer, and keywords and numbers are
+ * scanned in place, without decoding bytes to characters. Lines are terminated
+ * as by {@link java.io.LineNumberReader}, with {@code \n}, {@code \r} or
+ * {@code \r\n}, and trimmed as by {@link String#trim()}.
+ * </p>
+ * 
+ * @author Radek Smogura
+ * @since 1.1.0
+ */
+final class STLAsciiReader {
+
+	private static final int			BUFFER_LENGTH			= 1 << 16;
+
+	/** Maximal number of significant digits parsed without fallback. */
+	private static final int			MAX_DIGITS				= 18;
+
+	/** Maximal significand which is exact double. */
+	private static final long			MAX_EXACT_MANTISSA	= 1L << 53;
+
+	/** Maximal decimal exponent for which power of ten is exact double. */
+	static final int							MAX_EXACT_POW10		= 22;
+
+	/** Mask of double significand bits not kept by float. */
+	private static final long			FLOAT_LOST_BITS		= (1L << 29) - 1;
+
+	/** Lost bits of double being exactly in the middle between two floats. */
+	private static final long			FLOAT_HALFWAY			= 1L << 28;
+
+	/** Powers of ten exactly represented as double. */
+	static final double						POW10[];
+
+	static {
+		POW10 = new double[MAX_EXACT_POW10 + 1];
+		POW10[0] = 1;
+		for (int i = 1; i < POW10.length; i++)
+			POW10[i] = POW10[i - 1] * 10;
+	}
+
+	private final InputStream			in;
+
+	private final IntSupplier			lineOffset;
+
+	private byte									buffer[];
+
+	/** Number of valid bytes in buffer. */
+	private int										limit;
+
+	/** Start of data following current line. */
+	private int										next;
+
+	/** Current position in line. */
+	private int										position;
+
+	/** End of current line, excluding trailing white spaces. */
+	private int										lineEnd;
+
+	private int										lineNumber;
+
+	/** Number of bytes read from stream. */
+	private long									bytesRead;
+
+	private boolean								skipLF;
+
+	private boolean								eof;
+
+	public STLAsciiReader(InputStream in) {
+		this(in, () -> 0);
+	}
+
+	/**
+	 * @param lineOffset
+	 *          the supplier of number of lines preceding data of stream, called
+	 *          only when line number is requested
+	 */
+	public STLAsciiReader(InputStream in, IntSupplier lineOffset) {
+		this(in, lineOffset, BUFFER_LENGTH);
+	}
+
+	/**
+	 * @param bufferLength
+	 *          the initial length of buffer, grown if line doesn't fit in it
+	 */
+	public STLAsciiReader(InputStream in, IntSupplier lineOffset, int bufferLength) {
+		this.in = in;
+		this.lineOffset = lineOffset;
+		this.buffer = new byte[bufferLength];
+	}
+
+	/**
+	 * Reads next line, positioned at its first non white space byte.
+	 * 
+	 * @return {@code false} at end of stream
+	 */
+	public boolean readLine() throws IOException {
+		int start = next;
+		int scan = start;
+		int end = -1;
+		while (true) {
+			if (skipLF && start < limit) {
+				skipLF = false;
+				if (buffer[start] == '\n')
+					start++;
+				scan = start;
+			}
+			for (int i = scan; i < limit; i++) {
+				byte b = buffer[i];
+				if (b == '\n' || b == '\r') {
+					end = i;
+					break;
+				}
+			}
+			if (end != -1 || eof)
+				break;
+			scan = limit - start;
+			start = fill(start);
+		}
+		if (end == -1) {
+			if (start == limit) {
+				// Keep end of stream for further calls, as buffer might have moved
+				next = start;
+				return false;
+			}
+			end = limit;
+			next = limit;
+		} else {
+			lineNumber++;
+			skipLF = buffer[end] == '\r';
+			next = end + 1;
+		}
+		while (start < end && (buffer[start] & 0xff) <= ' ')
+			start++;
+		while (end > start && (buffer[end - 1] & 0xff) <= ' ')
+			end--;
+		position = start;
+		lineEnd = end;
+		return true;
+	}
+
+	/**
+	 * Returns number of bytes of stream up to end of current line, without data
+	 * buffered after it.
+	 */
+	long consumed() {
+		return bytesRead - (limit - next);
+	}
+
+	/**
+	 * Sets current line to bytes of given array, used by parsers splitting
+	 * stream into lines themselves. Reader can't read lines from stream after
+	 * this call.
+	 * 
+	 * @param terminated
+	 *          {@code true} if line was terminated by new line, as only such
+	 *          lines are counted
+	 */
+	void setLine(byte data[], int start, int end, boolean terminated) {
+		buffer = data;
+		limit = next = end;
+		if (terminated)
+			lineNumber++;
+		while (start < end && (data[start] & 0xff) <= ' ')
+			start++;
+		while (end > start && (data[end - 1] & 0xff) <= ' ')
+			end--;
+		position = start;
+		lineEnd = end;
+	}
+
+	/**
+	 * Moves unread data to the beginning of buffer, growing it if needed, and
+	 * reads more data.
+	 * 
+	 * @return new position of {@code start}
+	 */
+	private int fill(int start) throws IOException {
+		int length = limit - start;
+		if (start > 0) {
+			System.arraycopy(buffer, start, buffer, 0, length);
+		} else if (length == buffer.length) {
+			buffer = Arrays.copyOf(buffer, buffer.length * 2);
+		}
+		limit = length;
+		int read = in.read(buffer, limit, buffer.length - limit);
+		if (read == -1) {
+			eof = true;
+		} else {
+			limit += read;
+			bytesRead += read;
+		}
+		return 0;
+	}
+
+	/**
+	 * Checks if current line is empty.
+	 */
+	public boolean isEmpty() {
+		return position == lineEnd;
+	}
+
+	/**
+	 * Checks if remaining part of line starts with keyword.
+	 */
+	public boolean startsWith(byte keyword[]) {
+		if (lineEnd - position < keyword.length)
+			return false;
+		for (int i = 0; i < keyword.length; i++) {
+			if (buffer[position + i] != keyword[i])
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Checks if remaining part of line starts with keyword, ignoring case of
+	 * letters, and matching each space of keyword with any run of white spaces,
+	 * like tabs.
+	 * 
+	 * @param keyword
+	 *          the keyword of lower case letters and single spaces
+	 * @return the length of matched part of line, or {@code -1} if line doesn't
+	 *         start with keyword
+	 */
+	public int match(byte keyword[]) {
+		int i = position;
+		for (byte k : keyword) {
+			if (i == lineEnd)
+				return -1;
+			if (k == ' ') {
+				if ((buffer[i] & 0xff) > ' ')
+					return -1;
+				while (i < lineEnd && (buffer[i] & 0xff) <= ' ')
+					i++;
+			} else if ((buffer[i++] | 0x20) != k) {
+				return -1;
+			}
+		}
+		return i - position;
+	}
+
+	/**
+	 * Skips given number of bytes of line.
+	 */
+	public void skip(int length) {
+		position = Math.min(lineEnd, position + length);
+	}
+
+	/**
+	 * Returns remaining part of line decoded with given charset.
+	 */
+	public String remaining(Charset charset) {
+		return new String(buffer, position, lineEnd - position, charset);
+	}
+
+	/**
+	 * Copies data buffered after current line to {@code dest}, without reading
+	 * more data from stream, and without consuming it.
+	 * 
+	 * @return the number of copied bytes
+	 */
+	int peek(byte dest[]) {
+		int length = Math.min(dest.length, limit - next);
+		System.arraycopy(buffer, next, dest, 0, length);
+		return length;
+	}
+
+	/**
+	 * Returns number of current line, counting from 1.
+	 */
+	public int getLineNumber() {
+		return lineOffset.getAsInt() + lineNumber;
+	}
+
+	/**
+	 * Reads next white space separated number of line.
+	 * 
+	 * @throws NumberFormatException
+	 *           if there's no number or it can't be parsed as by
+	 *           {@link Float#parseFloat(String)}
+	 */
+	public float readFloat() throws NumberFormatException {
+		int start = position;
+		while (start < lineEnd && (buffer[start] & 0xff) <= ' ')
+			start++;
+		int end = start;
+		while (end < lineEnd && (buffer[end] & 0xff) > ' ')
+			end++;
+		position = end;
+		return parseFloat(buffer, start, end);
+	}
+
+	/**
+	 * Parses decimal number, giving same results as
+	 * {@link Float#parseFloat(String)}.
+	 * <p>
+	 * Numbers with significand up to 2^53 and decimal exponent up to 22 are
+	 * computed as correctly rounded double, which is then rounded to float.
+	 * Rounding twice gives correctly rounded float unless double lies exactly in
+	 * the middle between two floats, such numbers, as well as other notations
+	 * (hexadecimal, {@code NaN}, suffixes), are passed to
+	 * {@link Float#parseFloat(String)}.
+	 * </p>
+	 */
+	static float parseFloat(byte b[], int start, int end) throws NumberFormatException {
+		int i = start;
+		boolean negative = false;
+		if (i < end && (b[i] == '-' || b[i] == '+'))
+			negative = b[i++] == '-';
+		long mantissa = 0;
+		int digits = 0;
+		int exponent = 0;
+		boolean any = false;
+		int d;
+		for (; i < end && (d = b[i] - '0') >= 0 && d <= 9; i++) {
+			any = true;
+			if (mantissa != 0 || d != 0) {
+				if (++digits > MAX_DIGITS)
+					return fallback(b, start, end);
+				mantissa = mantissa * 10 + d;
+			}
+		}
+		if (i < end && b[i] == '.') {
+			for (i++; i < end && (d = b[i] - '0') >= 0 && d <= 9; i++) {
+				any = true;
+				exponent--;
+				if (mantissa != 0 || d != 0) {
+					if (++digits > MAX_DIGITS)
+						return fallback(b, start, end);
+					mantissa = mantissa * 10 + d;
+				}
+			}
+		}
+		if (!any)
+			return fallback(b, start, end);
+		if (i < end && (b[i] == 'e' || b[i] == 'E')) {
+			i++;
+			boolean negativeExponent = false;
+			if (i < end && (b[i] == '-' || b[i] == '+'))
+				negativeExponent = b[i++] == '-';
+			if (i == end)
+				return fallback(b, start, end);
+			int e = 0;
+			for (; i < end && (d = b[i] - '0') >= 0 && d <= 9; i++) {
+				if (e < 10000)
+					e = e * 10 + d;
+			}
+			exponent += negativeExponent ? -e : e;
+		}
+		if (i != end)
+			return fallback(b, start, end);
+		if (mantissa == 0)
+			return negative ? -0.0f : 0.0f;
+		float result = decimalToFloat(mantissa, exponent);
+		if (Float.isNaN(result))
+			return fallback(b, start, end);
+		return negative ? -result : result;
+	}
+
+	/**
+	 * Computes correctly rounded float of {@code mantissa * 10^exponent}, if it
+	 * can be done exactly with double arithmetic.
+	 * 
+	 * @return the float value, or {@code NaN} if it can't be computed this way
+	 */
+	static float decimalToFloat(long mantissa, int exponent) {
+		if (mantissa > MAX_EXACT_MANTISSA || exponent < -MAX_EXACT_POW10 || exponent > MAX_EXACT_POW10)
+			return Float.NaN;
+		double value = exponent >= 0 ? mantissa * POW10[exponent] : mantissa / POW10[-exponent];
+		if ((Double.doubleToRawLongBits(value) & FLOAT_LOST_BITS) == FLOAT_HALFWAY)
+			return Float.NaN;
+		return (float) value;
+	}
+
+	private static float fallback(byte b[], int start, int end) throws NumberFormatException {
+		return Float.parseFloat(new String(b, start, end - start, StandardCharsets.ISO_8859_1));
+	}
+}
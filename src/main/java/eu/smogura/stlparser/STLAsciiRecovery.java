@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2016 Radek Smogura <mail@smogura.eu>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package eu.smogura.stlparser;
+
+/**
+ * Lenient grammar of ASCII models, recovering from malformed lines.
+ * <p>
+ * Lines are processed one by one, so grammar is used both by parsers reading
+ * lines from stream, and by {@link STLIncrementalParserImpl}. Keywords are
+ * matched with {@link STLAsciiReader#match(byte[])}, ignoring case and
+ * accepting tabs and runs of spaces between words. {@code outer loop} and
+ * {@code endloop} lines are optional, many solids are parsed as one, and
+ * unexpected lines and broken facets are skipped, recording
+ * {@link STLDiagnostic} instead of throwing exception.
+ * </p>
+ *
+ * @author Radek Smogura
+ * @since 1.1.0
+ */
+final class STLAsciiRecovery {
+
+	private static final int			NO_FACET		= -1;
+
+	private final STLAsciiParser	parser;
+
+	/** If missing {@code endsolid} at end of stream should be reported. */
+	private final boolean					checkEndSolid;
+
+	private final STLDiagnostics	diagnostics	= new STLDiagnostics();
+
+	/** Facet being read, completed facets are copied to buffer of caller. */
+	private final float						pending[]		= new float[STLBatchingHandler.FLOATS_PER_FACET];
+
+	/** Number of vertices of facet being read, or {@link #NO_FACET}. */
+	private int										vertices		= NO_FACET;
+
+	/** If facet being read has been already reported as skipped. */
+	private boolean								broken;
+
+	/** If {@code endsolid} of last solid has not been read yet. */
+	private boolean								inSolid			= true;
+
+	/**
+	 * @param checkEndSolid
+	 *          {@code false} for chunks of model, which don't know if solid is
+	 *          closed in other chunk
+	 */
+	STLAsciiRecovery(STLAsciiParser parser, boolean checkEndSolid) {
+		this.parser = parser;
+		this.checkEndSolid = checkEndSolid;
+	}
+
+	STLDiagnostics getDiagnostics() {
+		return diagnostics;
+	}
+
+	/**
+	 * Reads lines until facet is completed, or end of stream.
+	 *
+	 * @return {@code true} if facet has been read, {@code false} at the end of
+	 *         stream
+	 */
+	boolean readFacet(STLAsciiReader reader, float facet[], int offset) throws STLParserException {
+		while (parser.readNonEmptyLine(reader)) {
+			if (line(reader, facet, offset))
+				return true;
+		}
+		return end(reader, facet, offset);
+	}
+
+	/**
+	 * Processes current line of reader.
+	 *
+	 * @return {@code true} if line has completed facet, copied to {@code facet}
+	 *         at {@code offset}
+	 */
+	boolean line(STLAsciiReader reader, float facet[], int offset) {
+		if (reader.isEmpty())
+			return false;
+		int length;
+		if ((length = reader.match(STLAsciiParser.FACET_NORMAL_BYTES)) != -1) {
+			boolean completed = close(reader, facet, offset);
+			vertices = 0;
+			broken = false;
+			inSolid = true;
+			reader.skip(length);
+			try {
+				parser.readVector(reader, pending, 0);
+			} catch (NumberFormatException nfe) {
+				diagnostics.add(STLDiagnostic.MALFORMED_NORMAL, reader.getLineNumber());
+				pending[0] = pending[1] = pending[2] = 0.0f;
+			}
+			return completed;
+		}
+		if ((length = reader.match(STLAsciiParser.VERTEX_BYTES)) != -1) {
+			if (vertices == NO_FACET) {
+				diagnostics.add(STLDiagnostic.VERTEX_OUTSIDE_FACET, reader.getLineNumber());
+			} else if (vertices == 3) {
+				skip(STLDiagnostic.EXTRA_VERTEX, reader);
+			} else {
+				reader.skip(length);
+				try {
+					parser.readVector(reader, pending, 3 + vertices * 3);
+				} catch (NumberFormatException nfe) {
+					skip(STLDiagnostic.MALFORMED_VERTEX, reader);
+				}
+				vertices++;
+			}
+			return false;
+		}
+		if (reader.match(STLAsciiParser.END_FACET_BYTES) != -1) {
+			if (vertices == NO_FACET) {
+				diagnostics.add(STLDiagnostic.UNEXPECTED_LINE, reader.getLineNumber());
+				return false;
+			}
+			if (vertices < 3)
+				skip(STLDiagnostic.INCOMPLETE_FACET, reader);
+			return complete(facet, offset);
+		}
+		if (reader.match(STLAsciiParser.OUTER_LOOP_BYTES) != -1 || reader.match(STLAsciiParser.END_LOOP_BYTES) != -1)
+			return false;
+		if (reader.match(STLAsciiParser.END_SOLID_BYTES) != -1) {
+			boolean completed = close(reader, facet, offset);
+			inSolid = false;
+			return completed;
+		}
+		if (reader.match(STLAsciiParser.SOLID_BYTES) != -1) {
+			boolean completed = close(reader, facet, offset);
+			inSolid = true;
+			return completed;
+		}
+		diagnostics.add(STLDiagnostic.UNEXPECTED_LINE, reader.getLineNumber());
+		return false;
+	}
+
+	/**
+	 * Processes end of stream.
+	 *
+	 * @return {@code true} if facet not closed with {@code endfacet} has been
+	 *         completed
+	 */
+	boolean end(STLAsciiReader reader, float facet[], int offset) {
+		boolean completed = close(reader, facet, offset);
+		if (inSolid && checkEndSolid) {
+			diagnostics.add(STLDiagnostic.MISSING_END_SOLID, reader.getLineNumber());
+			inSolid = false;
+		}
+		return completed;
+	}
+
+	/**
+	 * Closes facet being read, if any, at line which starts other block.
+	 */
+	private boolean close(STLAsciiReader reader, float facet[], int offset) {
+		if (vertices == NO_FACET)
+			return false;
+		if (vertices < 3)
+			skip(STLDiagnostic.INCOMPLETE_FACET, reader);
+		else if (!broken)
+			diagnostics.add(STLDiagnostic.MISSING_END_FACET, reader.getLineNumber());
+		return complete(facet, offset);
+	}
+
+	/**
+	 * Ends facet being read, copying it to caller buffer unless it's broken.
+	 */
+	private boolean complete(float facet[], int offset) {
+		vertices = NO_FACET;
+		if (broken)
+			return false;
+		System.arraycopy(pending, 0, facet, offset, pending.length);
+		return true;
+	}
+
+	/**
+	 * Marks facet being read as broken, reporting it once.
+	 */
+	private void skip(STLDiagnostic diagnostic, STLAsciiReader reader) {
+		if (!broken)
+			diagnostics.add(diagnostic, reader.getLineNumber());
+		broken = true;
+	}
+}
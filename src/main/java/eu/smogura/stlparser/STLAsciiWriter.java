@@ -0,0 +1,241 @@
+/*
+ * Copyright (c) 2016 Radek Smogura <mail@smogura.eu>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package eu.smogura.stlparser;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The writer of ASCII models.
+ * <p>
+ * Numbers are formatted directly into buffer in scientific notation, with the
+ * shortest number of significant digits, up to 9, which is parsed back to the
+ * same float, so model can be converted between formats without loss.
+ * </p>
+ * 
+ * @author Radek Smogura
+ * @since 1.1.0
+ */
+final class STLAsciiWriter extends STLWriter {
+
+	static final int						BUFFER_LENGTH		= 1 << 16;
+
+	/** Maximal length of formatted facet. */
+	private static final int		MAX_FACET_LENGTH	= 512;
+
+	/** Number of significant digits which always represent float exactly. */
+	private static final int		MAX_DIGITS				= 9;
+
+	/** Minimal number of significant digits tried by formatting. */
+	private static final int		MIN_DIGITS				= 6;
+
+	private static final long		LONG_POW10[];
+
+	static {
+		LONG_POW10 = new long[MAX_DIGITS + 1];
+		LONG_POW10[0] = 1;
+		for (int i = 1; i < LONG_POW10.length; i++)
+			LONG_POW10[i] = LONG_POW10[i - 1] * 10;
+	}
+
+	private static final byte		SOLID[]						= bytes("solid");
+
+	private static final byte		FACET_NORMAL[]		= bytes("  facet normal ");
+
+	private static final byte		OUTER_LOOP[]			= bytes("    outer loop\n");
+
+	private static final byte		VERTEX[]					= bytes("      vertex ");
+
+	private static final byte		END_LOOP[]				= bytes("    endloop\n");
+
+	private static final byte		END_FACET[]				= bytes("  endfacet\n");
+
+	private static final byte		END_SOLID[]				= bytes("endsolid");
+
+	private byte								name[];
+
+	STLAsciiWriter(WritableByteChannel channel, boolean ownChannel) {
+		super(channel, ownChannel, ByteBuffer.allocate(BUFFER_LENGTH));
+	}
+
+	private static byte[] bytes(String s) {
+		return s.getBytes(StandardCharsets.US_ASCII);
+	}
+
+	@Override
+	void writeBegin(String name, byte header[]) {
+		this.name = name == null ? new byte[0] : name.getBytes(StandardCharsets.UTF_8);
+		line(SOLID);
+	}
+
+	@Override
+	void writeFacet(float nx, float ny, float nz, float x1, float y1, float z1, float x2, float y2, float z2, float x3,
+			float y3, float z3, short attributes) {
+		if (buffer.remaining() < MAX_FACET_LENGTH)
+			flush();
+		byte b[] = buffer.array();
+		int pos = buffer.arrayOffset() + buffer.position();
+		pos = vector(b, put(b, pos, FACET_NORMAL), nx, ny, nz);
+		pos = put(b, pos, OUTER_LOOP);
+		pos = vector(b, put(b, pos, VERTEX), x1, y1, z1);
+		pos = vector(b, put(b, pos, VERTEX), x2, y2, z2);
+		pos = vector(b, put(b, pos, VERTEX), x3, y3, z3);
+		pos = put(b, pos, END_LOOP);
+		pos = put(b, pos, END_FACET);
+		buffer.position(pos - buffer.arrayOffset());
+	}
+
+	@Override
+	void writeEnd() {
+		line(END_SOLID);
+	}
+
+	/**
+	 * Writes line of keyword followed by name of solid. Names longer than buffer
+	 * are written in parts, flushing buffer after each part.
+	 */
+	private void line(byte keyword[]) {
+		if (buffer.remaining() < keyword.length + name.length + 2)
+			flush();
+		buffer.put(keyword);
+		if (name.length > 0) {
+			buffer.put((byte) ' ');
+			for (int offset = 0; offset < name.length;) {
+				if (!buffer.hasRemaining())
+					flush();
+				int length = Math.min(name.length - offset, buffer.remaining());
+				buffer.put(name, offset, length);
+				offset += length;
+			}
+		}
+		if (!buffer.hasRemaining())
+			flush();
+		buffer.put((byte) '\n');
+	}
+
+	private static int put(byte dest[], int pos, byte data[]) {
+		System.arraycopy(data, 0, dest, pos, data.length);
+		return pos + data.length;
+	}
+
+	private static int vector(byte dest[], int pos, float x, float y, float z) {
+		pos = formatFloat(x, dest, pos);
+		dest[pos++] = ' ';
+		pos = formatFloat(y, dest, pos);
+		dest[pos++] = ' ';
+		pos = formatFloat(z, dest, pos);
+		dest[pos++] = '\n';
+		return pos;
+	}
+
+	/**
+	 * Formats float in scientific notation, e.g. {@code -1.25e+01}, with the
+	 * shortest number of significant digits, from {@link #MIN_DIGITS} to
+	 * {@link #MAX_DIGITS}, parsed back to the same float.
+	 * <p>
+	 * Float is scaled in double arithmetic to 9 digits. Error of scaling is far
+	 * below half of unit in the last place of float, so 9 digits always parse
+	 * back to the same float. Shorter candidates are rounded from them, and
+	 * accepted only if they can be checked exactly with
+	 * {@link STLAsciiReader#decimalToFloat(long, int)}.
+	 * </p>
+	 * 
+	 * @return the position after formatted number
+	 */
+	static int formatFloat(float value, byte dest[], int pos) {
+		if (Float.isNaN(value) || Float.isInfinite(value)) {
+			return put(dest, pos, bytes(Float.toString(value)));
+		}
+		if (Float.floatToRawIntBits(value) < 0) {
+			dest[pos++] = '-';
+			value = -value;
+		}
+		if (value == 0) {
+			dest[pos++] = '0';
+			return exponent(dest, pos, 0);
+		}
+		double d = value;
+		int exponent = (int) Math.floor(Math.log10(d));
+		long mantissa = scale(d, MAX_DIGITS - 1 - exponent);
+		if (mantissa >= LONG_POW10[MAX_DIGITS]) {
+			exponent++;
+			mantissa = scale(d, MAX_DIGITS - 1 - exponent);
+		} else if (mantissa < LONG_POW10[MAX_DIGITS - 1]) {
+			exponent--;
+			mantissa = scale(d, MAX_DIGITS - 1 - exponent);
+		}
+		int digits = MAX_DIGITS;
+		for (int p = MIN_DIGITS; p < MAX_DIGITS; p++) {
+			long divisor = LONG_POW10[MAX_DIGITS - p];
+			long candidate = (mantissa + divisor / 2) / divisor;
+			if (candidate < LONG_POW10[p] && STLAsciiReader.decimalToFloat(candidate, exponent - p + 1) == value) {
+				mantissa = candidate;
+				digits = p;
+				break;
+			}
+		}
+		while (digits > 1 && mantissa % 10 == 0) {
+			mantissa /= 10;
+			digits--;
+		}
+		long divisor = LONG_POW10[digits - 1];
+		dest[pos++] = (byte) ('0' + mantissa / divisor);
+		if (digits > 1) {
+			dest[pos++] = '.';
+			for (divisor /= 10; divisor > 0; divisor /= 10)
+				dest[pos++] = (byte) ('0' + mantissa / divisor % 10);
+		}
+		return exponent(dest, pos, exponent);
+	}
+
+	/**
+	 * Returns {@code d * 10^power} rounded to long.
+	 */
+	private static long scale(double d, int power) {
+		double pow10[] = STLAsciiReader.POW10;
+		int max = STLAsciiReader.MAX_EXACT_POW10;
+		for (; power > max; power -= max)
+			d *= pow10[max];
+		for (; power < -max; power += max)
+			d /= pow10[max];
+		return Math.round(power >= 0 ? d * pow10[power] : d / pow10[-power]);
+	}
+
+	private static int exponent(byte dest[], int pos, int exponent) {
+		dest[pos++] = 'e';
+		if (exponent < 0) {
+			dest[pos++] = '-';
+			exponent = -exponent;
+		} else {
+			dest[pos++] = '+';
+		}
+		if (exponent >= 10) {
+			dest[pos++] = (byte) ('0' + exponent / 10);
+		} else {
+			dest[pos++] = '0';
+		}
+		dest[pos++] = (byte) ('0' + exponent % 10);
+		return pos;
+	}
+}
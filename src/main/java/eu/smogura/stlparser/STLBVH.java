@@ -0,0 +1,401 @@
+/*
+ * Copyright (c) 2016 Radek Smogura <mail@smogura.eu>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package eu.smogura.stlparser;
+
+import java.util.Arrays;
+
+/**
+ * The bounding volume hierarchy of triangles of model, built with
+ * {@link STLBVHBuilder}.
+ * <p>
+ * Hierarchy is stored in flat arrays. Each node has 6 bounds (minimal, then
+ * maximal coordinates) and 2 ints. Inner node stores index of its left child
+ * and {@code 0}, right child follows left one. Leaf stores index of its first
+ * triangle and number of triangles. Triangles are stored in order of leaves,
+ * with 9 coordinates per triangle, so leaf reads continuous part of array.
+ * </p>
+ * <p>
+ * Queries don't modify hierarchy, so it can be queried concurrently by many
+ * threads.
+ * </p>
+ *
+ * @author Radek Smogura
+ * @since 1.1.0
+ */
+public final class STLBVH {
+
+	private static final int	INITIAL_STACK_LENGTH	= 64;
+
+	/**
+	 * Tolerance of determinant relative to lengths of edges and direction, so
+	 * it doesn't depend on units of model and length of direction.
+	 */
+	private static final float	EPSILON								= 1e-7f;
+
+	/** Bounds of nodes, 6 per node. */
+	private final float				bounds[];
+
+	/** Children or triangles of nodes, 2 per node. */
+	private final int					nodes[];
+
+	private final int					nodeCount;
+
+	/** Coordinates of vertices of triangles in order of leaves, 9 per triangle. */
+	private final float				triangles[];
+
+	/** Indices of triangles in model, in order of leaves. */
+	private final int					triangleIndices[];
+
+	STLBVH(float bounds[], int nodes[], int nodeCount, float triangles[], int triangleIndices[]) {
+		this.bounds = bounds;
+		this.nodes = nodes;
+		this.nodeCount = nodeCount;
+		this.triangles = triangles;
+		this.triangleIndices = triangleIndices;
+	}
+
+	public int getNodeCount() {
+		return nodeCount;
+	}
+
+	public int getTriangleCount() {
+		return triangleIndices.length;
+	}
+
+	/**
+	 * Returns bounds of all triangles, minimal and then maximal coordinates, or
+	 * {@code null} if hierarchy is empty.
+	 */
+	public float[] getBounds() {
+		return nodeCount > 0 ? Arrays.copyOf(bounds, 6) : null;
+	}
+
+	/**
+	 * Finds nearest triangle hit by ray.
+	 *
+	 * @param ox
+	 *          the x coordinate of origin of ray
+	 * @param dx
+	 *          the x coordinate of direction of ray, distances are measured in
+	 *          lengths of direction
+	 * @param maxDistance
+	 *          the distance from origin beyond which triangles are not hit, can
+	 *          be {@link Float#POSITIVE_INFINITY}
+	 * @return the hit, or {@code null} if ray doesn't hit any triangle
+	 */
+	public Hit intersect(float ox, float oy, float oz, float dx, float dy, float dz, float maxDistance) {
+		if (nodeCount == 0)
+			return null;
+		float ix = 1.0f / dx;
+		float iy = 1.0f / dy;
+		float iz = 1.0f / dz;
+		float nearest = maxDistance;
+		int hit = -1;
+		int stack[] = new int[INITIAL_STACK_LENGTH];
+		int top = 0;
+		stack[top++] = 0;
+		while (top > 0) {
+			int node = stack[--top];
+			if (rayBoxDistance(node, ox, oy, oz, ix, iy, iz, nearest) == Float.POSITIVE_INFINITY)
+				continue;
+			int first = nodes[node * 2];
+			int count = nodes[node * 2 + 1];
+			if (count > 0) {
+				for (int t = first; t < first + count; t++) {
+					float distance = rayTriangleDistance(t, ox, oy, oz, dx, dy, dz);
+					if (distance < nearest) {
+						nearest = distance;
+						hit = t;
+					}
+				}
+				continue;
+			}
+			if (top + 2 > stack.length)
+				stack = Arrays.copyOf(stack, stack.length * 2);
+			// Visit nearer child first, so farther one is likely culled
+			float left = rayBoxDistance(first, ox, oy, oz, ix, iy, iz, nearest);
+			float right = rayBoxDistance(first + 1, ox, oy, oz, ix, iy, iz, nearest);
+			if (left <= right) {
+				if (right != Float.POSITIVE_INFINITY)
+					stack[top++] = first + 1;
+				if (left != Float.POSITIVE_INFINITY)
+					stack[top++] = first;
+			} else {
+				if (left != Float.POSITIVE_INFINITY)
+					stack[top++] = first;
+				stack[top++] = first + 1;
+			}
+		}
+		if (hit == -1)
+			return null;
+		return new Hit(triangleIndices[hit], nearest, ox + dx * nearest, oy + dy * nearest, oz + dz * nearest);
+	}
+
+	/**
+	 * Finds point of triangles closest to given point.
+	 *
+	 * @return the closest point, or {@code null} if hierarchy is empty, or no
+	 *         triangle has finite distance to point
+	 */
+	public Hit closestPoint(float x, float y, float z) {
+		if (nodeCount == 0)
+			return null;
+		float nearest = Float.POSITIVE_INFINITY;
+		float closest[] = new float[3];
+		float point[] = new float[3];
+		int hit = -1;
+		int stack[] = new int[INITIAL_STACK_LENGTH];
+		int top = 0;
+		stack[top++] = 0;
+		while (top > 0) {
+			int node = stack[--top];
+			if (boxDistanceSquared(node, x, y, z) >= nearest)
+				continue;
+			int first = nodes[node * 2];
+			int count = nodes[node * 2 + 1];
+			if (count > 0) {
+				for (int t = first; t < first + count; t++) {
+					float distance = closestPointOnTriangle(t, x, y, z, point);
+					if (distance < nearest) {
+						nearest = distance;
+						hit = t;
+						System.arraycopy(point, 0, closest, 0, 3);
+					}
+				}
+				continue;
+			}
+			if (top + 2 > stack.length)
+				stack = Arrays.copyOf(stack, stack.length * 2);
+			float left = boxDistanceSquared(first, x, y, z);
+			float right = boxDistanceSquared(first + 1, x, y, z);
+			if (left <= right) {
+				stack[top++] = first + 1;
+				stack[top++] = first;
+			} else {
+				stack[top++] = first;
+				stack[top++] = first + 1;
+			}
+		}
+		// No finite distance, like for NaN coordinates
+		if (hit == -1)
+			return null;
+		return new Hit(triangleIndices[hit], (float) Math.sqrt(nearest), closest[0], closest[1], closest[2]);
+	}
+
+	/**
+	 * Returns distance at which ray enters bounds of node, or
+	 * {@link Float#POSITIVE_INFINITY} if it misses them before max distance.
+	 * <p>
+	 * Rays parallel to axis have infinite inverse direction, so distance to
+	 * plane containing origin is {@code 0 * infinity}, which is NaN. Such ray
+	 * lies in plane of bounds, so NaN distances are treated as unbounded,
+	 * instead of being carried through min and max.
+	 * </p>
+	 */
+	private float rayBoxDistance(int node, float ox, float oy, float oz, float ix, float iy, float iz,
+			float maxDistance) {
+		int offset = node * 6;
+		float near = 0.0f;
+		float far = maxDistance;
+		for (int axis = 0; axis < 3; axis++) {
+			float o = axis == 0 ? ox : axis == 1 ? oy : oz;
+			float i = axis == 0 ? ix : axis == 1 ? iy : iz;
+			float t1 = (bounds[offset + axis] - o) * i;
+			float t2 = (bounds[offset + axis + 3] - o) * i;
+			float slabNear = Math.min(t1, t2);
+			float slabFar = Math.max(t1, t2);
+			if (!Float.isNaN(slabNear))
+				near = Math.max(near, slabNear);
+			if (!Float.isNaN(slabFar))
+				far = Math.min(far, slabFar);
+		}
+		return near <= far && near < maxDistance ? near : Float.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * Returns distance at which ray hits triangle, with Moller-Trumbore
+	 * algorithm, or {@link Float#POSITIVE_INFINITY} if it misses triangle.
+	 */
+	private float rayTriangleDistance(int triangle, float ox, float oy, float oz, float dx, float dy, float dz) {
+		int offset = triangle * 9;
+		float ax = triangles[offset], ay = triangles[offset + 1], az = triangles[offset + 2];
+		float e1x = triangles[offset + 3] - ax, e1y = triangles[offset + 4] - ay, e1z = triangles[offset + 5] - az;
+		float e2x = triangles[offset + 6] - ax, e2y = triangles[offset + 7] - ay, e2z = triangles[offset + 8] - az;
+		float px = dy * e2z - dz * e2y;
+		float py = dz * e2x - dx * e2z;
+		float pz = dx * e2y - dy * e2x;
+		float det = e1x * px + e1y * py + e1z * pz;
+		// Ray parallel to triangle, compared squared to avoid roots
+		double scale = ((double) e1x * e1x + (double) e1y * e1y + (double) e1z * e1z)
+				* ((double) e2x * e2x + (double) e2y * e2y + (double) e2z * e2z)
+				* ((double) dx * dx + (double) dy * dy + (double) dz * dz);
+		if (det == 0.0f || (double) det * det <= (double) EPSILON * EPSILON * scale)
+			return Float.POSITIVE_INFINITY;
+		float inv = 1.0f / det;
+		float sx = ox - ax, sy = oy - ay, sz = oz - az;
+		float u = (sx * px + sy * py + sz * pz) * inv;
+		if (u < 0.0f || u > 1.0f)
+			return Float.POSITIVE_INFINITY;
+		float qx = sy * e1z - sz * e1y;
+		float qy = sz * e1x - sx * e1z;
+		float qz = sx * e1y - sy * e1x;
+		float v = (dx * qx + dy * qy + dz * qz) * inv;
+		if (v < 0.0f || u + v > 1.0f)
+			return Float.POSITIVE_INFINITY;
+		float t = (e2x * qx + e2y * qy + e2z * qz) * inv;
+		return t >= 0.0f ? t : Float.POSITIVE_INFINITY;
+	}
+
+	private float boxDistanceSquared(int node, float x, float y, float z) {
+		int offset = node * 6;
+		float dx = Math.max(0.0f, Math.max(bounds[offset] - x, x - bounds[offset + 3]));
+		float dy = Math.max(0.0f, Math.max(bounds[offset + 1] - y, y - bounds[offset + 4]));
+		float dz = Math.max(0.0f, Math.max(bounds[offset + 2] - z, z - bounds[offset + 5]));
+		return dx * dx + dy * dy + dz * dz;
+	}
+
+	/**
+	 * Finds point of triangle closest to given point, by Voronoi regions of
+	 * triangle.
+	 *
+	 * @param result
+	 *          the array to which closest point is stored
+	 * @return the squared distance to closest point
+	 */
+	private float closestPointOnTriangle(int triangle, float x, float y, float z, float result[]) {
+		int offset = triangle * 9;
+		float ax = triangles[offset], ay = triangles[offset + 1], az = triangles[offset + 2];
+		float abx = triangles[offset + 3] - ax, aby = triangles[offset + 4] - ay, abz = triangles[offset + 5] - az;
+		float acx = triangles[offset + 6] - ax, acy = triangles[offset + 7] - ay, acz = triangles[offset + 8] - az;
+		float apx = x - ax, apy = y - ay, apz = z - az;
+		float d1 = abx * apx + aby * apy + abz * apz;
+		float d2 = acx * apx + acy * apy + acz * apz;
+		float v, w;
+		if (d1 <= 0.0f && d2 <= 0.0f) {
+			// Vertex A
+			v = 0.0f;
+			w = 0.0f;
+		} else {
+			float bpx = apx - abx, bpy = apy - aby, bpz = apz - abz;
+			float d3 = abx * bpx + aby * bpy + abz * bpz;
+			float d4 = acx * bpx + acy * bpy + acz * bpz;
+			float cpx = apx - acx, cpy = apy - acy, cpz = apz - acz;
+			float d5 = abx * cpx + aby * cpy + abz * cpz;
+			float d6 = acx * cpx + acy * cpy + acz * cpz;
+			float vc = d1 * d4 - d3 * d2;
+			float vb = d5 * d2 - d1 * d6;
+			float va = d3 * d6 - d5 * d4;
+			if (d3 >= 0.0f && d4 <= d3) {
+				// Vertex B
+				v = 1.0f;
+				w = 0.0f;
+			} else if (d6 >= 0.0f && d5 <= d6) {
+				// Vertex C
+				v = 0.0f;
+				w = 1.0f;
+			} else if (vc <= 0.0f && d1 >= 0.0f && d3 <= 0.0f) {
+				// Edge AB
+				v = d1 / (d1 - d3);
+				w = 0.0f;
+			} else if (vb <= 0.0f && d2 >= 0.0f && d6 <= 0.0f) {
+				// Edge AC
+				v = 0.0f;
+				w = d2 / (d2 - d6);
+			} else if (va <= 0.0f && (d4 - d3) >= 0.0f && (d5 - d6) >= 0.0f) {
+				// Edge BC
+				w = (d4 - d3) / ((d4 - d3) + (d5 - d6));
+				v = 1.0f - w;
+			} else {
+				// Face
+				float denominator = 1.0f / (va + vb + vc);
+				v = vb * denominator;
+				w = vc * denominator;
+			}
+		}
+		result[0] = ax + abx * v + acx * w;
+		result[1] = ay + aby * v + acy * w;
+		result[2] = az + abz * v + acz * w;
+		float dx = result[0] - x, dy = result[1] - y, dz = result[2] - z;
+		return dx * dx + dy * dy + dz * dz;
+	}
+
+	/**
+	 * The result of query, triangle and point found by it.
+	 *
+	 * @author Radek Smogura
+	 * @since 1.1.0
+	 */
+	public static final class Hit {
+
+		private final int		triangle;
+
+		private final float	distance;
+
+		private final float	x;
+
+		private final float	y;
+
+		private final float	z;
+
+		Hit(int triangle, float distance, float x, float y, float z) {
+			this.triangle = triangle;
+			this.distance = distance;
+			this.x = x;
+			this.y = y;
+			this.z = z;
+		}
+
+		/**
+		 * Returns index of triangle in model, in order of parsing.
+		 */
+		public int getTriangle() {
+			return triangle;
+		}
+
+		/**
+		 * Returns distance to point, along ray in lengths of its direction for ray
+		 * queries.
+		 */
+		public float getDistance() {
+			return distance;
+		}
+
+		public float getX() {
+			return x;
+		}
+
+		public float getY() {
+			return y;
+		}
+
+		public float getZ() {
+			return z;
+		}
+
+		@Override
+		public String toString() {
+			return (new StringBuilder()).append("Hit[triangle=").append(triangle).append(", distance=").append(distance)
+					.append(", point=(").append(x).append(", ").append(y).append(", ").append(z).append(")]").toString();
+		}
+	}
+}
@@ -0,0 +1,395 @@
+/*
+ * Copyright (c) 2016 Radek Smogura <mail@smogura.eu>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package eu.smogura.stlparser;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The handler building {@link STLBVH} from parsed facets.
+ * <p>
+ * Facets are stored as they are parsed, with bounding box of each triangle, so
+ * hierarchy is built without second pass over model. Hierarchy is built with
+ * binned surface area heuristic: centroids of bounding boxes of triangles of
+ * node are put into
+ * {@value #BIN_COUNT} bins along each axis, and node is split at boundary of
+ * bins with lowest estimated cost of traversal, or made leaf if splitting
+ * doesn't pay off.
+ * </p>
+ * <p>
+ * Nodes with at least {@value #PARALLEL_THRESHOLD} triangles are built by
+ * parallel tasks of {@link ForkJoinPool}. Builder can be used with
+ * {@link STLParallelParser}, with {@link #merge} as merge function.
+ * </p>
+ *
+ * @author Radek Smogura
+ * @since 1.1.0
+ */
+public class STLBVHBuilder extends STLFacetAbstractHandler implements STLSizeHintHandler {
+
+	/** Number of bins per axis. */
+	public static final int			BIN_COUNT						= 16;
+
+	/** Maximal number of triangles in leaf, if splitting doesn't pay off. */
+	public static final int			MAX_LEAF_SIZE				= 16;
+
+	/** Number of triangles of node above which its children are built in parallel. */
+	public static final int			PARALLEL_THRESHOLD	= 1 << 14;
+
+	/** Cost of traversal of node, relative to cost of intersection of triangle. */
+	private static final float	TRAVERSAL_COST			= 1.0f;
+
+	private static final int		INITIAL_CAPACITY		= 1024;
+
+	/** Coordinates of vertices of triangles, 9 per triangle. */
+	private float								triangles[];
+
+	/** Bounding boxes of triangles, 6 per triangle. */
+	private float								boxes[];
+
+	private int									triangleCount;
+
+	public STLBVHBuilder() {
+		triangles = new float[INITIAL_CAPACITY * 9];
+		boxes = new float[INITIAL_CAPACITY * 6];
+	}
+
+	@Override
+	public void facet(float nx, float ny, float nz, float x1, float y1, float z1, float x2, float y2, float z2, float x3,
+			float y3, float z3, short attributes) {
+		if (triangleCount * 6 == boxes.length)
+			grow(triangleCount * 2);
+		int offset = triangleCount * 9;
+		triangles[offset] = x1;
+		triangles[offset + 1] = y1;
+		triangles[offset + 2] = z1;
+		triangles[offset + 3] = x2;
+		triangles[offset + 4] = y2;
+		triangles[offset + 5] = z2;
+		triangles[offset + 6] = x3;
+		triangles[offset + 7] = y3;
+		triangles[offset + 8] = z3;
+		offset = triangleCount * 6;
+		boxes[offset] = Math.min(x1, Math.min(x2, x3));
+		boxes[offset + 1] = Math.min(y1, Math.min(y2, y3));
+		boxes[offset + 2] = Math.min(z1, Math.min(z2, z3));
+		boxes[offset + 3] = Math.max(x1, Math.max(x2, x3));
+		boxes[offset + 4] = Math.max(y1, Math.max(y2, y3));
+		boxes[offset + 5] = Math.max(z1, Math.max(z2, z3));
+		triangleCount++;
+	}
+
+	@Override
+	public void numberOfTrinagles(int count) {
+		reserve(count);
+	}
+
+	@Override
+	public void estimatedNumberOfTriangles(int count) {
+		reserve(count);
+	}
+
+	private void reserve(int count) {
+		count = Math.min(count, MAX_RESERVED_FACETS);
+		if (count * 6 > boxes.length)
+			grow(count);
+	}
+
+	private void grow(int capacity) {
+		triangles = Arrays.copyOf(triangles, capacity * 9);
+		boxes = Arrays.copyOf(boxes, capacity * 6);
+	}
+
+	/**
+	 * Appends triangles of other builder to this one.
+	 *
+	 * @return this builder
+	 */
+	public STLBVHBuilder merge(STLBVHBuilder other) {
+		if ((triangleCount + other.triangleCount) * 6 > boxes.length)
+			grow(triangleCount + other.triangleCount);
+		System.arraycopy(other.triangles, 0, triangles, triangleCount * 9, other.triangleCount * 9);
+		System.arraycopy(other.boxes, 0, boxes, triangleCount * 6, other.triangleCount * 6);
+		triangleCount += other.triangleCount;
+		return this;
+	}
+
+	/**
+	 * Returns number of triangles added so far.
+	 */
+	public int getTriangleCount() {
+		return triangleCount;
+	}
+
+	/**
+	 * Builds hierarchy of triangles added so far, large hierarchies in common
+	 * {@link ForkJoinPool}.
+	 */
+	public STLBVH build() {
+		return build(ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Builds hierarchy of triangles added so far, large hierarchies in given
+	 * pool. Builder can be used further.
+	 */
+	public STLBVH build(ForkJoinPool pool) {
+		int count = triangleCount;
+		// Binary tree with n leaves has 2n - 1 nodes
+		int capacity = Math.max(1, 2 * count - 1);
+		Context context = new Context(count, capacity);
+		if (count > 0) {
+			context.nodeCount.set(1);
+			Node root = new Node(context, 0, 0, count);
+			if (count >= PARALLEL_THRESHOLD)
+				pool.invoke(root);
+			else
+				root.compute();
+		}
+		// Store triangles in order of leaves
+		float ordered[] = new float[count * 9];
+		for (int i = 0; i < count; i++)
+			System.arraycopy(triangles, context.indices[i] * 9, ordered, i * 9, 9);
+		int nodeCount = context.nodeCount.get();
+		return new STLBVH(Arrays.copyOf(context.bounds, nodeCount * 6), Arrays.copyOf(context.nodes, nodeCount * 2),
+				count > 0 ? nodeCount : 0, ordered, context.indices);
+	}
+
+	/**
+	 * The arrays of hierarchy being built, shared by tasks.
+	 */
+	private static final class Context {
+
+		/** Indices of triangles, reordered so each node has continuous range. */
+		final int						indices[];
+
+		final float					bounds[];
+
+		final int						nodes[];
+
+		final AtomicInteger	nodeCount	= new AtomicInteger();
+
+		Context(int count, int capacity) {
+			indices = new int[count];
+			for (int i = 0; i < count; i++)
+				indices[i] = i;
+			bounds = new float[capacity * 6];
+			nodes = new int[capacity * 2];
+		}
+	}
+
+	/**
+	 * The task building node from range of triangles, and its subtree.
+	 */
+	private final class Node extends RecursiveAction {
+
+		private static final long	serialVersionUID	= 1L;
+
+		private final Context			context;
+
+		private final int					node;
+
+		private final int					start;
+
+		private final int					end;
+
+		Node(Context context, int node, int start, int end) {
+			this.context = context;
+			this.node = node;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		protected void compute() {
+			int indices[] = context.indices;
+			int count = end - start;
+			// Bounds of triangles and of their centroids
+			float box[] = emptyBox();
+			float centroidBox[] = emptyBox();
+			for (int i = start; i < end; i++) {
+				int t = indices[i];
+				union(box, 0, boxes, t * 6);
+				extend(centroidBox, centroid(t, 0), centroid(t, 1), centroid(t, 2));
+			}
+			System.arraycopy(box, 0, context.bounds, node * 6, 6);
+			if (count <= 1) {
+				leaf();
+				return;
+			}
+
+			int axis = -1;
+			int split = -1;
+			float bestCost = Float.POSITIVE_INFINITY;
+			int binCounts[] = new int[BIN_COUNT];
+			float binBoxes[] = new float[BIN_COUNT * 6];
+			float rightAreas[] = new float[BIN_COUNT];
+			for (int a = 0; a < 3; a++) {
+				float min = centroidBox[a];
+				float extent = centroidBox[a + 3] - min;
+				if (!(extent > 0.0f))
+					continue;
+				float scale = BIN_COUNT / extent;
+				Arrays.fill(binCounts, 0);
+				for (int b = 0; b < BIN_COUNT; b++)
+					setEmpty(binBoxes, b * 6);
+				for (int i = start; i < end; i++) {
+					int t = indices[i];
+					int b = bin(centroid(t, a), min, scale);
+					binCounts[b]++;
+					union(binBoxes, b * 6, boxes, t * 6);
+				}
+				// Sweep from right to get areas of right sides, then from left
+				float sweep[] = emptyBox();
+				for (int b = BIN_COUNT - 1; b > 0; b--) {
+					union(sweep, 0, binBoxes, b * 6);
+					rightAreas[b] = area(sweep, 0);
+				}
+				setEmpty(sweep, 0);
+				int leftCount = 0;
+				for (int b = 0; b < BIN_COUNT - 1; b++) {
+					union(sweep, 0, binBoxes, b * 6);
+					leftCount += binCounts[b];
+					int rightCount = count - leftCount;
+					if (leftCount == 0 || rightCount == 0)
+						continue;
+					float cost = area(sweep, 0) * leftCount + rightAreas[b + 1] * rightCount;
+					if (cost < bestCost) {
+						bestCost = cost;
+						axis = a;
+						split = b;
+					}
+				}
+			}
+
+			float nodeArea = area(box, 0);
+			boolean worthSplit = axis != -1
+					&& (nodeArea > 0.0f ? TRAVERSAL_COST + bestCost / nodeArea < count : bestCost < Float.POSITIVE_INFINITY);
+			if (!worthSplit && count <= MAX_LEAF_SIZE) {
+				leaf();
+				return;
+			}
+
+			int middle;
+			if (axis != -1) {
+				float min = centroidBox[axis];
+				float scale = BIN_COUNT / (centroidBox[axis + 3] - min);
+				middle = partition(axis, min, scale, split);
+			} else {
+				// All centroids are equal, so split in half
+				middle = start + count / 2;
+			}
+
+			int left = context.nodeCount.getAndAdd(2);
+			context.nodes[node * 2] = left;
+			context.nodes[node * 2 + 1] = 0;
+			Node leftNode = new Node(context, left, start, middle);
+			Node rightNode = new Node(context, left + 1, middle, end);
+			if (count >= PARALLEL_THRESHOLD) {
+				invokeAll(leftNode, rightNode);
+			} else {
+				leftNode.compute();
+				rightNode.compute();
+			}
+		}
+
+		private void leaf() {
+			context.nodes[node * 2] = start;
+			context.nodes[node * 2 + 1] = end - start;
+		}
+
+		/**
+		 * Moves triangles with centroids in bins up to split to beginning of
+		 * range.
+		 *
+		 * @return the index of first triangle of right range
+		 */
+		private int partition(int axis, float min, float scale, int split) {
+			int indices[] = context.indices;
+			int i = start;
+			int j = end - 1;
+			while (i <= j) {
+				if (bin(centroid(indices[i], axis), min, scale) <= split) {
+					i++;
+				} else {
+					int swap = indices[i];
+					indices[i] = indices[j];
+					indices[j--] = swap;
+				}
+			}
+			return i;
+		}
+	}
+
+	/**
+	 * Returns coordinate of centroid of bounding box of triangle.
+	 */
+	private float centroid(int triangle, int axis) {
+		return (boxes[triangle * 6 + axis] + boxes[triangle * 6 + axis + 3]) * 0.5f;
+	}
+
+	private static int bin(float value, float min, float scale) {
+		return Math.min(BIN_COUNT - 1, Math.max(0, (int) ((value - min) * scale)));
+	}
+
+	private static float[] emptyBox() {
+		float box[] = new float[6];
+		setEmpty(box, 0);
+		return box;
+	}
+
+	private static void setEmpty(float box[], int offset) {
+		box[offset] = box[offset + 1] = box[offset + 2] = Float.POSITIVE_INFINITY;
+		box[offset + 3] = box[offset + 4] = box[offset + 5] = Float.NEGATIVE_INFINITY;
+	}
+
+	private static void extend(float box[], float x, float y, float z) {
+		box[0] = Math.min(box[0], x);
+		box[1] = Math.min(box[1], y);
+		box[2] = Math.min(box[2], z);
+		box[3] = Math.max(box[3], x);
+		box[4] = Math.max(box[4], y);
+		box[5] = Math.max(box[5], z);
+	}
+
+	private static void union(float box[], int offset, float other[], int otherOffset) {
+		for (int i = 0; i < 3; i++) {
+			box[offset + i] = Math.min(box[offset + i], other[otherOffset + i]);
+			box[offset + i + 3] = Math.max(box[offset + i + 3], other[otherOffset + i + 3]);
+		}
+	}
+
+	/**
+	 * Returns half of surface area of box, or {@code 0} for empty box.
+	 */
+	private static float area(float box[], int offset) {
+		float dx = box[offset + 3] - box[offset];
+		float dy = box[offset + 4] - box[offset + 1];
+		float dz = box[offset + 5] - box[offset + 2];
+		if (!(dx >= 0.0f))
+			return 0.0f;
+		return dx * dy + dy * dz + dz * dx;
+	}
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2016 Radek Smogura <mail@smogura.eu>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package eu.smogura.stlparser;
+
+/**
+ * Callback interface receiving facets in blocks.
+ * <p>
+ * Batch handler is used with {@link STLBatchingHandler}, which collects facets
+ * from parser into reusable buffers and passes them to {@link #facets} when
+ * buffer is full and at the end of solid. This way handler is called once per
+ * many facets instead of few times per each facet.
+ * </p>
+ * 
+ * @author Radek Smogura
+ * @since 1.1.0
+ */
+public interface STLBatchHandler {
+
+	/**
+	 * Callback method called for each block of facets. Facet {@code i} occupies
+	 * {@link STLBatchingHandler#FLOATS_PER_FACET} floats of {@code facets}
+	 * starting at {@code i * FLOATS_PER_FACET}, in order normal, 1st, 2nd and 3rd
+	 * vertex, each as {@code x,y,z}.
+	 * <p>
+	 * Arrays are reused for next block, so handler should copy data it wants to
+	 * keep.
+	 * </p>
+	 * 
+	 * @param facets
+	 *          the normals and vertices coordinates
+	 * @param attributes
+	 *          the attribute fields, one per facet
+	 * @param count
+	 *          number of facets in block
+	 */
+	void facets(float facets[], short attributes[], int count);
+}
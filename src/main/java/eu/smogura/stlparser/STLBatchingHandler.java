@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2016 Radek Smogura <mail@smogura.eu>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package eu.smogura.stlparser;
+
+/**
+ * The handler collecting facets into blocks passed to {@link STLBatchHandler}.
+ * <p>
+ * Parsers recognize this handler and decode facets directly into its buffers.
+ * </p>
+ * 
+ * @author Radek Smogura
+ * @since 1.1.0
+ */
+public final class STLBatchingHandler extends STLFacetAbstractHandler {
+
+	/** Number of floats used by single facet, normal and three vertices. */
+	public static final int				FLOATS_PER_FACET		= 12;
+
+	/** Default number of facets in block. */
+	public static final int				DEFAULT_BATCH_SIZE	= 4096;
+
+	final STLBatchHandler					batchHandler;
+
+	/** Handler receiving beginning of solids, or {@code null}. */
+	final STLParserHandler				events;
+
+	final float										facets[];
+
+	final short										attributes[];
+
+	private int										count;
+
+	public STLBatchingHandler(STLBatchHandler batchHandler) {
+		this(batchHandler, DEFAULT_BATCH_SIZE);
+	}
+
+	public STLBatchingHandler(STLBatchHandler batchHandler, int batchSize) {
+		this(batchHandler, batchSize, null);
+	}
+
+	/**
+	 * @param events
+	 *          the handler receiving beginning of solids, or {@code null}
+	 */
+	STLBatchingHandler(STLBatchHandler batchHandler, int batchSize, STLParserHandler events) {
+		if (batchHandler == null)
+			throw new IllegalArgumentException("Parameter batch handler should not be null");
+		if (batchSize <= 0)
+			throw new IllegalArgumentException("Parameter batch size should be positive");
+		this.batchHandler = batchHandler;
+		this.events = events;
+		this.facets = new float[batchSize * FLOATS_PER_FACET];
+		this.attributes = new short[batchSize];
+	}
+
+	@Override
+	public void beginAscii(String name) {
+		if (events != null)
+			events.beginAscii(name);
+	}
+
+	@Override
+	public void beginBinary(byte[] header) {
+		if (events != null)
+			events.beginBinary(header);
+	}
+
+	/**
+	 * Reserves place for next facet, passing full block to handler if needed.
+	 * Facet is added to block by {@link #commit(short)}.
+	 * 
+	 * @return offset of facet in {@link #facets}
+	 */
+	int reserve() {
+		if (count == attributes.length)
+			flush();
+		return count * FLOATS_PER_FACET;
+	}
+
+	/**
+	 * Adds reserved facet to block.
+	 */
+	void commit(short attribute) {
+		attributes[count++] = attribute;
+	}
+
+	@Override
+	public void facet(float nx, float ny, float nz, float x1, float y1, float z1, float x2, float y2, float z2, float x3,
+			float y3, float z3, short attributes) {
+		int offset = reserve();
+		float f[] = facets;
+		f[offset] = nx;
+		f[offset + 1] = ny;
+		f[offset + 2] = nz;
+		f[offset + 3] = x1;
+		f[offset + 4] = y1;
+		f[offset + 5] = z1;
+		f[offset + 6] = x2;
+		f[offset + 7] = y2;
+		f[offset + 8] = z2;
+		f[offset + 9] = x3;
+		f[offset + 10] = y3;
+		f[offset + 11] = z3;
+		commit(attributes);
+	}
+
+	/**
+	 * Passes collected facets to handler.
+	 */
+	public void flush() {
+		if (count > 0) {
+			batchHandler.facets(facets, attributes, count);
+			count = 0;
+		}
+	}
+
+	@Override
+	public void endSolid() {
+		flush();
+	}
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2016 Radek Smogura <mail@smogura.eu>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package eu.smogura.stlparser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * The cursor of binary models.
+ * <p>
+ * Facets of files are mapped into memory in chunks of
+ * {@link STLBinaryParser#MAPPED_CHUNK_FACETS}, as they are requested. Facets
+ * of streams are read into reusable buffer.
+ * </p>
+ * 
+ * @author Radek Smogura
+ * @since 1.1.0
+ */
+final class STLBinaryFacetCursor extends STLAbstractFacetCursor {
+
+	/** Number of facets read at once from streams. */
+	private static final int	STREAM_BUFFER_FACETS	= 1 << 10;
+
+	private final byte				header[];
+
+	private final FileChannel	channel;
+
+	private final long				facetsStart;
+
+	private final InputStream	in;
+
+	private byte							streamBuffer[];
+
+	/** Number of bytes of incomplete facet following data of stream buffer. */
+	private int								tail;
+
+	/** Number of triangles which should follow last triangle of cursor. */
+	private final long				numberOfTriangles;
+
+	/** Index of next triangle. */
+	private long							triangle;
+
+	/** Index of triangle after last triangle of cursor. */
+	private final long				last;
+
+	private ByteBuffer				buffer;
+
+	private int								offset;
+
+	/**
+	 * Creates cursor of range of facets of file.
+	 * 
+	 * @param facetsStart
+	 *          the position of 1st facet of model in channel
+	 * @param last
+	 *          the index of facet after last facet of cursor, up to number of
+	 *          facets available in file
+	 * @param numberOfTriangles
+	 *          the number of facets expected in range, if greater than
+	 *          {@code last}, the cursor reports truncated file after last facet
+	 */
+	STLBinaryFacetCursor(byte header[], FileChannel channel, long facetsStart, long first, long last,
+			long numberOfTriangles) {
+		this.header = header;
+		this.channel = channel;
+		this.facetsStart = facetsStart;
+		this.in = null;
+		this.triangle = first;
+		this.last = last;
+		this.numberOfTriangles = numberOfTriangles;
+	}
+
+	/**
+	 * Creates cursor of stream positioned after number of triangles.
+	 */
+	STLBinaryFacetCursor(byte header[], InputStream in, long numberOfTriangles) {
+		this.header = header;
+		this.channel = null;
+		this.facetsStart = 0;
+		this.in = in;
+		this.last = numberOfTriangles;
+		this.numberOfTriangles = numberOfTriangles;
+		streamBuffer = new byte[STREAM_BUFFER_FACETS * STLBinaryParser.FACET_LENGTH];
+	}
+
+	@Override
+	public boolean next() throws STLParserException {
+		if (triangle == last) {
+			if (last < numberOfTriangles)
+				throw endOfStream(channelRemaining());
+			return false;
+		}
+		if (buffer == null || offset == buffer.limit()) {
+			if (channel != null)
+				map();
+			else
+				read();
+		}
+		for (int i = 0; i < facet.length; i++)
+			facet[i] = buffer.getFloat(offset + i * STLBinaryParser.FLOAT_LENGTH);
+		attributes = buffer.getShort(offset + 48);
+		offset += STLBinaryParser.FACET_LENGTH;
+		triangle++;
+		return true;
+	}
+
+	private void map() throws STLParserException {
+		int facets = (int) Math.min(STLBinaryParser.MAPPED_CHUNK_FACETS, last - triangle);
+		try {
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, facetsStart + triangle * STLBinaryParser.FACET_LENGTH,
+					(long) facets * STLBinaryParser.FACET_LENGTH);
+		} catch (IOException ioe) {
+			throw new STLParserException("STLP_0005: Unexpected IO exception while reading triangles data.", ioe);
+		}
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		offset = 0;
+	}
+
+	private void read() throws STLParserException {
+		int length = (int) Math.min(streamBuffer.length, (last - triangle) * STLBinaryParser.FACET_LENGTH);
+		int pos = tail;
+		if (buffer == null) {
+			buffer = ByteBuffer.wrap(streamBuffer).order(ByteOrder.LITTLE_ENDIAN);
+		} else {
+			System.arraycopy(streamBuffer, buffer.limit(), streamBuffer, 0, tail);
+		}
+		try {
+			int read;
+			while (pos < length && (read = in.read(streamBuffer, pos, length - pos)) != -1)
+				pos += read;
+		} catch (IOException ioe) {
+			throw new STLParserException((new StringBuilder())
+					.append("STLP_0005: Unexpected IO exception while reading triangle's ").append(triangle + 1).append(" of ")
+					.append(numberOfTriangles).append(" data").toString(), ioe);
+		}
+		if (pos < STLBinaryParser.FACET_LENGTH) {
+			tail = pos;
+			buffer.limit(0);
+			throw endOfStream(pos);
+		}
+		int limit = pos - pos % STLBinaryParser.FACET_LENGTH;
+		tail = pos - limit;
+		buffer.limit(limit);
+		offset = 0;
+	}
+
+	private long channelRemaining() throws STLParserException {
+		try {
+			return Math.max(0, channel.size() - facetsStart - last * STLBinaryParser.FACET_LENGTH);
+		} catch (IOException ioe) {
+			throw new STLParserException("STLP_0005: Unexpected IO exception while reading triangles data.", ioe);
+		}
+	}
+
+	private STLParserException endOfStream(long read) {
+		return new STLParserException((new StringBuilder())
+				.append("STLP_0005: Unexpected end of stream while reading triangle's ").append(triangle + 1).append(" of ")
+				.append(numberOfTriangles).append(" normal. Read ").append(read).append(", expected ")
+				.append(STLBinaryParser.FACET_LENGTH).append(".").toString());
+	}
+
+	@Override
+	public boolean isAscii() {
+		return false;
+	}
+
+	@Override
+	public byte[] getHeader() {
+		return header;
+	}
+}
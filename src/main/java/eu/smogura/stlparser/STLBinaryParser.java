@@ -24,9 +24,18 @@ package eu.smogura.stlparser;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 
 /**
  * The parser for binary models.
+ * <p>
+ * Models passed as {@link FileChannel} are mapped into memory and decoded
+ * directly from mapped buffer, models passed as {@link InputStream} are copied
+ * facet by facet.
+ * </p>
  * 
  * @author Radek Smogura
  * @since 1.0.0
@@ -49,24 +58,47 @@ class STLBinaryParser implements STLParser {
 
 	public static final int	FACET_LENGTH							= 50;
 
+	/**
+	 * Number of facets mapped at once, keeps each mapped region below 2GB
+	 * {@link ByteBuffer} limit and aligned to facet boundaries.
+	 */
+	public static final int	MAPPED_CHUNK_FACETS				= 1 << 22;
+
 	STLBinaryParser() {
 	}
 
 	protected int readRequiredLength(InputStream in, byte buffer[], int requiredLength) throws IOException {
 		int read = 0;
 		int totalRead;
-		for (totalRead = 0; (read = in.read(buffer, read, requiredLength)) != -1 && requiredLength > 0; totalRead += read)
+		for (totalRead = 0; (read = in.read(buffer, totalRead, requiredLength)) != -1 && requiredLength > 0; totalRead += read)
 			requiredLength -= read;
 
 		return totalRead;
 	}
 
-	protected float[] bytesToVertex(byte buffer[], int offset) {
-		float v[] = new float[3];
-		v[0] = Float.intBitsToFloat(bytesToInt(buffer, offset + 0));
-		v[1] = Float.intBitsToFloat(bytesToInt(buffer, offset + 4));
-		v[2] = Float.intBitsToFloat(bytesToInt(buffer, offset + 8));
-		return v;
+	protected float bytesToFloat(byte buffer[], int offset) {
+		return Float.intBitsToFloat(bytesToInt(buffer, offset));
+	}
+
+	protected short bytesToShort(byte buffer[], int offset) {
+		return (short) ((buffer[offset + 1] & 0xff) << 8 | buffer[offset + 0] & 0xff);
+	}
+
+	/**
+	 * Decodes normal and vertices of facet record into {@code dest}.
+	 */
+	protected void bytesToFacet(byte buffer[], float dest[], int destOffset) {
+		for (int i = 0; i < STLBatchingHandler.FLOATS_PER_FACET; i++)
+			dest[destOffset + i] = bytesToFloat(buffer, i * FLOAT_LENGTH);
+	}
+
+	/**
+	 * Decodes normal and vertices of facet record starting at {@code offset} of
+	 * little-endian {@code buffer} into {@code dest}.
+	 */
+	protected void bufferToFacet(ByteBuffer buffer, int offset, float dest[], int destOffset) {
+		for (int i = 0; i < STLBatchingHandler.FLOATS_PER_FACET; i++)
+			dest[destOffset + i] = buffer.getFloat(offset + i * FLOAT_LENGTH);
 	}
 
 	protected int bytesToInt(byte buffer[], int offset) {
@@ -75,51 +107,216 @@ class STLBinaryParser implements STLParser {
 	}
 
 	@Override
-	public void parse(InputStream in, STLParserHandler handler) throws STLParserException {
-		byte buffer[] = new byte[80];
+	public void parse(InputStream in, STLParserHandler parserHandler) throws STLParserException {
+		STLFacetHandler handler = STLFacetHandlerAdapter.wrap(parserHandler);
+		STLBatchingHandler batcher = parserHandler instanceof STLBatchingHandler ? (STLBatchingHandler) parserHandler
+				: null;
+		byte buffer[] = new byte[FACET_LENGTH];
+		handler.beginBinary(readHeader(in));
+		long numberOfTriangles = readNumberOfTriangles(in, buffer);
+		handler.numberOfTrinagles((int) Math.min(numberOfTriangles, Integer.MAX_VALUE));
+		int readLen;
+		for (long t = 0; t < numberOfTriangles; t++) {
+			try {
+				readLen = readRequiredLength(in, buffer, 50);
+			} catch (IOException ioe) {
+				throw new STLParserException(
+						(new StringBuilder()).append("STLP_0005: Unexpected IO exception while reading triangle's ").append(t + 1)
+								.append(" of ").append(numberOfTriangles).append(" data").toString(),
+						ioe);
+			}
+			if (readLen != 50)
+				throw new STLParserException(
+						(new StringBuilder()).append("STLP_0005: Unexpected end of stream while reading triangle's ").append(t + 1)
+								.append(" of ").append(numberOfTriangles).append(" normal. Read ").append(readLen).append(", expected ")
+								.append(50).append(".").toString());
+			if (batcher != null) {
+				bytesToFacet(buffer, batcher.facets, batcher.reserve());
+				batcher.commit(bytesToShort(buffer, 48));
+				continue;
+			}
+			handler.facet(bytesToFloat(buffer, 0), bytesToFloat(buffer, 4), bytesToFloat(buffer, 8), bytesToFloat(buffer, 12),
+					bytesToFloat(buffer, 16), bytesToFloat(buffer, 20), bytesToFloat(buffer, 24), bytesToFloat(buffer, 28),
+					bytesToFloat(buffer, 32), bytesToFloat(buffer, 36), bytesToFloat(buffer, 40), bytesToFloat(buffer, 44),
+					bytesToShort(buffer, 48));
+		}
+
+		handler.endSolid();
+	}
+
+	/**
+	 * Reads 80 bytes of header from stream.
+	 */
+	private byte[] readHeader(InputStream in) throws STLParserException {
+		byte header[] = new byte[BINARY_STL_HEADER_LENGTH];
 		int readLen;
 		try {
-			readLen = readRequiredLength(in, buffer, 80);
+			readLen = readRequiredLength(in, header, BINARY_STL_HEADER_LENGTH);
 		} catch (IOException ioe) {
 			throw new STLParserException("STLP_0002: Unexpected IO exception while reading binary STL header.", ioe);
 		}
-		if (readLen != 80)
+		if (readLen != BINARY_STL_HEADER_LENGTH)
 			throw new STLParserException((new StringBuilder())
 					.append("STLP_0001: Unexpected end of stream while reading binary STL header, expected 80, read ")
 					.append(readLen).append(".").toString());
-		handler.beginBinary(buffer);
+		return header;
+	}
+
+	/**
+	 * Reads unsigned number of triangles following header from stream.
+	 * 
+	 * @param buffer
+	 *          the buffer of at least 4 bytes used to read number
+	 */
+	private long readNumberOfTriangles(InputStream in, byte buffer[]) throws STLParserException {
+		int readLen;
 		try {
-			readLen = readRequiredLength(in, buffer, 4);
+			readLen = readRequiredLength(in, buffer, INTEGER_LENGTH);
 		} catch (IOException ioe) {
 			throw new STLParserException("STLP_0003: Unexpected IO exception while reading number of triangles.", ioe);
 		}
-		if (readLen != 4)
+		if (readLen != INTEGER_LENGTH)
 			throw new STLParserException((new StringBuilder())
 					.append("STLP_0004: Unexpected end of stream while reading number of triangles., expected 4, read ")
 					.append(readLen).append(".").toString());
-		int numberOfTriangles = bytesToInt(buffer, 0);
-		for (int t = 0; t < numberOfTriangles; t++) {
-			try {
-				readLen = readRequiredLength(in, buffer, 50);
-			} catch (IOException ioe) {
-				throw new STLParserException(
-						(new StringBuilder()).append("STLP_0005: Unexpected IO exception while reading triangle's ").append(t + 1)
-								.append(" of ").append(numberOfTriangles).append(" data").toString(),
-						ioe);
+		return bytesToInt(buffer, 0) & 0xffffffffL;
+	}
+
+	/**
+	 * Reads header and number of triangles of binary model starting at
+	 * {@code start} of channel.
+	 * 
+	 * @return the buffer with header and number of triangles, positioned after
+	 *         read data
+	 */
+	ByteBuffer readHeader(FileChannel channel, long start) throws STLParserException {
+		ByteBuffer header = ByteBuffer.allocate(BINARY_STL_HEADER_LENGTH + INTEGER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+		try {
+			while (header.hasRemaining() && channel.read(header, start + header.position()) != -1)
+				;
+		} catch (IOException ioe) {
+			throw new STLParserException("STLP_0002: Unexpected IO exception while reading binary STL header.", ioe);
+		}
+		if (header.position() < BINARY_STL_HEADER_LENGTH)
+			throw new STLParserException((new StringBuilder())
+					.append("STLP_0001: Unexpected end of stream while reading binary STL header, expected 80, read ")
+					.append(header.position()).append(".").toString());
+		return header;
+	}
+
+	/**
+	 * Returns unsigned number of triangles from header read by
+	 * {@link #readHeader(FileChannel, long)}.
+	 */
+	long numberOfTriangles(ByteBuffer header) throws STLParserException {
+		if (header.position() != header.capacity())
+			throw new STLParserException((new StringBuilder())
+					.append("STLP_0004: Unexpected end of stream while reading number of triangles., expected 4, read ")
+					.append(header.position() - BINARY_STL_HEADER_LENGTH).append(".").toString());
+		return header.getInt(BINARY_STL_HEADER_LENGTH) & 0xffffffffL;
+	}
+
+	byte[] headerBytes(ByteBuffer header) {
+		byte headerBytes[] = new byte[BINARY_STL_HEADER_LENGTH];
+		System.arraycopy(header.array(), 0, headerBytes, 0, BINARY_STL_HEADER_LENGTH);
+		return headerBytes;
+	}
+
+	/**
+	 * Maps {@code count} facets, starting from facet {@code first}, and passes
+	 * them to handler. Facets are mapped in chunks of
+	 * {@link #MAPPED_CHUNK_FACETS}.
+	 * 
+	 * @param facetsStart
+	 *          the position of 1st facet of model in channel
+	 */
+	void parseMapped(FileChannel channel, long facetsStart, long first, long count, STLParserHandler parserHandler)
+			throws IOException {
+		STLFacetHandler handler = STLFacetHandlerAdapter.wrap(parserHandler);
+		STLBatchingHandler batcher = parserHandler instanceof STLBatchingHandler ? (STLBatchingHandler) parserHandler
+				: null;
+		for (long t = first, last = first + count; t < last;) {
+			int facets = (int) Math.min(MAPPED_CHUNK_FACETS, last - t);
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, facetsStart + t * FACET_LENGTH,
+					(long) facets * FACET_LENGTH);
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			for (int offset = 0, end = facets * FACET_LENGTH; offset < end; offset += FACET_LENGTH) {
+				if (batcher != null) {
+					bufferToFacet(buffer, offset, batcher.facets, batcher.reserve());
+					batcher.commit(buffer.getShort(offset + 48));
+					continue;
+				}
+				handler.facet(buffer.getFloat(offset), buffer.getFloat(offset + 4), buffer.getFloat(offset + 8),
+						buffer.getFloat(offset + 12), buffer.getFloat(offset + 16), buffer.getFloat(offset + 20),
+						buffer.getFloat(offset + 24), buffer.getFloat(offset + 28), buffer.getFloat(offset + 32),
+						buffer.getFloat(offset + 36), buffer.getFloat(offset + 40), buffer.getFloat(offset + 44),
+						buffer.getShort(offset + 48));
 			}
-			if (readLen != 50)
-				throw new STLParserException(
-						(new StringBuilder()).append("STLP_0005: Unexpected end of stream while reading triangle's ").append(t + 1)
-								.append(" of ").append(numberOfTriangles).append(" normal. Read ").append(readLen).append(", expected ")
-								.append(50).append(".").toString());
-			float normal[] = bytesToVertex(buffer, 0);
-			handler.beginFacet(normal);
-			float v1[] = bytesToVertex(buffer, 12);
-			float v2[] = bytesToVertex(buffer, 24);
-			float v3[] = bytesToVertex(buffer, 36);
-			handler.triangle(v1, v2, v3);
-			handler.endFacet();
+			t += facets;
+		}
+	}
+
+	/**
+	 * Opens cursor of binary model read from stream.
+	 */
+	STLAbstractFacetCursor cursor(InputStream in) throws STLParserException {
+		byte header[] = readHeader(in);
+		return new STLBinaryFacetCursor(header, in, readNumberOfTriangles(in, new byte[INTEGER_LENGTH]));
+	}
+
+	/**
+	 * Opens spliterator of facets of binary model, starting at current position
+	 * of channel.
+	 */
+	STLFacetSpliterator spliterator(FileChannel channel) throws STLParserException {
+		long start;
+		long size;
+		try {
+			start = channel.position();
+			size = channel.size();
+		} catch (IOException ioe) {
+			throw new STLParserException("STLP_0002: Unexpected IO exception while reading binary STL header.", ioe);
+		}
+		ByteBuffer header = readHeader(channel, start);
+		long numberOfTriangles = numberOfTriangles(header);
+		long facetsStart = start + header.capacity();
+		long availableTriangles = Math.min(numberOfTriangles, (size - facetsStart) / FACET_LENGTH);
+		return new STLFacetSpliterator(headerBytes(header), channel, facetsStart, 0, availableTriangles,
+				numberOfTriangles);
+	}
+
+	/**
+	 * Parses binary model by mapping facet data into memory. Model is read from
+	 * current position of channel, after parsing channel is positioned after
+	 * last facet.
+	 */
+	@Override
+	public void parse(FileChannel channel, STLParserHandler handler) throws STLParserException {
+		long start;
+		long size;
+		try {
+			start = channel.position();
+			size = channel.size();
+		} catch (IOException ioe) {
+			throw new STLParserException("STLP_0002: Unexpected IO exception while reading binary STL header.", ioe);
+		}
+		ByteBuffer header = readHeader(channel, start);
+		handler.beginBinary(headerBytes(header));
+		long numberOfTriangles = numberOfTriangles(header);
+		handler.numberOfTrinagles((int) Math.min(numberOfTriangles, Integer.MAX_VALUE));
+		long facetsStart = start + header.capacity();
+		long availableTriangles = Math.min(numberOfTriangles, (size - facetsStart) / FACET_LENGTH);
+		try {
+			parseMapped(channel, facetsStart, 0, availableTriangles, handler);
+			channel.position(facetsStart + availableTriangles * FACET_LENGTH);
+		} catch (IOException ioe) {
+			throw new STLParserException("STLP_0005: Unexpected IO exception while reading triangles data.", ioe);
 		}
+		if (availableTriangles != numberOfTriangles)
+			throw new STLParserException((new StringBuilder()).append("STLP_0005: Unexpected end of stream while reading triangle's ")
+					.append(availableTriangles + 1).append(" of ").append(numberOfTriangles).append(" normal. Read ")
+					.append(Math.max(0, size - facetsStart - availableTriangles * FACET_LENGTH)).append(", expected ")
+					.append(FACET_LENGTH).append(".").toString());
 
 		handler.endSolid();
 	}
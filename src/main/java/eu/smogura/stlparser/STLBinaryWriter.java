@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2016 Radek Smogura <mail@smogura.eu>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package eu.smogura.stlparser;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The writer of binary models.
+ * <p>
+ * Number of triangles is known only at the end of solid. If header is still
+ * in buffer it's patched there, otherwise it's written at position of header
+ * for seekable channels. For other channels number declared with
+ * {@link #numberOfTrinagles(int)} is written, and it has to match number of
+ * written facets.
+ * </p>
+ * 
+ * @author Radek Smogura
+ * @since 1.1.0
+ */
+final class STLBinaryWriter extends STLWriter {
+
+	static final int		BUFFER_LENGTH					= 1 << 20;
+
+	/** Maximal number of facets of binary model, as unsigned 32 bit number. */
+	static final long		MAX_FACETS						= 0xffffffffL;
+
+	/** Offset of number of triangles in buffer, or {@code -1} if flushed. */
+	private int					countOffset						= -1;
+
+	/** Position of number of triangles in seekable channel, or {@code -1}. */
+	private long				countPosition					= -1;
+
+	/** Number of triangles declared by caller, or {@code -1}. */
+	private long				declaredTriangles			= -1;
+
+	STLBinaryWriter(WritableByteChannel channel, boolean ownChannel) {
+		super(channel, ownChannel, ByteBuffer.allocateDirect(BUFFER_LENGTH).order(ByteOrder.LITTLE_ENDIAN));
+	}
+
+	@Override
+	void writeBegin(String name, byte header[]) {
+		if (header == null)
+			header = name != null ? name.getBytes(StandardCharsets.US_ASCII) : new byte[0];
+		int length = Math.min(header.length, STLBinaryParser.BINARY_STL_HEADER_LENGTH);
+		if (buffer.remaining() < STLBinaryParser.BINARY_STL_HEADER_LENGTH + STLBinaryParser.INTEGER_LENGTH)
+			flush();
+		buffer.put(header, 0, length);
+		for (int i = length; i < STLBinaryParser.BINARY_STL_HEADER_LENGTH; i++)
+			buffer.put((byte) 0);
+		countOffset = buffer.position();
+		countPosition = -1;
+		buffer.putInt(0);
+	}
+
+	/**
+	 * Declares number of triangles, required only for channels which are not
+	 * seekable, if model doesn't fit in buffer.
+	 */
+	@Override
+	public void numberOfTrinagles(int count) {
+		declaredTriangles = count & MAX_FACETS;
+	}
+
+	@Override
+	void writeFacet(float nx, float ny, float nz, float x1, float y1, float z1, float x2, float y2, float z2, float x3,
+			float y3, float z3, short attributes) {
+		if (getNumberOfFacets() == MAX_FACETS)
+			throw new STLParserException("STLP_0030: Number of facets exceeds limit of binary STL.");
+		if (buffer.remaining() < STLBinaryParser.FACET_LENGTH)
+			flush();
+		buffer.putFloat(nx).putFloat(ny).putFloat(nz);
+		buffer.putFloat(x1).putFloat(y1).putFloat(z1);
+		buffer.putFloat(x2).putFloat(y2).putFloat(z2);
+		buffer.putFloat(x3).putFloat(y3).putFloat(z3);
+		buffer.putShort(attributes);
+	}
+
+	@Override
+	void writeEnd() {
+		int count = (int) getNumberOfFacets();
+		if (countOffset != -1) {
+			buffer.putInt(countOffset, count);
+		} else if (countPosition != -1) {
+			flush();
+			ByteBuffer number = ByteBuffer.allocate(STLBinaryParser.INTEGER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+			number.putInt(0, count);
+			try {
+				if (channel instanceof FileChannel) {
+					while (number.hasRemaining())
+						((FileChannel) channel).write(number, countPosition + number.position());
+				} else {
+					SeekableByteChannel seekable = (SeekableByteChannel) channel;
+					long position = seekable.position();
+					seekable.position(countPosition);
+					while (number.hasRemaining())
+						seekable.write(number);
+					seekable.position(position);
+				}
+			} catch (IOException ioe) {
+				throw new STLParserException("STLP_0029: Unexpected IO exception while writing STL.", ioe);
+			}
+		} else if (declaredTriangles != getNumberOfFacets()) {
+			throw new STLParserException((new StringBuilder())
+					.append("STLP_0030: Number of facets written to channel which is not seekable, ").append(getNumberOfFacets())
+					.append(", differs from declared number of triangles ").append(declaredTriangles).append(".").toString());
+		}
+		countOffset = -1;
+		countPosition = -1;
+		declaredTriangles = -1;
+	}
+
+	/**
+	 * Writes buffered data, remembering position of number of triangles if
+	 * header is written.
+	 */
+	@Override
+	public void flush() {
+		if (countOffset != -1) {
+			if (channel instanceof SeekableByteChannel) {
+				try {
+					countPosition = ((SeekableByteChannel) channel).position() + countOffset;
+				} catch (IOException ioe) {
+					throw new STLParserException("STLP_0029: Unexpected IO exception while writing STL.", ioe);
+				}
+			} else if (declaredTriangles != -1) {
+				buffer.putInt(countOffset, (int) declaredTriangles);
+			}
+			countOffset = -1;
+		}
+		super.flush();
+	}
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright (c) 2016 Radek Smogura <mail@smogura.eu>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package eu.smogura.stlparser;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.SequenceInputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.FutureTask;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * The stream inflating gzip stream made of blocks recording their size, in
+ * parallel.
+ * <p>
+ * Blocks are gzip members with {@code BC} extra subfield holding size of
+ * member, as written by BGZF ({@code bgzip}), so next block can be read
+ * before previous one is inflated. Compressed blocks are read by thread
+ * reading stream, and inflated by tasks of executor, up to fixed number of
+ * blocks ahead, and inflated blocks are returned in order. If member without
+ * size is found, rest of stream is inflated sequentially.
+ * </p>
+ * <p>
+ * Closing stream cancels pending tasks, without closing underlying stream.
+ * Stream is read by single thread.
+ * </p>
+ *
+ * @author Radek Smogura
+ * @since 1.1.0
+ */
+final class STLBlockGzipInputStream extends InputStream {
+
+	/** Length of fixed part of member header, with length of extra field. */
+	static final int																HEADER_LENGTH		= 12;
+
+	private static final int												TRAILER_LENGTH	= 8;
+
+	private static final int												FLAG_EXTRA			= 4;
+
+	/** Maximal size of inflated block, blocks hold at most 64KB. */
+	private static final int												MAX_BLOCK_SIZE	= 1 << 16;
+
+	private static final byte												EMPTY[]					= new byte[0];
+
+	private final InputStream												in;
+
+	private final Executor													executor;
+
+	/** Maximal number of blocks being inflated. */
+	private final int																window;
+
+	private final ArrayDeque<FutureTask<byte[]>>		pending					= new ArrayDeque<>();
+
+	/** If all blocks have been read from underlying stream. */
+	private boolean																	eof;
+
+	/** Number of blocks read from underlying stream. */
+	private long																		blocks;
+
+	/** Sequentially inflated rest of stream, or {@code null}. */
+	private InputStream															rest;
+
+	private byte																		current[]				= EMPTY;
+
+	private int																			position;
+
+	/**
+	 * @param in
+	 *          the stream positioned at header of first block
+	 */
+	STLBlockGzipInputStream(InputStream in, Executor executor) {
+		this.in = in;
+		this.executor = executor;
+		int parallelism = executor instanceof ForkJoinPool ? ((ForkJoinPool) executor).getParallelism()
+				: Runtime.getRuntime().availableProcessors();
+		this.window = 2 * Math.max(1, parallelism);
+	}
+
+	@Override
+	public int read() throws IOException {
+		byte b[] = new byte[1];
+		return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+	}
+
+	@Override
+	public int read(byte b[], int off, int len) throws IOException {
+		if (len == 0)
+			return 0;
+		while (position == current.length) {
+			fill();
+			if (pending.isEmpty())
+				return rest != null ? rest.read(b, off, len) : -1;
+			current = await(pending.poll());
+			position = 0;
+		}
+		int length = Math.min(len, current.length - position);
+		System.arraycopy(current, position, b, off, length);
+		position += length;
+		return length;
+	}
+
+	@Override
+	public int available() {
+		return current.length - position;
+	}
+
+	/**
+	 * Cancels pending tasks, without closing underlying stream.
+	 */
+	@Override
+	public void close() throws IOException {
+		for (FutureTask<byte[]> task : pending)
+			task.cancel(false);
+		pending.clear();
+		eof = true;
+		if (rest != null)
+			rest.close();
+	}
+
+	/**
+	 * Reads blocks and submits them to be inflated, until window is full.
+	 */
+	private void fill() throws IOException {
+		while (!eof && rest == null && pending.size() < window)
+			readBlock();
+	}
+
+	private void readBlock() throws IOException {
+		byte header[] = new byte[HEADER_LENGTH];
+		int length = STLParserImpl.readFully(in, header);
+		if (length == 0) {
+			eof = true;
+			return;
+		}
+		if (length < HEADER_LENGTH || !STLDecompression.isGzip(header, length) || (header[3] & FLAG_EXTRA) == 0) {
+			sequential(header, length);
+			return;
+		}
+		byte block[] = new byte[HEADER_LENGTH + ((header[10] & 0xff) | (header[11] & 0xff) << 8)];
+		System.arraycopy(header, 0, block, 0, HEADER_LENGTH);
+		length = HEADER_LENGTH + STLParserImpl.readFully(in, block, HEADER_LENGTH, block.length - HEADER_LENGTH);
+		int size = blockSize(block, length);
+		if (size == -1) {
+			sequential(block, length);
+			return;
+		}
+		if (size < block.length + TRAILER_LENGTH)
+			throw new ZipException("Corrupt gzip block size");
+		byte data[] = new byte[size - block.length];
+		if (STLParserImpl.readFully(in, data) < data.length)
+			throw new EOFException("Unexpected end of gzip block");
+		FutureTask<byte[]> task = new FutureTask<>(() -> inflate(data));
+		pending.add(task);
+		blocks++;
+		executor.execute(task);
+	}
+
+	/**
+	 * Inflates rest of stream sequentially, starting with already read bytes.
+	 */
+	private void sequential(byte read[], int length) throws IOException {
+		eof = true;
+		InputStream remaining = new SequenceInputStream(new ByteArrayInputStream(read, 0, length), in);
+		try {
+			rest = new GZIPInputStream(new STLDecompression.UnclosedInputStream(remaining));
+		} catch (ZipException | EOFException e) {
+			// Data after blocks is ignored, as by other gzip readers
+			if (blocks == 0)
+				throw e;
+		}
+	}
+
+	/**
+	 * Inflates block, checking its size and checksum.
+	 *
+	 * @param data
+	 *          the block after its header, deflated data and trailer
+	 */
+	private static byte[] inflate(byte data[]) throws IOException {
+		int compressed = data.length - TRAILER_LENGTH;
+		int crc = readInt(data, compressed);
+		int size = readInt(data, compressed + 4);
+		if (size < 0 || size > MAX_BLOCK_SIZE)
+			throw new ZipException("Corrupt gzip block size");
+		byte out[] = new byte[size];
+		Inflater inflater = new Inflater(true);
+		try {
+			inflater.setInput(data, 0, compressed);
+			int length = 0;
+			int inflated;
+			while (!inflater.finished() && (inflated = inflater.inflate(out, length, size - length)) > 0)
+				length += inflated;
+			// Final block of deflated data may end without output
+			if (!inflater.finished() && length == size && inflater.inflate(new byte[1]) > 0)
+				throw new ZipException("Corrupt gzip block size");
+			if (!inflater.finished() || length != size)
+				throw new ZipException("Corrupt gzip block");
+		} catch (DataFormatException dfe) {
+			throw new ZipException("Corrupt gzip block: " + dfe.getMessage());
+		} finally {
+			inflater.end();
+		}
+		CRC32 checksum = new CRC32();
+		checksum.update(out, 0, size);
+		if ((int) checksum.getValue() != crc)
+			throw new ZipException("Corrupt gzip block, checksum mismatch");
+		return out;
+	}
+
+	private static byte[] await(FutureTask<byte[]> task) throws IOException {
+		try {
+			return task.get();
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while inflating gzip block");
+		} catch (ExecutionException ee) {
+			Throwable cause = ee.getCause();
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new IOException(cause);
+		}
+	}
+
+	/**
+	 * Returns size of member from {@code BC} extra subfield of its header.
+	 *
+	 * @param header
+	 *          the beginning of member, with extra field
+	 * @return the size of member, with header and trailer, or {@code -1} if
+	 *         header has no size
+	 */
+	static int blockSize(byte header[], int length) {
+		if (length < HEADER_LENGTH || (header[3] & FLAG_EXTRA) == 0)
+			return -1;
+		int end = Math.min(length, HEADER_LENGTH + ((header[10] & 0xff) | (header[11] & 0xff) << 8));
+		for (int i = HEADER_LENGTH; i + 4 <= end;) {
+			int subfieldLength = (header[i + 2] & 0xff) | (header[i + 3] & 0xff) << 8;
+			if (header[i] == 'B' && header[i + 1] == 'C' && subfieldLength == 2 && i + 6 <= end)
+				return ((header[i + 4] & 0xff) | (header[i + 5] & 0xff) << 8) + 1;
+			i += 4 + subfieldLength;
+		}
+		return -1;
+	}
+
+	private static int readInt(byte b[], int offset) {
+		return (b[offset] & 0xff) | (b[offset + 1] & 0xff) << 8 | (b[offset + 2] & 0xff) << 16
+				| (b[offset + 3] & 0xff) << 24;
+	}
+}
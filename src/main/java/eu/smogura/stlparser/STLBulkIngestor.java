@@ -0,0 +1,326 @@
+/*
+ * Copyright (c) 2016 Radek Smogura <mail@smogura.eu>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package eu.smogura.stlparser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * The ingestor parsing many models, from files, directories and archives,
+ * concurrently.
+ * <p>
+ * Directories are walked recursively for models and archives. Archives are ZIP
+ * files, including ZIP based packages like 3MF, from which entries with
+ * {@code .stl} extension are parsed. Each model is parsed by
+ * {@link STLParser} into own handler, created by handler factory for name of
+ * model.
+ * </p>
+ * <p>
+ * Models are parsed on virtual threads if they are supported by runtime (Java
+ * 21 and newer), otherwise on pool of platform threads. At most given number of
+ * models is parsed at once, and models are not started when total size of
+ * models being parsed would exceed limit, unless no other model is being
+ * parsed. Failure of model doesn't stop ingestion, it's recorded in
+ * {@link STLIngestResult}, with error code of {@link STLParserException}.
+ * </p>
+ * <p>
+ * Ingestor is immutable, and can run many ingestions at once.
+ * </p>
+ *
+ * @author Radek Smogura
+ * @since 1.1.0
+ */
+public class STLBulkIngestor {
+
+	/** Extension of models. */
+	public static final String	MODEL_EXTENSION			= ".stl";
+
+	/** Extensions of archives of models. */
+	public static final String	ARCHIVE_EXTENSIONS[]	= { ".zip", ".3mf" };
+
+	/** Separator of path of archive and name of entry, in names of models. */
+	public static final String	ARCHIVE_SEPARATOR		= "!/";
+
+	private final STLParser			parser;
+
+	private final int						concurrency;
+
+	private final long					maxInFlightBytes;
+
+	STLBulkIngestor(STLParser parser, int concurrency, long maxInFlightBytes) {
+		this.parser = parser;
+		this.concurrency = concurrency;
+		this.maxInFlightBytes = maxInFlightBytes;
+	}
+
+	/**
+	 * Ingests model file, archive, or directory walked recursively.
+	 *
+	 * @param handlers
+	 *          the factory of handlers, called with name of each model
+	 * @throws STLParserException
+	 *           if directory can't be walked, or ingestion is interrupted
+	 */
+	public <H extends STLParserHandler> STLIngestResult<H> ingest(Path path, Function<String, ? extends H> handlers)
+			throws STLParserException {
+		return ingest(Collections.singletonList(path), handlers);
+	}
+
+	/**
+	 * Ingests many model files, archives, or directories walked recursively.
+	 *
+	 * @param handlers
+	 *          the factory of handlers, called with name of each model
+	 * @throws STLParserException
+	 *           if directory can't be walked, or ingestion is interrupted
+	 */
+	public <H extends STLParserHandler> STLIngestResult<H> ingest(Collection<Path> paths,
+			Function<String, ? extends H> handlers) throws STLParserException {
+		long start = System.nanoTime();
+		Ingestion<H> ingestion = new Ingestion<>(handlers);
+		try {
+			for (Path path : paths) {
+				if (Files.isDirectory(path)) {
+					for (Path file : walk(path))
+						ingestion.submit(file);
+				} else {
+					ingestion.submit(path);
+				}
+			}
+		} finally {
+			ingestion.close();
+		}
+		return new STLIngestResult<>(ingestion.entries, System.nanoTime() - start);
+	}
+
+	/**
+	 * Lists models and archives in directory and its subdirectories, in order of
+	 * paths.
+	 */
+	private static List<Path> walk(Path directory) throws STLParserException {
+		try (Stream<Path> files = Files.walk(directory)) {
+			return files.filter(file -> Files.isRegularFile(file) && (isModel(file) || isArchive(file))).sorted()
+					.collect(Collectors.toList());
+		} catch (IOException | RuntimeException e) {
+			throw new STLParserException((new StringBuilder())
+					.append("STLP_0034: Unexpected IO exception while listing models in ").append(directory).append(".")
+					.toString(), e);
+		}
+	}
+
+	private static long size(Path file) {
+		try {
+			return Files.size(file);
+		} catch (IOException ioe) {
+			// Reported when model is parsed
+			return -1;
+		}
+	}
+
+	private static boolean isModel(Path file) {
+		return file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(MODEL_EXTENSION);
+	}
+
+	private static boolean isArchive(Path file) {
+		String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+		for (String extension : ARCHIVE_EXTENSIONS) {
+			if (name.endsWith(extension))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Creates executor of virtual threads, if they are supported by runtime, or
+	 * pool of platform threads.
+	 */
+	private ExecutorService newExecutor() {
+		try {
+			// Java 21 API, looked up to run on older versions
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			return Executors.newFixedThreadPool(concurrency, runnable -> {
+				Thread thread = new Thread(runnable, "stl-ingestor");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+	}
+
+	/**
+	 * The state of single call of ingest. Models are submitted by calling thread,
+	 * which waits for free slot and bytes, so number of pending tasks is bounded.
+	 */
+	private class Ingestion<H extends STLParserHandler> {
+
+		private final Function<String, ? extends H>		handlers;
+
+		private final ExecutorService									executor	= newExecutor();
+
+		private final Semaphore												slots			= new Semaphore(concurrency);
+
+		private final List<STLIngestResult.Entry<H>>	entries		= new ArrayList<>();
+
+		private final List<ZipFile>										archives	= new ArrayList<>();
+
+		/** Total size of models being parsed, guarded by this. */
+		private long																	inFlightBytes;
+
+		/** Error thrown by task, rethrown when ingestion is closed. */
+		private volatile Error												error;
+
+		Ingestion(Function<String, ? extends H> handlers) {
+			this.handlers = handlers;
+		}
+
+		void submit(Path file) throws STLParserException {
+			if (!isArchive(file)) {
+				STLIngestResult.Entry<H> entry = entry(file.toString(), size(file));
+				submit(entry, handler -> parser.parse(file, handler));
+				return;
+			}
+			ZipFile archive;
+			try {
+				archive = new ZipFile(file.toFile());
+			} catch (IOException | RuntimeException e) {
+				entry(file.toString(), size(file)).failed(null, new STLParserException((new StringBuilder())
+						.append("STLP_0034: Unexpected IO exception while opening archive ").append(file).append(".").toString(),
+						e));
+				return;
+			}
+			// Archive is closed when all its entries are parsed, with ingestion
+			archives.add(archive);
+			Enumeration<? extends ZipEntry> zipEntries = archive.entries();
+			while (zipEntries.hasMoreElements()) {
+				ZipEntry zipEntry = zipEntries.nextElement();
+				if (zipEntry.isDirectory() || !zipEntry.getName().toLowerCase(Locale.ROOT).endsWith(MODEL_EXTENSION))
+					continue;
+				STLIngestResult.Entry<H> entry = entry(file + ARCHIVE_SEPARATOR + zipEntry.getName(), zipEntry.getSize());
+				submit(entry, handler -> {
+					try (InputStream in = archive.getInputStream(zipEntry)) {
+						parser.parse(in, handler);
+					} catch (IOException ioe) {
+						throw new STLParserException((new StringBuilder())
+								.append("STLP_0034: Unexpected IO exception while reading ").append(entry.getName()).append(".")
+								.toString(), ioe);
+					}
+				});
+			}
+		}
+
+		private STLIngestResult.Entry<H> entry(String name, long size) {
+			STLIngestResult.Entry<H> entry = new STLIngestResult.Entry<>(name, size);
+			entries.add(entry);
+			return entry;
+		}
+
+		private void submit(STLIngestResult.Entry<H> entry, ModelParser parse) throws STLParserException {
+			// Models of unknown size count as largest allowed
+			long bytes = Math.min(entry.getSize() >= 0 ? entry.getSize() : maxInFlightBytes, maxInFlightBytes);
+			try {
+				slots.acquire();
+				acquireBytes(bytes);
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				executor.shutdownNow();
+				throw new STLParserException("STLP_0035: Interrupted while waiting for models being ingested.", ie);
+			}
+			executor.execute(() -> {
+				H handler = null;
+				try {
+					handler = handlers.apply(entry.getName());
+					parse.parse(handler);
+					entry.succeeded(handler);
+				} catch (RuntimeException e) {
+					entry.failed(handler, e);
+				} catch (Error e) {
+					entry.failed(handler, new STLParserException(e));
+					error = e;
+				} finally {
+					releaseBytes(bytes);
+					slots.release();
+				}
+			});
+		}
+
+		private synchronized void acquireBytes(long bytes) throws InterruptedException {
+			// Model larger than limit is parsed alone
+			while (inFlightBytes > 0 && inFlightBytes + bytes > maxInFlightBytes)
+				wait();
+			inFlightBytes += bytes;
+		}
+
+		private synchronized void releaseBytes(long bytes) {
+			inFlightBytes -= bytes;
+			notifyAll();
+		}
+
+		/**
+		 * Waits for all submitted models, and releases resources of ingestion.
+		 */
+		void close() throws STLParserException {
+			try {
+				slots.acquire(concurrency);
+				slots.release(concurrency);
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				executor.shutdownNow();
+				throw new STLParserException("STLP_0035: Interrupted while waiting for models being ingested.", ie);
+			} finally {
+				executor.shutdown();
+				for (ZipFile archive : archives) {
+					try {
+						archive.close();
+					} catch (IOException ioe) {
+						// Archive was only read, nothing is lost
+					}
+				}
+			}
+			if (error != null)
+				throw error;
+		}
+	}
+
+	@FunctionalInterface
+	private interface ModelParser {
+		void parse(STLParserHandler handler) throws STLParserException;
+	}
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2016 Radek Smogura <mail@smogura.eu>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package eu.smogura.stlparser;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Detection and decompression of compressed models.
+ * <p>
+ * Models compressed with gzip, and with zlib deflate, are recognized by magic
+ * bytes at their beginning. Gzip streams made of blocks recording their size,
+ * like BGZF written by {@code bgzip}, are inflated in parallel by
+ * {@link STLBlockGzipInputStream}. Size of other gzip members is known only
+ * after they are inflated, so such streams, and zlib streams, are inflated
+ * sequentially, and parsers read them ahead, so inflating overlaps with
+ * parsing.
+ * </p>
+ *
+ * @author Radek Smogura
+ * @since 1.1.0
+ */
+final class STLDecompression {
+
+	/** Number of bytes peeked to detect compression. */
+	static final int					DETECT_LENGTH		= 512;
+
+	/** Minimal number of buffers of read ahead of sequentially inflated models. */
+	static final int					READ_AHEAD_DEPTH	= 4;
+
+	private static final int	GZIP_MAGIC_1			= 0x1f;
+
+	private static final int	GZIP_MAGIC_2			= 0x8b;
+
+	private static final int	DEFLATE_METHOD		= 8;
+
+	/** Compression method and info of zlib streams with 32KB window. */
+	private static final int	ZLIB_CMF					= 0x78;
+
+	private STLDecompression() {
+	}
+
+	/**
+	 * Checks if model is compressed, by its beginning.
+	 *
+	 * @param peek
+	 *          the beginning of model, up to {@link #DETECT_LENGTH} bytes
+	 */
+	static boolean isCompressed(byte peek[], int length) {
+		return isGzip(peek, length) || isZlib(peek, length);
+	}
+
+	/**
+	 * Checks if model starting at current position of channel is compressed.
+	 * Channel position is not changed.
+	 */
+	static boolean isCompressed(FileChannel channel) throws STLParserException {
+		ByteBuffer buff = ByteBuffer.allocate(DETECT_LENGTH);
+		try {
+			long position = channel.position();
+			while (buff.hasRemaining() && channel.read(buff, position + buff.position()) != -1)
+				;
+		} catch (IOException ioe) {
+			throw new STLParserException("STLP_0020: Unexpected IO exception while trying to determine STL file format.",
+					ioe);
+		}
+		return isCompressed(buff.array(), buff.position());
+	}
+
+	/**
+	 * Checks for gzip magic bytes, deflate method, and no reserved flags.
+	 */
+	static boolean isGzip(byte peek[], int length) {
+		return length >= STLBlockGzipInputStream.HEADER_LENGTH && (peek[0] & 0xff) == GZIP_MAGIC_1
+				&& (peek[1] & 0xff) == GZIP_MAGIC_2 && peek[2] == DEFLATE_METHOD && (peek[3] & 0xe0) == 0;
+	}
+
+	/**
+	 * Checks for zlib header, which is short, so beginning of stream is
+	 * inflated to rule out binary headers matching it by accident.
+	 */
+	static boolean isZlib(byte peek[], int length) {
+		if (length < 2 || (peek[0] & 0xff) != ZLIB_CMF || ((peek[0] & 0xff) << 8 | (peek[1] & 0xff)) % 31 != 0)
+			return false;
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(peek, 0, length);
+			byte out[] = new byte[DETECT_LENGTH];
+			while (!inflater.finished() && !inflater.needsInput()) {
+				if (inflater.needsDictionary())
+					return false;
+				inflater.inflate(out);
+			}
+			return true;
+		} catch (DataFormatException dfe) {
+			return false;
+		} finally {
+			inflater.end();
+		}
+	}
+
+	/**
+	 * Returns stream of decompressed model, if model read from stream is
+	 * compressed. Returned stream doesn't close given stream, and should be
+	 * closed to release inflater.
+	 *
+	 * @param in
+	 *          the stream supporting marks
+	 * @param executors
+	 *          the supplier of executor used to inflate blocks in parallel, or
+	 *          {@code null} if blocks should be inflated sequentially
+	 * @return the stream of decompressed model, or {@code null} if model is not
+	 *         compressed
+	 */
+	static InputStream decompress(InputStream in, int bufferSize, Supplier<? extends Executor> executors)
+			throws STLParserException {
+		byte peek[] = new byte[DETECT_LENGTH];
+		try {
+			in.mark(DETECT_LENGTH);
+			int length = STLParserImpl.readFully(in, peek);
+			in.reset();
+			InputStream source = new UnclosedInputStream(in);
+			if (isGzip(peek, length)) {
+				if (executors != null && STLBlockGzipInputStream.blockSize(peek, length) != -1)
+					return new STLBlockGzipInputStream(source, executors.get());
+				return new GZIPInputStream(source, bufferSize);
+			}
+			if (isZlib(peek, length)) {
+				return new InflaterInputStream(source, new Inflater(), bufferSize) {
+					@Override
+					public void close() throws IOException {
+						super.close();
+						// Inflater passed to constructor is not ended by stream
+						inf.end();
+					}
+				};
+			}
+			return null;
+		} catch (IOException ioe) {
+			throw new STLParserException("STLP_0020: Unexpected IO exception while trying to determine STL file format.",
+					ioe);
+		}
+	}
+
+	/**
+	 * The stream which doesn't close underlying stream, owned by caller of
+	 * parser.
+	 */
+	static final class UnclosedInputStream extends FilterInputStream {
+
+		UnclosedInputStream(InputStream in) {
+			super(in);
+		}
+
+		/**
+		 * {@link GZIPInputStream} reads next member only if bytes are available,
+		 * which streams like pipes may not report, so bytes are reported until end
+		 * of stream is reached, when reading next header fails.
+		 */
+		@Override
+		public int available() throws IOException {
+			return Math.max(1, in.available());
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2016 Radek Smogura <mail@smogura.eu>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package eu.smogura.stlparser;
+
+/**
+ * Problem of ASCII model skipped by lenient grammar.
+ * 
+ * @author Radek Smogura
+ * @see STLDiagnostics
+ * @since 1.1.0
+ */
+public enum STLDiagnostic {
+
+	UNEXPECTED_LINE("STLP_0036", "Unexpected line skipped"),
+
+	MALFORMED_NORMAL("STLP_0037", "Malformed facet normal replaced with zero vector"),
+
+	MALFORMED_VERTEX("STLP_0038", "Malformed vertex, facet skipped"),
+
+	VERTEX_OUTSIDE_FACET("STLP_0039", "Vertex outside of facet skipped"),
+
+	EXTRA_VERTEX("STLP_0040", "Facet with more than 3 vertices skipped"),
+
+	INCOMPLETE_FACET("STLP_0041", "Facet with less than 3 vertices skipped"),
+
+	MISSING_END_FACET("STLP_0042", "Facet not closed with 'endfacet'"),
+
+	MISSING_END_SOLID("STLP_0043", "Solid not closed with 'endsolid'");
+
+	private final String	code;
+
+	private final String	message;
+
+	private STLDiagnostic(String code, String message) {
+		this.code = code;
+		this.message = message;
+	}
+
+	/**
+	 * Returns code of diagnostic, like codes of {@link STLParserException}.
+	 */
+	public String getCode() {
+		return code;
+	}
+
+	public String getMessage() {
+		return message;
+	}
+}
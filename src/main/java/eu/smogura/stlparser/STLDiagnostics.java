@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2016 Radek Smogura <mail@smogura.eu>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package eu.smogura.stlparser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The list of diagnostics of ASCII model parsed with lenient grammar.
+ * <p>
+ * Diagnostics are stored as kind and line number in arrays, so recording them
+ * is cheap, and messages are formatted only when requested. At most
+ * {@link #MAX_ENTRIES} diagnostics are stored, further are only counted.
+ * </p>
+ * 
+ * @author Radek Smogura
+ * @since 1.1.0
+ */
+public final class STLDiagnostics {
+
+	/** Maximal number of stored diagnostics. */
+	public static final int		MAX_ENTRIES				= 1000;
+
+	private static final int	INITIAL_CAPACITY	= 16;
+
+	private STLDiagnostic			diagnostics[]			= new STLDiagnostic[INITIAL_CAPACITY];
+
+	private int								lines[]						= new int[INITIAL_CAPACITY];
+
+	private int								size;
+
+	private long							total;
+
+	STLDiagnostics() {
+	}
+
+	void add(STLDiagnostic diagnostic, int line) {
+		total++;
+		if (size == MAX_ENTRIES)
+			return;
+		if (size == lines.length) {
+			diagnostics = Arrays.copyOf(diagnostics, size * 2);
+			lines = Arrays.copyOf(lines, size * 2);
+		}
+		diagnostics[size] = diagnostic;
+		lines[size++] = line;
+	}
+
+	/**
+	 * Appends diagnostics of other list, e.g. of other chunk of model, to this
+	 * one.
+	 * 
+	 * @return this list
+	 */
+	public STLDiagnostics merge(STLDiagnostics other) {
+		long otherTotal = other.total;
+		for (int i = 0; i < other.size; i++)
+			add(other.diagnostics[i], other.lines[i]);
+		total += otherTotal - other.size;
+		return this;
+	}
+
+	/**
+	 * Returns number of stored diagnostics.
+	 */
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return total == 0;
+	}
+
+	/**
+	 * Returns number of all diagnostics, including not stored.
+	 */
+	public long getTotal() {
+		return total;
+	}
+
+	public STLDiagnostic getDiagnostic(int index) {
+		checkIndex(index);
+		return diagnostics[index];
+	}
+
+	/**
+	 * Returns number of line of diagnostic, counting from 1.
+	 */
+	public int getLine(int index) {
+		checkIndex(index);
+		return lines[index];
+	}
+
+	/**
+	 * Returns message of diagnostic, with code and line number.
+	 */
+	public String getMessage(int index) {
+		checkIndex(index);
+		return (new StringBuilder()).append(diagnostics[index].getCode()).append(": ")
+				.append(diagnostics[index].getMessage()).append(" at line ").append(lines[index]).append(".").toString();
+	}
+
+	/**
+	 * Returns messages of all stored diagnostics.
+	 */
+	public List<String> getMessages() {
+		List<String> messages = new ArrayList<>(size);
+		for (int i = 0; i < size; i++)
+			messages.add(getMessage(i));
+		return messages;
+	}
+
+	private void checkIndex(int index) {
+		if (index < 0 || index >= size)
+			throw new IndexOutOfBoundsException((new StringBuilder()).append("Index ").append(index)
+					.append(" out of bounds of ").append(size).append(" diagnostics").toString());
+	}
+
+	@Override
+	public String toString() {
+		return (new StringBuilder()).append("STLDiagnostics[total=").append(total).append(", ").append(getMessages())
+				.append("]").toString();
+	}
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2016 Radek Smogura <mail@smogura.eu>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package eu.smogura.stlparser;
+
+/**
+ * The open addressing hash table of edges of mesh, keyed by primitive
+ * {@code long} keys of undirected edges.
+ * <p>
+ * Each slot holds key, number of uses of edge in each direction, and index of
+ * first facet using edge, in parallel arrays, so table needs 16 bytes per slot
+ * and no objects per edge. Collisions are resolved by linear probing, and table
+ * doubles when it's {@link #LOAD_FACTOR} full. Key {@code 0} marks empty slots,
+ * so it's replaced by {@code 1}.
+ * </p>
+ *
+ * @author Radek Smogura
+ * @since 1.1.0
+ */
+final class STLEdgeTable {
+
+	private static final int		MIN_CAPACITY	= 1 << 10;
+
+	private static final int		MAX_CAPACITY	= 1 << 30;
+
+	private static final float	LOAD_FACTOR		= 0.75f;
+
+	/** Maximal number of uses of edge in one direction, counters saturate. */
+	static final int						MAX_USES			= 0xffff;
+
+	long												keys[];
+
+	/** Uses of edge, forward in low 16 bits, backward in high 16 bits. */
+	int													uses[];
+
+	/** Index of first facet using edge, saturated at maximal int. */
+	int													facets[];
+
+	private int									size;
+
+	private int									threshold;
+
+	/**
+	 * @param expected
+	 *          the expected number of edges
+	 */
+	STLEdgeTable(int expected) {
+		allocate(capacity(expected));
+	}
+
+	/**
+	 * Returns number of edges in table.
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Grows table for expected number of edges, before they are added.
+	 */
+	void reserve(int expected) {
+		int capacity = capacity(expected);
+		if (capacity > keys.length)
+			rehash(capacity);
+	}
+
+	/**
+	 * Records use of edge.
+	 *
+	 * @param key
+	 *          the key of undirected edge
+	 * @param forward
+	 *          if edge is used in direction of key
+	 * @param facet
+	 *          the index of facet using edge
+	 */
+	void add(long key, boolean forward, long facet) {
+		if (key == 0)
+			key = 1;
+		long k[] = keys;
+		int mask = k.length - 1;
+		int slot = (int) key & mask;
+		long current;
+		while ((current = k[slot]) != 0 && current != key)
+			slot = (slot + 1) & mask;
+		if (current == 0) {
+			k[slot] = key;
+			uses[slot] = forward ? 1 : 1 << 16;
+			facets[slot] = (int) Math.min(facet, Integer.MAX_VALUE);
+			if (++size > threshold) {
+				if (k.length == MAX_CAPACITY)
+					throw new IllegalStateException("Too many edges for single table, more shards should be used");
+				rehash(k.length << 1);
+			}
+			return;
+		}
+		count(slot, forward);
+	}
+
+	private void count(int slot, boolean forward) {
+		int u = uses[slot];
+		if (forward) {
+			if ((u & MAX_USES) != MAX_USES)
+				uses[slot] = u + 1;
+		} else if ((u >>> 16) != MAX_USES) {
+			uses[slot] = u + (1 << 16);
+		}
+	}
+
+	private void rehash(int capacity) {
+		long oldKeys[] = keys;
+		int oldUses[] = uses;
+		int oldFacets[] = facets;
+		allocate(capacity);
+		int mask = capacity - 1;
+		for (int i = 0; i < oldKeys.length; i++) {
+			long key = oldKeys[i];
+			if (key == 0)
+				continue;
+			int slot = (int) key & mask;
+			while (keys[slot] != 0)
+				slot = (slot + 1) & mask;
+			keys[slot] = key;
+			uses[slot] = oldUses[i];
+			facets[slot] = oldFacets[i];
+		}
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		uses = new int[capacity];
+		facets = new int[capacity];
+		threshold = (int) (capacity * LOAD_FACTOR);
+	}
+
+	private static int capacity(int expected) {
+		int capacity = MIN_CAPACITY;
+		while (capacity < MAX_CAPACITY && capacity * LOAD_FACTOR < expected)
+			capacity <<= 1;
+		return capacity;
+	}
+}
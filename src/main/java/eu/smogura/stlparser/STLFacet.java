@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2016 Radek Smogura <mail@smogura.eu>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package eu.smogura.stlparser;
+
+/**
+ * Single facet of model, as returned by {@link STLFacetCursor} and streams of
+ * facets.
+ * <p>
+ * Facets are flyweights, instance is reused for next facet read by cursor, so
+ * the caller should copy data it wants to keep, e.g. with
+ * {@link #copyTo(float[], int)}.
+ * </p>
+ * 
+ * @author Radek Smogura
+ * @since 1.1.0
+ */
+public interface STLFacet {
+
+	float getNormalX();
+
+	float getNormalY();
+
+	float getNormalZ();
+
+	/**
+	 * Returns x coordinate of vertex.
+	 * 
+	 * @param vertex
+	 *          the index of vertex, 0, 1 or 2
+	 */
+	float getX(int vertex);
+
+	/**
+	 * Returns y coordinate of vertex.
+	 * 
+	 * @param vertex
+	 *          the index of vertex, 0, 1 or 2
+	 */
+	float getY(int vertex);
+
+	/**
+	 * Returns z coordinate of vertex.
+	 * 
+	 * @param vertex
+	 *          the index of vertex, 0, 1 or 2
+	 */
+	float getZ(int vertex);
+
+	/**
+	 * Returns attribute field of binary facet, or {@code 0} for ASCII models.
+	 */
+	short getAttributes();
+
+	/**
+	 * Copies normal and vertices coordinates into {@code dest}, in layout used
+	 * by {@link STLBatchHandler}.
+	 */
+	default void copyTo(float dest[], int offset) {
+		dest[offset] = getNormalX();
+		dest[offset + 1] = getNormalY();
+		dest[offset + 2] = getNormalZ();
+		for (int v = 0; v < 3; v++) {
+			dest[offset + 3 + v * 3] = getX(v);
+			dest[offset + 4 + v * 3] = getY(v);
+			dest[offset + 5 + v * 3] = getZ(v);
+		}
+	}
+}
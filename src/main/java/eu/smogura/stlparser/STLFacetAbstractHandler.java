@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2016 Radek Smogura <mail@smogura.eu>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package eu.smogura.stlparser;
+
+/**
+ * The abstract no-op facet handler. Should be extended with methods needed by
+ * caller.
+ * <p>
+ * Array based callbacks are translated to {@link #facet}, so subclass can be
+ * fed by parsers as well as by any code producing {@link STLParserHandler}
+ * events.
+ * </p>
+ * 
+ * @author Radek Smogura
+ * @since 1.1.0
+ */
+public abstract class STLFacetAbstractHandler extends STLParserAbstractHandler implements STLFacetHandler {
+
+	/**
+	 * Maximal number of facets for which handlers reserve space in advance, as
+	 * number declared by malformed model can be arbitrarily large.
+	 */
+	static final int	MAX_RESERVED_FACETS	= 1 << 20;
+
+	private float			nx, ny, nz;
+
+	public STLFacetAbstractHandler() {
+	}
+
+	@Override
+	public void beginFacet(float[] n) {
+		nx = n[0];
+		ny = n[1];
+		nz = n[2];
+	}
+
+	@Override
+	public void triangle(float[] v1, float[] v2, float[] v3) {
+		facet(nx, ny, nz, v1[0], v1[1], v1[2], v2[0], v2[1], v2[2], v3[0], v3[1], v3[2], (short) 0);
+	}
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2016 Radek Smogura <mail@smogura.eu>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package eu.smogura.stlparser;
+
+import java.util.Arrays;
+
+/**
+ * The handler storing facets in growing primitive arrays, so they can be
+ * passed to other handler later. Used to hand facets parsed by one thread to
+ * the other.
+ * 
+ * @author Radek Smogura
+ * @since 1.1.0
+ */
+final class STLFacetBuffer extends STLFacetAbstractHandler implements STLSizeHintHandler {
+
+	private static final int	INITIAL_CAPACITY	= 1024;
+
+	private float							facets[];
+
+	private short							attributes[];
+
+	private int								count;
+
+	public STLFacetBuffer() {
+		this(INITIAL_CAPACITY);
+	}
+
+	public STLFacetBuffer(int capacity) {
+		capacity = Math.max(1, capacity);
+		facets = new float[capacity * STLBatchingHandler.FLOATS_PER_FACET];
+		attributes = new short[capacity];
+	}
+
+	@Override
+	public void numberOfTrinagles(int count) {
+		reserve(count);
+	}
+
+	@Override
+	public void estimatedNumberOfTriangles(int count) {
+		reserve(count);
+	}
+
+	private void reserve(int count) {
+		int capacity = Math.min(count, MAX_RESERVED_FACETS);
+		if (capacity > attributes.length)
+			grow(capacity);
+	}
+
+	private void grow(int capacity) {
+		this.facets = Arrays.copyOf(this.facets, capacity * STLBatchingHandler.FLOATS_PER_FACET);
+		this.attributes = Arrays.copyOf(this.attributes, capacity);
+	}
+
+	@Override
+	public void facet(float nx, float ny, float nz, float x1, float y1, float z1, float x2, float y2, float z2, float x3,
+			float y3, float z3, short attributes) {
+		if (count == this.attributes.length)
+			grow(this.attributes.length * 2);
+		int offset = count * STLBatchingHandler.FLOATS_PER_FACET;
+		float f[] = facets;
+		f[offset] = nx;
+		f[offset + 1] = ny;
+		f[offset + 2] = nz;
+		f[offset + 3] = x1;
+		f[offset + 4] = y1;
+		f[offset + 5] = z1;
+		f[offset + 6] = x2;
+		f[offset + 7] = y2;
+		f[offset + 8] = z2;
+		f[offset + 9] = x3;
+		f[offset + 10] = y3;
+		f[offset + 11] = z3;
+		this.attributes[count++] = attributes;
+	}
+
+	/**
+	 * Returns number of stored facets.
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * Passes stored facets to handler. Only facet events are passed.
+	 */
+	public void replay(STLParserHandler parserHandler) {
+		if (parserHandler instanceof STLBatchingHandler) {
+			STLBatchingHandler batcher = (STLBatchingHandler) parserHandler;
+			for (int i = 0; i < count; i++) {
+				System.arraycopy(facets, i * STLBatchingHandler.FLOATS_PER_FACET, batcher.facets, batcher.reserve(),
+						STLBatchingHandler.FLOATS_PER_FACET);
+				batcher.commit(attributes[i]);
+			}
+			return;
+		}
+		STLFacetHandler handler = STLFacetHandlerAdapter.wrap(parserHandler);
+		float f[] = facets;
+		for (int i = 0, o = 0; i < count; i++, o += STLBatchingHandler.FLOATS_PER_FACET)
+			handler.facet(f[o], f[o + 1], f[o + 2], f[o + 3], f[o + 4], f[o + 5], f[o + 6], f[o + 7], f[o + 8], f[o + 9],
+					f[o + 10], f[o + 11], attributes[i]);
+	}
+}
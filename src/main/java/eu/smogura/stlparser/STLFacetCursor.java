@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2016 Radek Smogura <mail@smogura.eu>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package eu.smogura.stlparser;
+
+import java.io.Closeable;
+
+/**
+ * The pull parser of single model.
+ * <p>
+ * Cursor is positioned before first facet, each call to {@link #next()} reads
+ * next facet, which data is accessible with methods of {@link STLFacet}
+ * implemented by cursor itself. Model is read only as far as facets are
+ * requested, so the caller can stop at any moment, closing cursor.
+ * </p>
+ * <p>
+ * Cursor is created with {@link STLParserFactory#createCursor}, and is not
+ * thread safe.
+ * </p>
+ * 
+ * @author Radek Smogura
+ * @since 1.1.0
+ */
+public interface STLFacetCursor extends STLFacet, Closeable {
+
+	/**
+	 * Moves cursor to next facet.
+	 * 
+	 * @return {@code false} if there are no more facets
+	 * @throws STLParserException
+	 *           if model has wrong format
+	 */
+	boolean next() throws STLParserException;
+
+	boolean isAscii();
+
+	/**
+	 * Returns 80 bytes of header of binary model, or {@code null} for ASCII
+	 * models.
+	 */
+	byte[] getHeader();
+
+	/**
+	 * Returns name of ASCII solid, or {@code null} for binary models.
+	 */
+	String getSolidName();
+
+	/**
+	 * Returns diagnostics of facets read so far from ASCII model parsed with
+	 * lenient grammar, or {@code null} for strict grammar and binary models.
+	 */
+	STLDiagnostics getDiagnostics();
+
+	/**
+	 * Closes cursor, and the file if cursor has been created for
+	 * {@link java.nio.file.Path}. Streams and channels passed by the caller are
+	 * not closed.
+	 */
+	@Override
+	void close() throws STLParserException;
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2016 Radek Smogura <mail@smogura.eu>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package eu.smogura.stlparser;
+
+/**
+ * Primitive specialized callback interface for parsing STL models.
+ * <p>
+ * Parsers recognize handlers implementing this interface and pass each facet
+ * with single call to {@link #facet}, with coordinates passed as primitive
+ * values. This way no arrays are allocated per facet. Methods inherited from
+ * {@link STLParserHandler} used to pass facet data ({@code beginFacet},
+ * {@code triangle}, {@code endFacet}) are not called by parsers for such
+ * handlers.
+ * </p>
+ * <p>
+ * Unless needed, the caller should use {@link STLFacetAbstractHandler} as it
+ * translates array based callbacks to {@link #facet}, so handler works with any
+ * source of events.
+ * </p>
+ * 
+ * @author Radek Smogura
+ * @since 1.1.0
+ */
+public interface STLFacetHandler extends STLParserHandler {
+
+	/**
+	 * Callback method called for each facet.
+	 * 
+	 * @param nx
+	 *          the x coordinate of normal vector
+	 * @param ny
+	 *          the y coordinate of normal vector
+	 * @param nz
+	 *          the z coordinate of normal vector
+	 * @param x1
+	 *          the x coordinate of 1st vertex
+	 * @param y1
+	 *          the y coordinate of 1st vertex
+	 * @param z1
+	 *          the z coordinate of 1st vertex
+	 * @param x2
+	 *          the x coordinate of 2nd vertex
+	 * @param y2
+	 *          the y coordinate of 2nd vertex
+	 * @param z2
+	 *          the z coordinate of 2nd vertex
+	 * @param x3
+	 *          the x coordinate of 3rd vertex
+	 * @param y3
+	 *          the y coordinate of 3rd vertex
+	 * @param z3
+	 *          the z coordinate of 3rd vertex
+	 * @param attributes
+	 *          the attribute byte count field of binary models, {@code 0} for
+	 *          ASCII models
+	 */
+	void facet(float nx, float ny, float nz, float x1, float y1, float z1, float x2, float y2, float z2, float x3,
+			float y3, float z3, short attributes);
+}
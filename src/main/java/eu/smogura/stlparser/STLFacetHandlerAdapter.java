@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2016 Radek Smogura <mail@smogura.eu>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package eu.smogura.stlparser;
+
+/**
+ * Adapts {@link STLParserHandler} to {@link STLFacetHandler}, so parsers can
+ * use single code path for both kinds of handlers.
+ * 
+ * @author Radek Smogura
+ * @since 1.1.0
+ */
+final class STLFacetHandlerAdapter implements STLFacetHandler {
+
+	private final STLParserHandler handler;
+
+	private STLFacetHandlerAdapter(STLParserHandler handler) {
+		this.handler = handler;
+	}
+
+	/**
+	 * Returns facet handler delivering events to given handler.
+	 * 
+	 * @param handler
+	 *          the handler to adapt
+	 * @return the handler itself if it's facet handler, or adapter
+	 */
+	static STLFacetHandler wrap(STLParserHandler handler) {
+		if (handler instanceof STLFacetHandler)
+			return (STLFacetHandler) handler;
+		return new STLFacetHandlerAdapter(handler);
+	}
+
+	@Override
+	public void facet(float nx, float ny, float nz, float x1, float y1, float z1, float x2, float y2, float z2, float x3,
+			float y3, float z3, short attributes) {
+		// Legacy handlers may keep references to arrays, so fresh ones are needed
+		handler.beginFacet(new float[] { nx, ny, nz });
+		handler.triangle(new float[] { x1, y1, z1 }, new float[] { x2, y2, z2 }, new float[] { x3, y3, z3 });
+		handler.endFacet();
+	}
+
+	@Override
+	public void beginAscii(String name) {
+		handler.beginAscii(name);
+	}
+
+	@Override
+	public void beginBinary(byte[] header) {
+		handler.beginBinary(header);
+	}
+
+	@Override
+	public void numberOfTrinagles(int count) {
+		handler.numberOfTrinagles(count);
+	}
+
+	@Override
+	public void beginFacet(float[] n) {
+		handler.beginFacet(n);
+	}
+
+	@Override
+	public void endFacet() {
+		handler.endFacet();
+	}
+
+	@Override
+	public void triangle(float[] v1, float[] v2, float[] v3) {
+		handler.triangle(v1, v2, v3);
+	}
+
+	@Override
+	public void endSolid() {
+		handler.endSolid();
+	}
+}
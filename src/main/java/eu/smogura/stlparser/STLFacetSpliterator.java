@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2016 Radek Smogura <mail@smogura.eu>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package eu.smogura.stlparser;
+
+import java.nio.channels.FileChannel;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * The spliterator of facets read with cursor.
+ * <p>
+ * Spliterators of binary files are sized and split their range of facets in
+ * halves, each half is read by its own cursor, mapping only its part of file.
+ * Other models are read sequentially.
+ * </p>
+ * 
+ * @author Radek Smogura
+ * @since 1.1.0
+ */
+final class STLFacetSpliterator implements Spliterator<STLFacet> {
+
+	/** Minimal number of facets of split range. */
+	private static final long	MIN_SPLIT_FACETS	= 1 << 14;
+
+	private STLAbstractFacetCursor	cursor;
+
+	private final byte				header[];
+
+	private final FileChannel	channel;
+
+	private final long				facetsStart;
+
+	private long							first;
+
+	private final long				last;
+
+	private final long				numberOfTriangles;
+
+	/**
+	 * Creates spliterator reading cursor sequentially.
+	 */
+	STLFacetSpliterator(STLAbstractFacetCursor cursor) {
+		this.cursor = cursor;
+		this.header = null;
+		this.channel = null;
+		this.facetsStart = 0;
+		this.last = 0;
+		this.numberOfTriangles = 0;
+	}
+
+	/**
+	 * Creates spliterator of range of facets of binary file, with parameters of
+	 * {@link STLBinaryFacetCursor}.
+	 */
+	STLFacetSpliterator(byte header[], FileChannel channel, long facetsStart, long first, long last,
+			long numberOfTriangles) {
+		this.header = header;
+		this.channel = channel;
+		this.facetsStart = facetsStart;
+		this.first = first;
+		this.last = last;
+		this.numberOfTriangles = numberOfTriangles;
+	}
+
+	/**
+	 * Returns cursor reading facets of spliterator.
+	 */
+	STLAbstractFacetCursor cursor() {
+		if (cursor == null)
+			cursor = new STLBinaryFacetCursor(header, channel, facetsStart, first, last, numberOfTriangles);
+		return cursor;
+	}
+
+	@Override
+	public boolean tryAdvance(Consumer<? super STLFacet> action) {
+		STLAbstractFacetCursor cursor = cursor();
+		if (!cursor.next())
+			return false;
+		first++;
+		action.accept(cursor);
+		return true;
+	}
+
+	@Override
+	public void forEachRemaining(Consumer<? super STLFacet> action) {
+		STLAbstractFacetCursor cursor = cursor();
+		while (cursor.next()) {
+			first++;
+			action.accept(cursor);
+		}
+	}
+
+	@Override
+	public Spliterator<STLFacet> trySplit() {
+		if (channel == null || cursor != null || last - first < 2 * MIN_SPLIT_FACETS)
+			return null;
+		long middle = first + (last - first) / 2;
+		STLFacetSpliterator prefix = new STLFacetSpliterator(header, channel, facetsStart, first, middle, middle);
+		first = middle;
+		return prefix;
+	}
+
+	@Override
+	public long estimateSize() {
+		return channel != null ? Math.max(0, last - first) : Long.MAX_VALUE;
+	}
+
+	@Override
+	public int characteristics() {
+		return channel != null ? ORDERED | NONNULL | SIZED | SUBSIZED : ORDERED | NONNULL;
+	}
+}
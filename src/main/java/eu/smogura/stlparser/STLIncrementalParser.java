@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2016 Radek Smogura <mail@smogura.eu>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package eu.smogura.stlparser;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The push parser, fed with chunks of model as they arrive, for example from
+ * non blocking channels.
+ * <p>
+ * Parser is created with
+ * {@link STLParserFactory#createIncrementalParser(STLParserHandler)}, for
+ * single model. Parser never blocks, it keeps state of parsing between chunks
+ * and notifies handler about each facet as soon as all its data has been fed.
+ * Format is detected after first 84 bytes, as by
+ * {@link STLParser#parse(java.io.InputStream, STLParserHandler)}.
+ * </p>
+ * <p>
+ * Parser is not thread safe, chunks should be fed by single thread at once.
+ * </p>
+ * 
+ * @author Radek Smogura
+ * @since 1.1.0
+ */
+public interface STLIncrementalParser {
+
+	/**
+	 * Parses next chunk of model. All remaining bytes of buffer are consumed.
+	 * 
+	 * @param data
+	 *          the next chunk of model
+	 * @throws STLParserException
+	 *           if model has wrong format
+	 */
+	void feed(ByteBuffer data) throws STLParserException;
+
+	/**
+	 * Notifies parser about end of model.
+	 * 
+	 * @throws STLParserException
+	 *           if model is not complete
+	 */
+	void finish() throws STLParserException;
+
+	/**
+	 * Checks if whole model has been parsed, and handler notified about end of
+	 * solid. Data fed after end of model is ignored.
+	 */
+	boolean isDone();
+}
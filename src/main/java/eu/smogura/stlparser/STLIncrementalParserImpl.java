@@ -0,0 +1,334 @@
+/*
+ * Copyright (c) 2016 Radek Smogura <mail@smogura.eu>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package eu.smogura.stlparser;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * The {@link STLIncrementalParser} implementation, keeping state of format
+ * detection, binary record or ASCII line being read between chunks.
+ * <p>
+ * Binary facets are decoded directly from fed buffers, only record split
+ * between chunks is copied. ASCII lines are tokenized by
+ * {@link STLAsciiReader}, directly in array of fed buffer if line is not split
+ * between chunks.
+ * </p>
+ * 
+ * @author Radek Smogura
+ * @since 1.1.0
+ */
+final class STLIncrementalParserImpl implements STLIncrementalParser {
+
+	private static final int				LINE_LENGTH	= 256;
+
+	private enum State {
+		DETECT, BINARY, ASCII_HEADER, ASCII_FACET, ASCII_OUTER_LOOP, ASCII_VERTEX, ASCII_END_LOOP, ASCII_END_FACET, DONE
+	}
+
+	private final STLParserHandler	parserHandler;
+
+	private final STLFacetHandler		handler;
+
+	private final STLAsciiParser		asciiParser;
+
+	/** Lenient grammar, or {@code null} for strict one. */
+	private final STLAsciiRecovery	recovery;
+
+	private State										state				= State.DETECT;
+
+	private boolean									finished;
+
+	private final byte							peek[]			= new byte[STLParserImpl.PEEK_LENGTH];
+
+	private int											peekLength;
+
+	/** Binary record split between chunks. */
+	private final ByteBuffer				record			= ByteBuffer.allocate(STLBinaryParser.FACET_LENGTH)
+			.order(ByteOrder.LITTLE_ENDIAN);
+
+	private long										numberOfTriangles;
+
+	private long										triangle;
+
+	private final STLAsciiReader		reader			= new STLAsciiReader(null);
+
+	/** ASCII line split between chunks. */
+	private byte										line[]			= new byte[LINE_LENGTH];
+
+	private int											lineLength;
+
+	private boolean									skipLF;
+
+	private int											vertex;
+
+	private final float							facet[]			= new float[STLBatchingHandler.FLOATS_PER_FACET];
+
+	STLIncrementalParserImpl(STLParserHandler handler) {
+		this(handler, STLParserOptions.DEFAULT);
+	}
+
+	STLIncrementalParserImpl(STLParserHandler handler, STLParserOptions options) {
+		this.parserHandler = handler;
+		this.handler = STLFacetHandlerAdapter.wrap(handler);
+		this.asciiParser = new STLAsciiParser(options);
+		this.recovery = asciiParser.recovery();
+	}
+
+	@Override
+	public void feed(ByteBuffer data) throws STLParserException {
+		if (finished)
+			throw new IllegalStateException("Parser has been already finished.");
+		while (data.hasRemaining()) {
+			switch (state) {
+			case DETECT:
+				int length = Math.min(data.remaining(), peek.length - peekLength);
+				data.get(peek, peekLength, length);
+				peekLength += length;
+				if (peekLength == peek.length)
+					detect();
+				break;
+			case BINARY:
+				feedBinary(data);
+				break;
+			case DONE:
+				data.position(data.limit());
+				break;
+			default:
+				feedAscii(data);
+			}
+		}
+	}
+
+	@Override
+	public void finish() throws STLParserException {
+		if (finished)
+			return;
+		finished = true;
+		if (state == State.DETECT)
+			detect();
+		if (state == State.BINARY) {
+			throw new STLParserException((new StringBuilder())
+					.append("STLP_0005: Unexpected end of stream while reading triangle's ").append(triangle + 1).append(" of ")
+					.append(numberOfTriangles).append(" normal. Read ").append(record.position()).append(", expected ")
+					.append(STLBinaryParser.FACET_LENGTH).append(".").toString());
+		}
+		if (state != State.DONE && lineLength > 0)
+			line(line, 0, lineLength, false);
+		if (state == State.ASCII_HEADER)
+			throw new STLParserException(
+					"STLP_0007: Unexpected end of stream or wrong STL header while reading ASCII STL header.");
+		if (state == State.ASCII_FACET && recovery != null) {
+			if (recovery.end(reader, facet, 0))
+				facet();
+			STLAsciiParser.diagnostics(parserHandler, recovery);
+			handler.endSolid();
+			state = State.DONE;
+		}
+		if (state != State.DONE)
+			asciiParser.ensureNotEOF(false);
+	}
+
+	@Override
+	public boolean isDone() {
+		return state == State.DONE;
+	}
+
+	/**
+	 * Detects format from peeked bytes, and passes them to parser of detected
+	 * format.
+	 */
+	private void detect() throws STLParserException {
+		if (STLParserImpl.isAscii(peek, peekLength, -1, recovery != null)) {
+			state = State.ASCII_HEADER;
+			ByteBuffer data = ByteBuffer.wrap(peek, 0, peekLength);
+			while (data.hasRemaining() && state != State.DONE)
+				feedAscii(data);
+			return;
+		}
+		if (peekLength < STLBinaryParser.BINARY_STL_HEADER_LENGTH)
+			throw new STLParserException((new StringBuilder())
+					.append("STLP_0001: Unexpected end of stream while reading binary STL header, expected 80, read ")
+					.append(peekLength).append(".").toString());
+		handler.beginBinary(Arrays.copyOf(peek, STLBinaryParser.BINARY_STL_HEADER_LENGTH));
+		if (peekLength < peek.length)
+			throw new STLParserException((new StringBuilder())
+					.append("STLP_0004: Unexpected end of stream while reading number of triangles., expected 4, read ")
+					.append(peekLength - STLBinaryParser.BINARY_STL_HEADER_LENGTH).append(".").toString());
+		numberOfTriangles = ByteBuffer.wrap(peek).order(ByteOrder.LITTLE_ENDIAN)
+				.getInt(STLBinaryParser.BINARY_STL_HEADER_LENGTH) & 0xffffffffL;
+		handler.numberOfTrinagles((int) Math.min(numberOfTriangles, Integer.MAX_VALUE));
+		state = State.BINARY;
+		endBinaryIfComplete();
+	}
+
+	private void feedBinary(ByteBuffer data) throws STLParserException {
+		if (record.position() > 0) {
+			int length = Math.min(data.remaining(), record.remaining());
+			ByteBuffer slice = data.duplicate();
+			slice.limit(slice.position() + length);
+			record.put(slice);
+			data.position(data.position() + length);
+			if (!record.hasRemaining()) {
+				facet(record, 0);
+				record.clear();
+				endBinaryIfComplete();
+			}
+			return;
+		}
+		ByteBuffer buffer = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		int offset = data.position();
+		int limit = data.limit();
+		while (triangle < numberOfTriangles && limit - offset >= STLBinaryParser.FACET_LENGTH) {
+			facet(buffer, offset);
+			offset += STLBinaryParser.FACET_LENGTH;
+		}
+		data.position(offset);
+		if (!endBinaryIfComplete() && data.hasRemaining()) {
+			record.put(data);
+		}
+	}
+
+	private void facet(ByteBuffer buffer, int offset) {
+		handler.facet(buffer.getFloat(offset), buffer.getFloat(offset + 4), buffer.getFloat(offset + 8),
+				buffer.getFloat(offset + 12), buffer.getFloat(offset + 16), buffer.getFloat(offset + 20),
+				buffer.getFloat(offset + 24), buffer.getFloat(offset + 28), buffer.getFloat(offset + 32),
+				buffer.getFloat(offset + 36), buffer.getFloat(offset + 40), buffer.getFloat(offset + 44),
+				buffer.getShort(offset + 48));
+		triangle++;
+	}
+
+	private boolean endBinaryIfComplete() {
+		if (triangle < numberOfTriangles)
+			return false;
+		handler.endSolid();
+		state = State.DONE;
+		return true;
+	}
+
+	/**
+	 * Consumes data up to end of next line, or all data if line is not
+	 * terminated.
+	 */
+	private void feedAscii(ByteBuffer data) throws STLParserException {
+		int start = data.position();
+		int limit = data.limit();
+		if (skipLF) {
+			skipLF = false;
+			if (data.get(start) == '\n')
+				start++;
+		}
+		int end = start;
+		while (end < limit) {
+			byte b = data.get(end);
+			if (b == '\n' || b == '\r')
+				break;
+			end++;
+		}
+		if (end == limit) {
+			append(data, start, end);
+			data.position(limit);
+			return;
+		}
+		skipLF = data.get(end) == '\r';
+		data.position(end + 1);
+		if (lineLength == 0 && data.hasArray()) {
+			line(data.array(), data.arrayOffset() + start, data.arrayOffset() + end, true);
+		} else {
+			append(data, start, end);
+			line(line, 0, lineLength, true);
+		}
+		lineLength = 0;
+	}
+
+	private void append(ByteBuffer data, int start, int end) {
+		int length = end - start;
+		if (lineLength + length > line.length)
+			line = Arrays.copyOf(line, Math.max(line.length * 2, lineLength + length));
+		ByteBuffer slice = data.duplicate();
+		slice.limit(end).position(start);
+		slice.get(line, lineLength, length);
+		lineLength += length;
+	}
+
+	private void line(byte data[], int start, int end, boolean terminated) throws STLParserException {
+		reader.setLine(data, start, end, terminated);
+		if (state == State.ASCII_HEADER) {
+			// Lenient grammar skips empty lines before header
+			if (recovery != null && reader.isEmpty() && terminated)
+				return;
+			String name = asciiParser.solidName(reader.remaining(asciiParser.getOptions().charset));
+			if (name == null)
+				throw new STLParserException(
+						"STLP_0007: Unexpected end of stream or wrong STL header while reading ASCII STL header.");
+			handler.beginAscii(name);
+			state = State.ASCII_FACET;
+			return;
+		}
+		if (reader.isEmpty())
+			return;
+		if (recovery != null) {
+			if (recovery.line(reader, facet, 0))
+				facet();
+			return;
+		}
+		switch (state) {
+		case ASCII_FACET:
+			if (reader.startsWith(STLAsciiParser.END_SOLID_BYTES)) {
+				handler.endSolid();
+				state = State.DONE;
+				return;
+			}
+			asciiParser.readNormalLine(reader, facet, 0);
+			state = State.ASCII_OUTER_LOOP;
+			break;
+		case ASCII_OUTER_LOOP:
+			asciiParser.expectLine(reader, STLAsciiParser.OUTER_LOOP_BYTES, "STLP_0014");
+			vertex = 0;
+			state = State.ASCII_VERTEX;
+			break;
+		case ASCII_VERTEX:
+			asciiParser.readVertexLine(reader, facet, 3 + vertex * 3);
+			if (++vertex == 3)
+				state = State.ASCII_END_LOOP;
+			break;
+		case ASCII_END_LOOP:
+			asciiParser.expectLine(reader, STLAsciiParser.END_LOOP_BYTES, "STLP_0015");
+			state = State.ASCII_END_FACET;
+			break;
+		case ASCII_END_FACET:
+			asciiParser.expectLine(reader, STLAsciiParser.END_FACET_BYTES, "STLP_0016");
+			facet();
+			state = State.ASCII_FACET;
+			break;
+		default:
+			throw new IllegalStateException(state.toString());
+		}
+	}
+
+	private void facet() {
+		handler.facet(facet[0], facet[1], facet[2], facet[3], facet[4], facet[5], facet[6], facet[7], facet[8], facet[9],
+				facet[10], facet[11], (short) 0);
+	}
+}
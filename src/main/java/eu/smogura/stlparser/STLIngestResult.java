@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2016 Radek Smogura <mail@smogura.eu>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package eu.smogura.stlparser;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The result of ingestion of many models by {@link STLBulkIngestor}.
+ * <p>
+ * Result holds entry of each ingested model, in order in which models were
+ * found, with handler which received model, or failure which stopped parsing
+ * of model.
+ * </p>
+ *
+ * @param <H>
+ *          the type of handlers of models
+ * @author Radek Smogura
+ * @since 1.1.0
+ */
+public final class STLIngestResult<H extends STLParserHandler> {
+
+	/** Code of failures not caused by {@link STLParserException} with code. */
+	public static final String			UNKNOWN_CODE	= "UNKNOWN";
+
+	private final List<Entry<H>>		entries;
+
+	private final long							nanos;
+
+	STLIngestResult(List<Entry<H>> entries, long nanos) {
+		this.entries = Collections.unmodifiableList(entries);
+		this.nanos = nanos;
+	}
+
+	/**
+	 * Returns entries of all ingested models.
+	 */
+	public List<Entry<H>> getEntries() {
+		return entries;
+	}
+
+	/**
+	 * Returns entries of models which failed to be parsed.
+	 */
+	public List<Entry<H>> getFailures() {
+		List<Entry<H>> failures = new ArrayList<>();
+		for (Entry<H> entry : entries) {
+			if (!entry.isSucceeded())
+				failures.add(entry);
+		}
+		return failures;
+	}
+
+	public int getSucceeded() {
+		return entries.size() - getFailed();
+	}
+
+	public int getFailed() {
+		int failed = 0;
+		for (Entry<H> entry : entries) {
+			if (!entry.isSucceeded())
+				failed++;
+		}
+		return failed;
+	}
+
+	/**
+	 * Returns number of failures by error codes, {@link #UNKNOWN_CODE} for
+	 * failures without code.
+	 */
+	public Map<String, Integer> getFailedByCode() {
+		Map<String, Integer> failed = new TreeMap<>();
+		for (Entry<H> entry : entries) {
+			if (!entry.isSucceeded())
+				failed.merge(entry.getErrorCode(), 1, Integer::sum);
+		}
+		return failed;
+	}
+
+	/**
+	 * Returns total size of ingested models, in bytes, as stored in files and
+	 * archives.
+	 */
+	public long getBytes() {
+		long bytes = 0;
+		for (Entry<H> entry : entries) {
+			if (entry.size > 0)
+				bytes += entry.size;
+		}
+		return bytes;
+	}
+
+	/**
+	 * Returns time of ingestion, in nanoseconds.
+	 */
+	public long getNanos() {
+		return nanos;
+	}
+
+	@Override
+	public String toString() {
+		return (new StringBuilder()).append("STLIngestResult[models=").append(entries.size()).append(", failed=")
+				.append(getFailed()).append(", bytes=").append(getBytes()).append(", ms=").append(nanos / 1_000_000)
+				.append("]").toString();
+	}
+
+	/**
+	 * The result of ingestion of single model.
+	 *
+	 * @param <H>
+	 *          the type of handler of model
+	 * @since 1.1.0
+	 */
+	public static final class Entry<H extends STLParserHandler> {
+
+		private final String				name;
+
+		private final long					size;
+
+		private H										handler;
+
+		private RuntimeException		failure;
+
+		Entry(String name, long size) {
+			this.name = name;
+			this.size = size;
+		}
+
+		/**
+		 * Returns name of model, path of file, or path of archive and name of entry
+		 * separated with {@code !/}.
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Returns size of model, or {@code -1} if it's unknown.
+		 */
+		public long getSize() {
+			return size;
+		}
+
+		/**
+		 * Returns handler which received model, also if parsing failed, or
+		 * {@code null} if handler was not created.
+		 */
+		public H getHandler() {
+			return handler;
+		}
+
+		public boolean isSucceeded() {
+			return failure == null;
+		}
+
+		/**
+		 * Returns failure which stopped parsing of model, {@link STLParserException}
+		 * for malformed models, or exception thrown by handler.
+		 */
+		public RuntimeException getFailure() {
+			return failure;
+		}
+
+		/**
+		 * Returns code of failure, like {@code STLP_0012}, {@link #UNKNOWN_CODE}
+		 * for failures without code, or {@code null} if model was parsed.
+		 */
+		public String getErrorCode() {
+			if (failure == null)
+				return null;
+			String code = failure instanceof STLParserException ? ((STLParserException) failure).getCode() : null;
+			return code != null ? code : UNKNOWN_CODE;
+		}
+
+		void succeeded(H handler) {
+			this.handler = handler;
+		}
+
+		void failed(H handler, RuntimeException failure) {
+			this.handler = handler;
+			this.failure = failure;
+		}
+
+		@Override
+		public String toString() {
+			return failure == null ? name : name + ": " + failure.getMessage();
+		}
+	}
+}
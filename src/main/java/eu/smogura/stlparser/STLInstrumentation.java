@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2016 Radek Smogura <mail@smogura.eu>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package eu.smogura.stlparser;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * The registry of parse listeners, and of JMX statistics.
+ * <p>
+ * Instrumentation is enabled while at least one listener is registered. When
+ * disabled, parsers check single volatile flag per parse, so instrumentation
+ * costs nothing. When enabled, parsers created by {@link STLParserFactory}
+ * measure each parse, as described by {@link STLParseMetrics}, and pass
+ * metrics to listeners.
+ * </p>
+ * 
+ * @author Radek Smogura
+ * @since 1.1.0
+ */
+public final class STLInstrumentation {
+
+	/** Name of statistics MBean registered by {@link #registerMBean()}. */
+	public static final String										OBJECT_NAME	= "eu.smogura.stlparser:type=ParserStatistics";
+
+	private static final List<STLParseListener>	listeners		= new CopyOnWriteArrayList<>();
+
+	/** Written with listeners under lock, read without it by parsers. */
+	private static volatile boolean							enabled;
+
+	private static STLParserStatistics						statistics;
+
+	private STLInstrumentation() {
+	}
+
+	public static synchronized void addListener(STLParseListener listener) {
+		listeners.add(listener);
+		enabled = true;
+	}
+
+	public static synchronized void removeListener(STLParseListener listener) {
+		listeners.remove(listener);
+		enabled = !listeners.isEmpty();
+	}
+
+	static boolean isEnabled() {
+		return enabled;
+	}
+
+	static void notify(STLParseMetrics metrics) {
+		for (STLParseListener listener : listeners) {
+			try {
+				listener.parseFinished(metrics);
+			} catch (RuntimeException e) {
+				// Failure of listener should not fail, nor hide failure of, parse
+			}
+		}
+	}
+
+	/**
+	 * Registers statistics of all parses in platform MBean server, under
+	 * {@link #OBJECT_NAME}, enabling instrumentation. Subsequent calls return
+	 * already registered statistics.
+	 * 
+	 * @throws IllegalStateException
+	 *           if MBean can't be registered
+	 */
+	public static synchronized STLParserStatistics registerMBean() {
+		if (statistics == null) {
+			STLParserStatistics registered = new STLParserStatistics();
+			try {
+				MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+				server.registerMBean(registered, new ObjectName(OBJECT_NAME));
+			} catch (JMException jme) {
+				throw new IllegalStateException("Can't register parser statistics MBean", jme);
+			}
+			addListener(registered);
+			statistics = registered;
+		}
+		return statistics;
+	}
+
+	/**
+	 * Unregisters statistics registered by {@link #registerMBean()}.
+	 * 
+	 * @throws IllegalStateException
+	 *           if MBean can't be unregistered
+	 */
+	public static synchronized void unregisterMBean() {
+		if (statistics == null)
+			return;
+		removeListener(statistics);
+		statistics = null;
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(OBJECT_NAME));
+		} catch (JMException jme) {
+			throw new IllegalStateException("Can't unregister parser statistics MBean", jme);
+		}
+	}
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2016 Radek Smogura <mail@smogura.eu>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package eu.smogura.stlparser;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Indexed triangle mesh mapped from mesh file written by {@link STLMeshFile}.
+ * <p>
+ * Sections of file are used directly as buffers, so mesh is available as soon
+ * as file is mapped, without reading or parsing it. Layout of buffers is the
+ * same as layout of arrays of {@link STLMesh}. Returned buffers are read only
+ * views, independent of each other and of later calls.
+ * </p>
+ * 
+ * @author Radek Smogura
+ * @since 1.1.0
+ */
+public final class STLMappedMesh {
+
+	private final FloatBuffer	vertices;
+
+	private final IntBuffer		indices;
+
+	private final FloatBuffer	normals;
+
+	private final ShortBuffer	attributes;
+
+	STLMappedMesh(FloatBuffer vertices, IntBuffer indices, FloatBuffer normals, ShortBuffer attributes) {
+		this.vertices = vertices;
+		this.indices = indices;
+		this.normals = normals;
+		this.attributes = attributes;
+	}
+
+	/**
+	 * Returns number of distinct vertices.
+	 */
+	public int getVertexCount() {
+		return vertices.capacity() / 3;
+	}
+
+	/**
+	 * Returns number of triangles.
+	 */
+	public int getTriangleCount() {
+		return attributes.capacity();
+	}
+
+	/**
+	 * Returns coordinates of vertices, three per vertex.
+	 */
+	public FloatBuffer getVertices() {
+		return vertices.duplicate();
+	}
+
+	/**
+	 * Returns indices of vertices, three per triangle.
+	 */
+	public IntBuffer getIndices() {
+		return indices.duplicate();
+	}
+
+	/**
+	 * Returns normals of triangles, three coordinates per triangle.
+	 */
+	public FloatBuffer getNormals() {
+		return normals.duplicate();
+	}
+
+	/**
+	 * Returns attribute fields of triangles.
+	 */
+	public ShortBuffer getAttributes() {
+		return attributes.duplicate();
+	}
+
+	/**
+	 * Returns coordinate of vertex.
+	 * 
+	 * @param vertex
+	 *          the index of vertex
+	 * @param axis
+	 *          the coordinate, {@code 0} for x, {@code 1} for y, {@code 2} for z
+	 */
+	public float getVertex(int vertex, int axis) {
+		return vertices.get(vertex * 3 + axis);
+	}
+
+	/**
+	 * Returns index of triangle vertex.
+	 * 
+	 * @param triangle
+	 *          the index of triangle
+	 * @param corner
+	 *          the vertex of triangle, {@code 0}, {@code 1} or {@code 2}
+	 */
+	public int getIndex(int triangle, int corner) {
+		return indices.get(triangle * 3 + corner);
+	}
+
+	/**
+	 * Returns coordinate of triangle normal.
+	 */
+	public float getNormal(int triangle, int axis) {
+		return normals.get(triangle * 3 + axis);
+	}
+
+	/**
+	 * Returns attribute field of triangle.
+	 */
+	public short getAttributes(int triangle) {
+		return attributes.get(triangle);
+	}
+
+	/**
+	 * Copies mesh into heap.
+	 */
+	public STLMesh toMesh() {
+		float vertices[] = new float[this.vertices.capacity()];
+		int indices[] = new int[this.indices.capacity()];
+		float normals[] = new float[this.normals.capacity()];
+		short attributes[] = new short[this.attributes.capacity()];
+		getVertices().get(vertices);
+		getIndices().get(indices);
+		getNormals().get(normals);
+		getAttributes().get(attributes);
+		return new STLMesh(vertices, indices, normals, attributes);
+	}
+
+	/**
+	 * Passes triangles, in order of mesh, to handler. Only facet events are
+	 * passed.
+	 */
+	public void replay(STLParserHandler parserHandler) {
+		STLFacetHandler handler = STLFacetHandlerAdapter.wrap(parserHandler);
+		for (int t = 0, count = getTriangleCount(); t < count; t++) {
+			int offset = t * 3;
+			int v1 = indices.get(offset) * 3;
+			int v2 = indices.get(offset + 1) * 3;
+			int v3 = indices.get(offset + 2) * 3;
+			handler.facet(normals.get(offset), normals.get(offset + 1), normals.get(offset + 2), vertices.get(v1),
+					vertices.get(v1 + 1), vertices.get(v1 + 2), vertices.get(v2), vertices.get(v2 + 1), vertices.get(v2 + 2),
+					vertices.get(v3), vertices.get(v3 + 1), vertices.get(v3 + 2), attributes.get(t));
+		}
+	}
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2016 Radek Smogura <mail@smogura.eu>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package eu.smogura.stlparser;
+
+/**
+ * Indexed triangle mesh built from parsed model.
+ * <p>
+ * Each vertex is stored once in {@link #getVertices()} as {@code x,y,z}
+ * coordinates. Triangle {@code t} references vertices with indices stored at
+ * {@code 3 * t}, {@code 3 * t + 1} and {@code 3 * t + 2} of
+ * {@link #getIndices()}, and has normal stored at the same offsets of
+ * {@link #getNormals()}.
+ * </p>
+ * <p>
+ * Arrays are returned without copying, and should not be modified.
+ * </p>
+ * 
+ * @author Radek Smogura
+ * @since 1.1.0
+ */
+public final class STLMesh {
+
+	private final float	vertices[];
+
+	private final int		indices[];
+
+	private final float	normals[];
+
+	private final short	attributes[];
+
+	public STLMesh(float vertices[], int indices[], float normals[], short attributes[]) {
+		if (indices.length % 3 != 0 || normals.length != indices.length || attributes.length * 3 != indices.length)
+			throw new IllegalArgumentException("Mesh arrays have inconsistent lengths");
+		if (vertices.length % 3 != 0)
+			throw new IllegalArgumentException("Vertices array length should be multiply of 3");
+		this.vertices = vertices;
+		this.indices = indices;
+		this.normals = normals;
+		this.attributes = attributes;
+	}
+
+	/**
+	 * Returns number of distinct vertices.
+	 */
+	public int getVertexCount() {
+		return vertices.length / 3;
+	}
+
+	/**
+	 * Returns number of triangles.
+	 */
+	public int getTriangleCount() {
+		return attributes.length;
+	}
+
+	/**
+	 * Returns coordinates of vertices, three per vertex.
+	 */
+	public float[] getVertices() {
+		return vertices;
+	}
+
+	/**
+	 * Returns indices of vertices, three per triangle.
+	 */
+	public int[] getIndices() {
+		return indices;
+	}
+
+	/**
+	 * Returns normals of triangles, three coordinates per triangle.
+	 */
+	public float[] getNormals() {
+		return normals;
+	}
+
+	/**
+	 * Returns attribute fields of triangles, {@code 0} for ASCII models.
+	 */
+	public short[] getAttributes() {
+		return attributes;
+	}
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2016 Radek Smogura <mail@smogura.eu>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package eu.smogura.stlparser;
+
+import java.util.Arrays;
+
+/**
+ * The handler building {@link STLMesh} from parsed facets.
+ * <p>
+ * Vertices shared by triangles are stored once. Vertices are deduplicated with
+ * open addressing hash table of vertex indices, keyed with bits of
+ * coordinates, so no objects are created per vertex. Coordinates are compared
+ * by bits, except {@code -0.0} which is treated as {@code 0.0}.
+ * </p>
+ * <p>
+ * Builder can be used with {@link STLParallelParser}, with {@link #merge} as
+ * merge function.
+ * </p>
+ * 
+ * @author Radek Smogura
+ * @since 1.1.0
+ */
+public class STLMeshBuilder extends STLFacetAbstractHandler implements STLSizeHintHandler {
+
+	private static final int	INITIAL_CAPACITY	= 1024;
+
+	/** Vertex coordinates, three per vertex. */
+	private float							vertices[];
+
+	private int								vertexCount;
+
+	/** Indices of vertices, three per triangle. */
+	private int								indices[];
+
+	private float							normals[];
+
+	private short							attributes[];
+
+	private int								triangleCount;
+
+	/**
+	 * Hash table of vertex indices increased by one, {@code 0} marks empty slot.
+	 * Length is power of two, table is kept at most half full.
+	 */
+	private int								table[];
+
+	public STLMeshBuilder() {
+		vertices = new float[INITIAL_CAPACITY * 3];
+		indices = new int[INITIAL_CAPACITY * 3];
+		normals = new float[INITIAL_CAPACITY * 3];
+		attributes = new short[INITIAL_CAPACITY];
+		table = new int[INITIAL_CAPACITY * 2];
+	}
+
+	@Override
+	public void numberOfTrinagles(int count) {
+		reserve(count);
+	}
+
+	@Override
+	public void estimatedNumberOfTriangles(int count) {
+		reserve(count);
+	}
+
+	/**
+	 * Grows arrays to hold given number of triangles, and vertices of closed
+	 * mesh of such triangles, about half as many.
+	 */
+	private void reserve(int triangles) {
+		triangles = Math.min(triangles, MAX_RESERVED_FACETS);
+		if (triangles > attributes.length)
+			growTriangles(triangles);
+		if (triangles / 2 * 3 > vertices.length)
+			vertices = Arrays.copyOf(vertices, triangles / 2 * 3);
+		// Table is kept at most half full
+		int capacity = Integer.highestOneBit(Math.max(1, triangles - 1)) << 1;
+		if (capacity > table.length)
+			rehash(capacity);
+	}
+
+	@Override
+	public void facet(float nx, float ny, float nz, float x1, float y1, float z1, float x2, float y2, float z2, float x3,
+			float y3, float z3, short attributes) {
+		int v1 = vertex(x1, y1, z1);
+		int v2 = vertex(x2, y2, z2);
+		int v3 = vertex(x3, y3, z3);
+		if (triangleCount == this.attributes.length)
+			growTriangles(triangleCount * 2);
+		int offset = triangleCount * 3;
+		indices[offset] = v1;
+		indices[offset + 1] = v2;
+		indices[offset + 2] = v3;
+		normals[offset] = nx;
+		normals[offset + 1] = ny;
+		normals[offset + 2] = nz;
+		this.attributes[triangleCount++] = attributes;
+	}
+
+	/**
+	 * Returns index of vertex, adding it if it's not present.
+	 */
+	protected int vertex(float x, float y, float z) {
+		// Normalize -0.0 to 0.0
+		x += 0.0f;
+		y += 0.0f;
+		z += 0.0f;
+		int bx = Float.floatToIntBits(x);
+		int by = Float.floatToIntBits(y);
+		int bz = Float.floatToIntBits(z);
+		int mask = table.length - 1;
+		for (int slot = hash(bx, by, bz) & mask;; slot = (slot + 1) & mask) {
+			int entry = table[slot];
+			if (entry == 0) {
+				int index = vertexCount;
+				if (index * 3 == vertices.length)
+					vertices = Arrays.copyOf(vertices, vertices.length * 2);
+				vertices[index * 3] = x;
+				vertices[index * 3 + 1] = y;
+				vertices[index * 3 + 2] = z;
+				vertexCount++;
+				table[slot] = index + 1;
+				if (vertexCount * 2 > table.length)
+					rehash(table.length * 2);
+				return index;
+			}
+			int offset = (entry - 1) * 3;
+			if (Float.floatToIntBits(vertices[offset]) == bx && Float.floatToIntBits(vertices[offset + 1]) == by
+					&& Float.floatToIntBits(vertices[offset + 2]) == bz)
+				return entry - 1;
+		}
+	}
+
+	private static int hash(int bx, int by, int bz) {
+		int h = bx * 0x9E3779B1 + by;
+		h = h * 0x9E3779B1 + bz;
+		h *= 0x9E3779B1;
+		return h ^ (h >>> 16);
+	}
+
+	private void rehash(int capacity) {
+		int newTable[] = new int[capacity];
+		int mask = capacity - 1;
+		for (int index = 0; index < vertexCount; index++) {
+			int offset = index * 3;
+			int slot = hash(Float.floatToIntBits(vertices[offset]), Float.floatToIntBits(vertices[offset + 1]),
+					Float.floatToIntBits(vertices[offset + 2])) & mask;
+			while (newTable[slot] != 0)
+				slot = (slot + 1) & mask;
+			newTable[slot] = index + 1;
+		}
+		table = newTable;
+	}
+
+	private void growTriangles(int capacity) {
+		indices = Arrays.copyOf(indices, capacity * 3);
+		normals = Arrays.copyOf(normals, capacity * 3);
+		attributes = Arrays.copyOf(attributes, capacity);
+	}
+
+	/**
+	 * Appends triangles of other builder to this one.
+	 * 
+	 * @return this builder
+	 */
+	public STLMeshBuilder merge(STLMeshBuilder other) {
+		if (triangleCount + other.triangleCount > attributes.length)
+			growTriangles(triangleCount + other.triangleCount);
+		int remap[] = new int[other.vertexCount];
+		for (int index = 0; index < other.vertexCount; index++)
+			remap[index] = vertex(other.vertices[index * 3], other.vertices[index * 3 + 1], other.vertices[index * 3 + 2]);
+		for (int t = 0, offset = triangleCount * 3; t < other.triangleCount * 3; t++, offset++) {
+			indices[offset] = remap[other.indices[t]];
+			normals[offset] = other.normals[t];
+		}
+		System.arraycopy(other.attributes, 0, attributes, triangleCount, other.triangleCount);
+		triangleCount += other.triangleCount;
+		return this;
+	}
+
+	/**
+	 * Returns number of distinct vertices added so far.
+	 */
+	public int getVertexCount() {
+		return vertexCount;
+	}
+
+	/**
+	 * Returns number of triangles added so far.
+	 */
+	public int getTriangleCount() {
+		return triangleCount;
+	}
+
+	/**
+	 * Builds mesh from triangles added so far. Arrays of mesh are trimmed copies,
+	 * so builder can be used further.
+	 */
+	public STLMesh build() {
+		return new STLMesh(Arrays.copyOf(vertices, vertexCount * 3), Arrays.copyOf(indices, triangleCount * 3),
+				Arrays.copyOf(normals, triangleCount * 3), Arrays.copyOf(attributes, triangleCount));
+	}
+}
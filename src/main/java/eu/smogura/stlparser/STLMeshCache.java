@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2016 Radek Smogura <mail@smogura.eu>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package eu.smogura.stlparser;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The cache of meshes of models, stored in directory in format of
+ * {@link STLMeshFile}.
+ * <p>
+ * Meshes are keyed with SHA-256 hash of content of model, and of options of
+ * parser changing result of parse, so renamed or copied models are found in
+ * cache, and changed models, or models parsed with other grammar or charset,
+ * are not. Model missing in
+ * cache is parsed with {@link STLParallelParser} into {@link STLMeshBuilder},
+ * and written to cache. Then cached mesh is mapped into memory.
+ * </p>
+ * <p>
+ * Mesh files are forced to storage before they are published, so checksum of
+ * each file is verified only when it's loaded first time by cache, as file may
+ * have been damaged while no cache was running, and later loads map it
+ * without reading whole file.
+ * </p>
+ * <p>
+ * When total size of cached meshes exceeds limit, least recently used meshes
+ * are deleted, by last modification time of files, updated on each load. Mesh
+ * files are published by atomic move, so cache can be shared by threads and
+ * processes.
+ * </p>
+ * 
+ * @author Radek Smogura
+ * @since 1.1.0
+ */
+public class STLMeshCache {
+
+	/** Extension of cached mesh files. */
+	public static final String				EXTENSION		= ".stlm";
+
+	/** Length of part of model mapped at once to compute hash. */
+	private static final int					HASH_CHUNK	= 1 << 26;
+
+	private final STLParallelParser		parser;
+
+	private final STLParserOptions		options;
+
+	private final Path								directory;
+
+	private final long								maxSize;
+
+	/** Files written or verified by this cache, not verified again. */
+	private final Set<Path>						verified		= ConcurrentHashMap.newKeySet();
+
+	STLMeshCache(STLParallelParser parser, STLParserOptions options, Path directory, long maxSize) {
+		this.parser = parser;
+		this.options = options;
+		this.directory = directory;
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Loads mesh of model, from cache or by parsing it.
+	 * 
+	 * @throws STLParserException
+	 *           if model can't be parsed, or cache can't be written
+	 */
+	public STLMappedMesh load(Path model) throws STLParserException {
+		Path file = directory.resolve(hash(model, options) + EXTENSION);
+		if (Files.isRegularFile(file)) {
+			try {
+				STLMappedMesh mesh = STLMeshFile.map(file, !verified.contains(file));
+				verified.add(file);
+				Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+				return mesh;
+			} catch (STLParserException | IOException e) {
+				verified.remove(file);
+				// Damaged, or written in other version of format, so parse again
+			}
+		}
+		STLMesh mesh = parser.parse(model, STLMeshBuilder::new, STLMeshBuilder::merge).build();
+		try {
+			Files.createDirectories(directory);
+			Path temp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+			try {
+				STLMeshFile.write(mesh, temp);
+				Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+				verified.add(file);
+			} finally {
+				Files.deleteIfExists(temp);
+			}
+			evict(file);
+		} catch (IOException ioe) {
+			throw new STLParserException((new StringBuilder())
+					.append("STLP_0031: Unexpected IO exception while writing mesh file ").append(file).append(".").toString(),
+					ioe);
+		}
+		return STLMeshFile.map(file, false);
+	}
+
+	/**
+	 * Returns total size of cached meshes.
+	 */
+	public long getSize() throws STLParserException {
+		long size = 0;
+		for (CachedMesh cached : list())
+			size += cached.size;
+		return size;
+	}
+
+	/**
+	 * Deletes least recently used meshes, until size of cache is within limit.
+	 * 
+	 * @param keep
+	 *          the mesh which should not be deleted
+	 */
+	private synchronized void evict(Path keep) throws IOException {
+		List<CachedMesh> meshes = list();
+		long size = 0;
+		for (CachedMesh cached : meshes)
+			size += cached.size;
+		meshes.sort(Comparator.comparingLong(cached -> cached.lastModified));
+		for (int i = 0; i < meshes.size() && size > maxSize; i++) {
+			CachedMesh cached = meshes.get(i);
+			if (cached.path.equals(keep))
+				continue;
+			try {
+				Files.deleteIfExists(cached.path);
+				verified.remove(cached.path);
+				size -= cached.size;
+			} catch (IOException ioe) {
+				// Still mapped on systems which don't allow to delete mapped files
+			}
+		}
+	}
+
+	private List<CachedMesh> list() throws STLParserException {
+		List<CachedMesh> meshes = new ArrayList<>();
+		if (!Files.isDirectory(directory))
+			return meshes;
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + EXTENSION)) {
+			for (Path path : files) {
+				BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+				meshes.add(new CachedMesh(path, attributes.size(), attributes.lastModifiedTime().toMillis()));
+			}
+		} catch (IOException ioe) {
+			throw new STLParserException((new StringBuilder())
+					.append("STLP_0031: Unexpected IO exception while listing mesh cache ").append(directory).append(".")
+					.toString(), ioe);
+		}
+		return meshes;
+	}
+
+	/**
+	 * Computes hexadecimal SHA-256 hash of options changing result of parse,
+	 * and of content of model.
+	 */
+	private static String hash(Path model, STLParserOptions options) throws STLParserException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException nsae) {
+			// Required to be supported by every Java platform
+			throw new IllegalStateException(nsae);
+		}
+		digest.update((new StringBuilder()).append("lenient=").append(options.lenient).append(";charset=")
+				.append(options.charset.name()).append(";decompress=").append(options.decompress).append(";").toString()
+				.getBytes(StandardCharsets.US_ASCII));
+		try (FileChannel channel = FileChannel.open(model, StandardOpenOption.READ)) {
+			long size = channel.size();
+			for (long offset = 0; offset < size; offset += HASH_CHUNK)
+				digest.update(channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(HASH_CHUNK, size - offset)));
+		} catch (IOException ioe) {
+			throw new STLParserException((new StringBuilder()).append("STLP_0022: Unexpected IO exception while opening ")
+					.append(model).append(".").toString(), ioe);
+		}
+		StringBuilder hash = new StringBuilder();
+		for (byte b : digest.digest())
+			hash.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+		return hash.toString();
+	}
+
+	private static final class CachedMesh {
+
+		private final Path	path;
+
+		private final long	size;
+
+		private final long	lastModified;
+
+		CachedMesh(Path path, long size, long lastModified) {
+			this.path = path;
+			this.size = size;
+			this.lastModified = lastModified;
+		}
+	}
+}
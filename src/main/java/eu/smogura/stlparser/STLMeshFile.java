@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) 2016 Radek Smogura <mail@smogura.eu>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package eu.smogura.stlparser;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Compact binary format of {@link STLMesh}, reloaded by mapping file into
+ * memory.
+ * <p>
+ * File starts with header of {@link #HEADER_LENGTH} bytes, followed by
+ * sections of vertices, indices, normals and attributes, in layout of arrays
+ * of {@link STLMesh}. Each section starts at offset aligned to
+ * {@link #ALIGNMENT} bytes. All numbers are little endian. Header consists of:
+ * </p>
+ * <ul>
+ * <li>8 bytes of magic {@code STLMESH\0},</li>
+ * <li>4 bytes of version of format, {@link #VERSION},</li>
+ * <li>4 bytes of length of header,</li>
+ * <li>4 bytes of number of vertices and 4 bytes of number of triangles,</li>
+ * <li>8 bytes of offset of each section, and 8 bytes of length of file,</li>
+ * <li>4 bytes of CRC32 checksum of file after header,</li>
+ * <li>4 reserved bytes.</li>
+ * </ul>
+ * 
+ * @author Radek Smogura
+ * @since 1.1.0
+ */
+public final class STLMeshFile {
+
+	/** Version of format, increased with each incompatible change. */
+	public static final int			VERSION					= 1;
+
+	public static final int			HEADER_LENGTH		= 72;
+
+	public static final int			ALIGNMENT				= 64;
+
+	private static final byte		MAGIC[]					= "STLMESH\0".getBytes(StandardCharsets.US_ASCII);
+
+	private static final int		BUFFER_LENGTH		= 1 << 20;
+
+	/** Length of part of file mapped at once to compute checksum. */
+	private static final int		CHECKSUM_CHUNK	= 1 << 26;
+
+	private STLMeshFile() {
+	}
+
+	private static long align(long offset) {
+		return (offset + ALIGNMENT - 1) & -ALIGNMENT;
+	}
+
+	/**
+	 * Writes mesh to file, and forces it to storage device, so file is
+	 * complete when it's published.
+	 * 
+	 * @throws STLParserException
+	 *           if file can't be written
+	 */
+	public static void write(STLMesh mesh, Path path) throws STLParserException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			write(mesh, channel);
+			channel.force(true);
+		} catch (IOException ioe) {
+			throw new STLParserException((new StringBuilder())
+					.append("STLP_0031: Unexpected IO exception while writing mesh file ").append(path).append(".").toString(),
+					ioe);
+		}
+	}
+
+	private static void write(STLMesh mesh, FileChannel channel) throws IOException {
+		float vertices[] = mesh.getVertices();
+		int indices[] = mesh.getIndices();
+		float normals[] = mesh.getNormals();
+		short attributes[] = mesh.getAttributes();
+		long verticesOffset = align(HEADER_LENGTH);
+		long indicesOffset = align(verticesOffset + vertices.length * 4L);
+		long normalsOffset = align(indicesOffset + indices.length * 4L);
+		long attributesOffset = align(normalsOffset + normals.length * 4L);
+		long length = align(attributesOffset + attributes.length * 2L);
+
+		ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+		CRC32 crc = new CRC32();
+		channel.position(HEADER_LENGTH);
+		pad(channel, buffer, crc, verticesOffset);
+		for (int offset = 0; offset < vertices.length;) {
+			int count = Math.min(vertices.length - offset, BUFFER_LENGTH / 4);
+			buffer.asFloatBuffer().put(vertices, offset, count);
+			write(channel, buffer, count * 4, crc);
+			offset += count;
+		}
+		pad(channel, buffer, crc, indicesOffset);
+		for (int offset = 0; offset < indices.length;) {
+			int count = Math.min(indices.length - offset, BUFFER_LENGTH / 4);
+			buffer.asIntBuffer().put(indices, offset, count);
+			write(channel, buffer, count * 4, crc);
+			offset += count;
+		}
+		pad(channel, buffer, crc, normalsOffset);
+		for (int offset = 0; offset < normals.length;) {
+			int count = Math.min(normals.length - offset, BUFFER_LENGTH / 4);
+			buffer.asFloatBuffer().put(normals, offset, count);
+			write(channel, buffer, count * 4, crc);
+			offset += count;
+		}
+		pad(channel, buffer, crc, attributesOffset);
+		for (int offset = 0; offset < attributes.length;) {
+			int count = Math.min(attributes.length - offset, BUFFER_LENGTH / 2);
+			buffer.asShortBuffer().put(attributes, offset, count);
+			write(channel, buffer, count * 2, crc);
+			offset += count;
+		}
+		pad(channel, buffer, crc, length);
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+		header.put(MAGIC).putInt(VERSION).putInt(HEADER_LENGTH);
+		header.putInt(mesh.getVertexCount()).putInt(mesh.getTriangleCount());
+		header.putLong(verticesOffset).putLong(indicesOffset).putLong(normalsOffset).putLong(attributesOffset);
+		header.putLong(length).putInt((int) crc.getValue());
+		header.clear();
+		while (header.hasRemaining())
+			channel.write(header, header.position());
+	}
+
+	/**
+	 * Writes first {@code length} bytes of buffer, updating checksum.
+	 */
+	private static void write(FileChannel channel, ByteBuffer buffer, int length, CRC32 crc) throws IOException {
+		buffer.clear().limit(length);
+		crc.update(buffer.duplicate());
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
+	}
+
+	/**
+	 * Writes zeros up to {@code offset}.
+	 */
+	private static void pad(FileChannel channel, ByteBuffer buffer, CRC32 crc, long offset) throws IOException {
+		int length = (int) (offset - channel.position());
+		for (int i = 0; i < length; i++)
+			buffer.put(i, (byte) 0);
+		write(channel, buffer, length, crc);
+	}
+
+	/**
+	 * Maps mesh file into memory.
+	 * 
+	 * @param verify
+	 *          if checksum of file should be verified, this requires reading
+	 *          whole file
+	 * @throws STLParserException
+	 *           if file can't be read, has wrong format or version, or wrong
+	 *           checksum
+	 */
+	public static STLMappedMesh map(Path path, boolean verify) throws STLParserException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+			while (header.hasRemaining() && channel.read(header, header.position()) != -1)
+				;
+			header.flip();
+			if (header.remaining() < HEADER_LENGTH || !hasMagic(header))
+				throw wrongFormat(path, "not a mesh file");
+			if (header.getInt(8) != VERSION)
+				throw wrongFormat(path, "unsupported version " + header.getInt(8));
+			int vertexCount = header.getInt(16);
+			int triangleCount = header.getInt(20);
+			long verticesOffset = header.getLong(24);
+			long indicesOffset = header.getLong(32);
+			long normalsOffset = header.getLong(40);
+			long attributesOffset = header.getLong(48);
+			long length = header.getLong(56);
+			if (header.getInt(12) != HEADER_LENGTH || vertexCount < 0 || triangleCount < 0
+					|| verticesOffset < HEADER_LENGTH || indicesOffset < verticesOffset + vertexCount * 12L
+					|| normalsOffset < indicesOffset + triangleCount * 12L || attributesOffset < normalsOffset + triangleCount * 12L
+					|| length < attributesOffset + triangleCount * 2L || length > channel.size())
+				throw wrongFormat(path, "inconsistent header");
+			if (verify && (int) checksum(channel, length) != header.getInt(64))
+				throw new STLParserException((new StringBuilder()).append("STLP_0033: Wrong checksum of mesh file ")
+						.append(path).append(".").toString());
+			return new STLMappedMesh(map(channel, verticesOffset, vertexCount * 12L).asFloatBuffer(),
+					map(channel, indicesOffset, triangleCount * 12L).asIntBuffer(),
+					map(channel, normalsOffset, triangleCount * 12L).asFloatBuffer(),
+					map(channel, attributesOffset, triangleCount * 2L).asShortBuffer());
+		} catch (IOException ioe) {
+			throw new STLParserException((new StringBuilder())
+					.append("STLP_0031: Unexpected IO exception while reading mesh file ").append(path).append(".").toString(),
+					ioe);
+		}
+	}
+
+	private static boolean hasMagic(ByteBuffer header) {
+		for (int i = 0; i < MAGIC.length; i++) {
+			if (header.get(i) != MAGIC[i])
+				return false;
+		}
+		return true;
+	}
+
+	private static STLParserException wrongFormat(Path path, String reason) {
+		return new STLParserException((new StringBuilder()).append("STLP_0032: Wrong format of mesh file ").append(path)
+				.append(", ").append(reason).append(".").toString());
+	}
+
+	private static ByteBuffer map(FileChannel channel, long offset, long length) throws IOException {
+		if (length > Integer.MAX_VALUE)
+			throw new IOException("Section of mesh file is too large to be mapped");
+		return channel.map(FileChannel.MapMode.READ_ONLY, offset, length).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	private static long checksum(FileChannel channel, long length) throws IOException {
+		CRC32 crc = new CRC32();
+		for (long offset = HEADER_LENGTH; offset < length; offset += CHECKSUM_CHUNK)
+			crc.update(channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(CHECKSUM_CHUNK, length - offset)));
+		return crc.getValue();
+	}
+}
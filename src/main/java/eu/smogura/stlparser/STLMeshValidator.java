@@ -0,0 +1,424 @@
+/*
+ * Copyright (c) 2016 Radek Smogura <mail@smogura.eu>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package eu.smogura.stlparser;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * The handler validating mesh while it's parsed, before it's printed.
+ * <p>
+ * Validator checks if mesh is watertight, manifold and consistently oriented,
+ * by counting uses of each edge in each direction in {@link STLEdgeTable}.
+ * Closed manifold mesh uses each edge by exactly two facets, in opposite
+ * directions. Edges used once are {@link Issue#BOUNDARY_EDGE boundary edges}
+ * of holes, edges used more than twice are
+ * {@link Issue#NON_MANIFOLD_EDGE non-manifold}, and edges used twice in the
+ * same direction are {@link Issue#FLIPPED_EDGE flipped}, as one of their
+ * facets has reversed winding. Facets which normal disagrees with their
+ * winding, by more than normal tolerance, are reported as
+ * {@link Issue#NORMAL_MISMATCH}. Zero normals, allowed by format, are not
+ * checked.
+ * </p>
+ * <p>
+ * Vertices are matched by exact coordinates, and edges are identified by 64
+ * bit hashes of coordinates of their vertices, so mesh is not built, and
+ * memory used by validator depends only on number of distinct edges, about
+ * 16 bytes per slot of table. Distinct edges may collide only with negligible
+ * probability. Edges are classified by {@link #endSolid()}.
+ * </p>
+ * <p>
+ * Large models can be validated in shards, each tracking edges which hashes
+ * fall into it, so each shard needs fraction of memory, and shards can be
+ * validated by separate parses, then merged with
+ * {@link #merge(STLMeshValidator)}. Memory is bounded only if few shards are
+ * validated at once, see
+ * {@link STLParserFactory#validate(java.nio.file.Path, int, int)}. Validator
+ * can't be used with chunks of {@link STLParallelParser}, as edges are shared
+ * between chunks.
+ * </p>
+ *
+ * @author Radek Smogura
+ * @since 1.1.0
+ */
+public final class STLMeshValidator extends STLFacetAbstractHandler implements STLSizeHintHandler {
+
+	/** Default maximal angle between normal and winding of facet, in degrees. */
+	public static final double				DEFAULT_NORMAL_TOLERANCE	= 45;
+
+	/** Maximal number of facets reported for each issue. */
+	public static final int						MAX_REPORTED_FACETS				= 1000;
+
+	private static final long					GOLDEN										= 0x9e3779b97f4a7c15L;
+
+	/** Number of edges of each facet, each shared by two facets of closed mesh. */
+	private static final int					EDGES_PER_FACET						= 3;
+
+	/**
+	 * Problem of mesh found by validator.
+	 *
+	 * @since 1.1.0
+	 */
+	public enum Issue {
+
+		/** Edge used by single facet, so mesh has hole. */
+		BOUNDARY_EDGE,
+
+		/** Edge used by more than two facets. */
+		NON_MANIFOLD_EDGE,
+
+		/**
+		 * Edge used by two facets in the same direction, so one of facets is
+		 * flipped.
+		 */
+		FLIPPED_EDGE,
+
+		/** Facet which normal disagrees with winding of its vertices. */
+		NORMAL_MISMATCH,
+
+		/** Facet with zero area, which normal can't be determined. */
+		DEGENERATE_FACET
+	}
+
+	private final double							normalTolerance;
+
+	/** Cosine of normal tolerance, compared with cosine of angle of normals. */
+	private final double							minNormalCosine;
+
+	private final int									shard;
+
+	private final int									shards;
+
+	private final Map<Issue, Sample>	samples										= new EnumMap<>(Issue.class);
+
+	private STLEdgeTable							table;
+
+	private long											facets;
+
+	private long											edges;
+
+	/**
+	 * Creates validator of all edges, with {@link #DEFAULT_NORMAL_TOLERANCE}.
+	 */
+	public STLMeshValidator() {
+		this(DEFAULT_NORMAL_TOLERANCE);
+	}
+
+	/**
+	 * Creates validator of all edges.
+	 *
+	 * @param normalTolerance
+	 *          the maximal angle between normal and winding of facet, in degrees
+	 */
+	public STLMeshValidator(double normalTolerance) {
+		this(normalTolerance, 0, 1);
+	}
+
+	/**
+	 * Creates validator of single shard of edges. Facets are checked only by
+	 * first shard, so merged shards report them once.
+	 *
+	 * @param normalTolerance
+	 *          the maximal angle between normal and winding of facet, in degrees
+	 * @param shard
+	 *          the index of shard, from {@code 0} to {@code shards - 1}
+	 * @param shards
+	 *          the number of shards
+	 */
+	public STLMeshValidator(double normalTolerance, int shard, int shards) {
+		if (!(normalTolerance >= 0 && normalTolerance <= 180))
+			throw new IllegalArgumentException("Parameter normal tolerance should be between 0 and 180");
+		if (shards < 1)
+			throw new IllegalArgumentException("Parameter shards should be positive");
+		if (shard < 0 || shard >= shards)
+			throw new IllegalArgumentException("Parameter shard should be between 0 and shards - 1");
+		this.normalTolerance = normalTolerance;
+		this.minNormalCosine = Math.cos(Math.toRadians(normalTolerance));
+		this.shard = shard;
+		this.shards = shards;
+		for (Issue issue : Issue.values())
+			samples.put(issue, new Sample());
+	}
+
+	@Override
+	public void beginAscii(String name) {
+		begin();
+	}
+
+	@Override
+	public void beginBinary(byte[] header) {
+		begin();
+	}
+
+	private void begin() {
+		table = new STLEdgeTable(0);
+		facets = 0;
+		edges = 0;
+		for (Sample sample : samples.values())
+			sample.clear();
+	}
+
+	@Override
+	public void numberOfTrinagles(int count) {
+		reserve(count);
+	}
+
+	@Override
+	public void estimatedNumberOfTriangles(int count) {
+		reserve(count);
+	}
+
+	private void reserve(int count) {
+		if (table != null && count > 0)
+			table.reserve(Math.min(count, MAX_RESERVED_FACETS) / 2 * EDGES_PER_FACET / shards);
+	}
+
+	@Override
+	public void facet(float nx, float ny, float nz, float x1, float y1, float z1, float x2, float y2, float z2, float x3,
+			float y3, float z3, short attributes) {
+		if (table == null)
+			begin();
+		long facet = facets++;
+		long h1 = hash(x1, y1, z1);
+		long h2 = hash(x2, y2, z2);
+		long h3 = hash(x3, y3, z3);
+		edge(h1, h2, facet);
+		edge(h2, h3, facet);
+		edge(h3, h1, facet);
+		if (shard == 0)
+			checkNormal(nx, ny, nz, x1, y1, z1, x2, y2, z2, x3, y3, z3, facet);
+	}
+
+	/**
+	 * Records use of directed edge, if it falls into shard.
+	 */
+	private void edge(long from, long to, long facet) {
+		if (from == to)
+			return;
+		boolean forward = from < to;
+		long key = forward ? mix(from * GOLDEN + to) : mix(to * GOLDEN + from);
+		// Table uses low bits of keys, so shards are selected by high ones
+		if (shards > 1 && (key >>> 32) % shards != shard)
+			return;
+		table.add(key, forward, facet);
+	}
+
+	private void checkNormal(float nx, float ny, float nz, float x1, float y1, float z1, float x2, float y2, float z2,
+			float x3, float y3, float z3, long facet) {
+		double ux = (double) x2 - x1, uy = (double) y2 - y1, uz = (double) z2 - z1;
+		double vx = (double) x3 - x1, vy = (double) y3 - y1, vz = (double) z3 - z1;
+		double cx = uy * vz - uz * vy;
+		double cy = uz * vx - ux * vz;
+		double cz = ux * vy - uy * vx;
+		double winding = Math.sqrt(cx * cx + cy * cy + cz * cz);
+		if (winding == 0) {
+			samples.get(Issue.DEGENERATE_FACET).add(facet);
+			return;
+		}
+		double normal = Math.sqrt((double) nx * nx + (double) ny * ny + (double) nz * nz);
+		if (normal == 0)
+			return;
+		if ((nx * cx + ny * cy + nz * cz) / (normal * winding) < minNormalCosine)
+			samples.get(Issue.NORMAL_MISMATCH).add(facet);
+	}
+
+	/**
+	 * Classifies edges, and releases table.
+	 */
+	@Override
+	public void endSolid() {
+		if (table == null)
+			return;
+		STLEdgeTable t = table;
+		Sample boundary = samples.get(Issue.BOUNDARY_EDGE);
+		Sample nonManifold = samples.get(Issue.NON_MANIFOLD_EDGE);
+		Sample flipped = samples.get(Issue.FLIPPED_EDGE);
+		for (int slot = 0; slot < t.keys.length; slot++) {
+			if (t.keys[slot] == 0)
+				continue;
+			int forward = t.uses[slot] & STLEdgeTable.MAX_USES;
+			int backward = t.uses[slot] >>> 16;
+			if (forward + backward == 1)
+				boundary.add(t.facets[slot]);
+			else if (forward + backward > 2)
+				nonManifold.add(t.facets[slot]);
+			else if (forward != backward)
+				flipped.add(t.facets[slot]);
+		}
+		edges = t.size();
+		table = null;
+	}
+
+	/**
+	 * Merges results of other shard of the same model into this validator.
+	 *
+	 * @return this validator
+	 */
+	public STLMeshValidator merge(STLMeshValidator other) {
+		facets = Math.max(facets, other.facets);
+		edges += other.edges;
+		for (Issue issue : Issue.values())
+			samples.get(issue).merge(other.samples.get(issue));
+		return this;
+	}
+
+	/**
+	 * Returns number of validated facets.
+	 */
+	public long getFacets() {
+		return facets;
+	}
+
+	/**
+	 * Returns number of distinct edges, of shard, or of all merged shards.
+	 */
+	public long getEdges() {
+		return edges;
+	}
+
+	/**
+	 * Returns number of edges, or facets, with given issue.
+	 */
+	public long getCount(Issue issue) {
+		return samples.get(issue).total;
+	}
+
+	/**
+	 * Returns indexes of facets with given issue, or using edges with it,
+	 * ascending, up to {@link #MAX_REPORTED_FACETS} lowest ones.
+	 */
+	public long[] getFacets(Issue issue) {
+		return samples.get(issue).get();
+	}
+
+	public double getNormalTolerance() {
+		return normalTolerance;
+	}
+
+	/**
+	 * Checks if mesh has no holes and no non-manifold edges.
+	 */
+	public boolean isWatertight() {
+		return getCount(Issue.BOUNDARY_EDGE) == 0 && getCount(Issue.NON_MANIFOLD_EDGE) == 0;
+	}
+
+	/**
+	 * Checks if facets are wound consistently, and agree with their normals.
+	 */
+	public boolean isConsistent() {
+		return getCount(Issue.FLIPPED_EDGE) == 0 && getCount(Issue.NORMAL_MISMATCH) == 0;
+	}
+
+	/**
+	 * Checks if mesh has no issues.
+	 */
+	public boolean isValid() {
+		for (Sample sample : samples.values()) {
+			if (sample.total > 0)
+				return false;
+		}
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = (new StringBuilder()).append("STLMeshValidator[facets=").append(facets).append(", edges=")
+				.append(edges);
+		for (Issue issue : Issue.values())
+			sb.append(", ").append(issue).append("=").append(getCount(issue));
+		return sb.append("]").toString();
+	}
+
+	/**
+	 * Returns hash of vertex, equal for equal coordinates, including zeros of
+	 * different sign.
+	 */
+	private static long hash(float x, float y, float z) {
+		long h = mix(Float.floatToIntBits(x + 0.0f) * GOLDEN + Float.floatToIntBits(y + 0.0f));
+		return mix(h * GOLDEN + Float.floatToIntBits(z + 0.0f));
+	}
+
+	/**
+	 * Finalizer of MurmurHash3, spreading bits of value over whole hash.
+	 */
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	/**
+	 * Total number of occurrences of issue, with lowest indexes of facets.
+	 */
+	private static final class Sample {
+
+		private long	facets[]	= new long[2 * MAX_REPORTED_FACETS];
+
+		private int		size;
+
+		long					total;
+
+		void add(long facet) {
+			total++;
+			if (size == facets.length)
+				trim();
+			facets[size++] = facet;
+		}
+
+		void merge(Sample other) {
+			total += other.total;
+			for (int i = 0; i < other.size; i++) {
+				if (size == facets.length)
+					trim();
+				facets[size++] = other.facets[i];
+			}
+		}
+
+		void clear() {
+			size = 0;
+			total = 0;
+		}
+
+		long[] get() {
+			trim();
+			return Arrays.copyOf(facets, size);
+		}
+
+		/**
+		 * Sorts facets and keeps lowest distinct ones.
+		 */
+		private void trim() {
+			Arrays.sort(facets, 0, size);
+			int distinct = 0;
+			for (int i = 0; i < size && distinct < MAX_REPORTED_FACETS; i++) {
+				if (distinct == 0 || facets[distinct - 1] != facets[i])
+					facets[distinct++] = facets[i];
+			}
+			size = distinct;
+		}
+	}
+}
@@ -0,0 +1,455 @@
+/*
+ * Copyright (c) 2016 Radek Smogura <mail@smogura.eu>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package eu.smogura.stlparser;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The handler passing events of single parse to many handlers, so model can be
+ * parsed once for all consumers.
+ * <p>
+ * Handlers added with {@link #add(STLParserHandler)} are called on parsing
+ * thread, in order in which they were added. Handlers added with
+ * {@link #addAsync(STLParserHandler)} are called on own threads, started when
+ * model begins, and fed with batches of facets by {@link STLSpscRing}, so slow
+ * handler doesn't delay parser and other handlers. Parser waits for handler
+ * only when handler falls behind by whole ring of batches, which bounds memory
+ * used by pending facets. Each handler receives all events in order of
+ * parsing, and {@link #endSolid()} returns when all handlers have processed
+ * model.
+ * </p>
+ * <p>
+ * Exception thrown by asynchronous handler stops other handlers, and is
+ * rethrown on parsing thread, by next callback which passes events to that
+ * handler, or by {@link #endSolid()}. If parse fails for other reasons,
+ * threads of handlers are stopped by {@link #close()}, so multicast handler
+ * should be used in try-with-resources block. Handler can be reused for next
+ * models, but can't be changed while model is being parsed.
+ * </p>
+ *
+ * @author Radek Smogura
+ * @since 1.1.0
+ */
+public final class STLMulticastHandler extends STLFacetAbstractHandler
+		implements STLSizeHintHandler, STLDiagnosticsHandler, AutoCloseable {
+
+	/** Default number of facets in batch passed to asynchronous handler. */
+	public static final int								DEFAULT_BATCH_SIZE	= 1024;
+
+	/** Default number of batches buffered for asynchronous handler. */
+	public static final int								DEFAULT_DEPTH				= 8;
+
+	private final List<STLParserHandler>	handlers						= new ArrayList<>();
+
+	private final List<STLFacetHandler>		facetHandlers				= new ArrayList<>();
+
+	private final List<AsyncHandler>			asyncHandlers				= new ArrayList<>();
+
+	/** If model is being parsed, between begin and end of solid. */
+	private boolean												parsing;
+
+	public STLMulticastHandler() {
+	}
+
+	/**
+	 * Adds handler called on parsing thread.
+	 *
+	 * @return this multicast handler
+	 */
+	public STLMulticastHandler add(STLParserHandler handler) {
+		check(handler);
+		handlers.add(handler);
+		facetHandlers.add(STLFacetHandlerAdapter.wrap(handler));
+		return this;
+	}
+
+	/**
+	 * Adds handler called on own thread, with {@link #DEFAULT_BATCH_SIZE} and
+	 * {@link #DEFAULT_DEPTH}.
+	 *
+	 * @return this multicast handler
+	 */
+	public STLMulticastHandler addAsync(STLParserHandler handler) {
+		return addAsync(handler, DEFAULT_BATCH_SIZE, DEFAULT_DEPTH);
+	}
+
+	/**
+	 * Adds handler called on own thread.
+	 *
+	 * @param batchSize
+	 *          the number of facets passed to handler thread at once
+	 * @param depth
+	 *          the number of batches which can wait for handler, before parser
+	 *          waits for handler
+	 * @return this multicast handler
+	 */
+	public STLMulticastHandler addAsync(STLParserHandler handler, int batchSize, int depth) {
+		check(handler);
+		if (batchSize <= 0)
+			throw new IllegalArgumentException("Parameter batch size should be positive");
+		if (depth <= 0)
+			throw new IllegalArgumentException("Parameter depth should be positive");
+		asyncHandlers.add(new AsyncHandler(handler, batchSize, depth));
+		return this;
+	}
+
+	private void check(STLParserHandler handler) {
+		if (handler == null)
+			throw new IllegalArgumentException("Parameter handler should not be null");
+		if (parsing)
+			throw new IllegalStateException("Handlers can't be added while model is being parsed");
+	}
+
+	@Override
+	public void beginAscii(String name) {
+		begin();
+		for (STLParserHandler handler : handlers)
+			handler.beginAscii(name);
+		for (AsyncHandler handler : asyncHandlers)
+			handler.event(AsyncHandler.BEGIN_ASCII, name, 0);
+	}
+
+	@Override
+	public void beginBinary(byte[] header) {
+		begin();
+		// Header array may be changed by handlers called on parsing thread, so
+		// it's copied before they are called, and each async handler gets own copy
+		byte received[] = asyncHandlers.isEmpty() ? null : header.clone();
+		for (STLParserHandler handler : handlers)
+			handler.beginBinary(header);
+		for (AsyncHandler handler : asyncHandlers)
+			handler.event(AsyncHandler.BEGIN_BINARY, received.clone(), 0);
+	}
+
+	@Override
+	public void numberOfTrinagles(int count) {
+		for (STLParserHandler handler : handlers)
+			handler.numberOfTrinagles(count);
+		for (AsyncHandler handler : asyncHandlers)
+			handler.event(AsyncHandler.COUNT, null, count);
+	}
+
+	@Override
+	public void estimatedNumberOfTriangles(int count) {
+		for (STLParserHandler handler : handlers) {
+			if (handler instanceof STLSizeHintHandler)
+				((STLSizeHintHandler) handler).estimatedNumberOfTriangles(count);
+		}
+		for (AsyncHandler handler : asyncHandlers) {
+			if (handler.handler instanceof STLSizeHintHandler)
+				handler.event(AsyncHandler.ESTIMATE, null, count);
+		}
+	}
+
+	@Override
+	public void diagnostics(STLDiagnostics diagnostics) {
+		for (STLParserHandler handler : handlers) {
+			if (handler instanceof STLDiagnosticsHandler)
+				((STLDiagnosticsHandler) handler).diagnostics(diagnostics);
+		}
+		for (AsyncHandler handler : asyncHandlers) {
+			if (handler.handler instanceof STLDiagnosticsHandler)
+				handler.event(AsyncHandler.DIAGNOSTICS, diagnostics, 0);
+		}
+	}
+
+	@Override
+	public void facet(float nx, float ny, float nz, float x1, float y1, float z1, float x2, float y2, float z2, float x3,
+			float y3, float z3, short attributes) {
+		for (STLFacetHandler handler : facetHandlers)
+			handler.facet(nx, ny, nz, x1, y1, z1, x2, y2, z2, x3, y3, z3, attributes);
+		for (AsyncHandler handler : asyncHandlers) {
+			int offset = handler.reserve();
+			float f[] = handler.batch.facets;
+			f[offset] = nx;
+			f[offset + 1] = ny;
+			f[offset + 2] = nz;
+			f[offset + 3] = x1;
+			f[offset + 4] = y1;
+			f[offset + 5] = z1;
+			f[offset + 6] = x2;
+			f[offset + 7] = y2;
+			f[offset + 8] = z2;
+			f[offset + 9] = x3;
+			f[offset + 10] = y3;
+			f[offset + 11] = z3;
+			handler.commit(attributes);
+		}
+	}
+
+	/**
+	 * Passes end of solid to all handlers, and waits until asynchronous handlers
+	 * process it.
+	 */
+	@Override
+	public void endSolid() {
+		for (STLParserHandler handler : handlers)
+			handler.endSolid();
+		if (!parsing)
+			return;
+		for (AsyncHandler handler : asyncHandlers)
+			handler.event(AsyncHandler.END, null, 0);
+		Throwable failure = null;
+		for (AsyncHandler handler : asyncHandlers) {
+			handler.ring.close();
+			handler.join();
+			if (failure == null)
+				failure = handler.failure;
+		}
+		parsing = false;
+		if (failure != null)
+			throw rethrow(failure);
+	}
+
+	/**
+	 * Stops threads of asynchronous handlers, if model is being parsed, without
+	 * passing remaining events to handlers. Idempotent.
+	 */
+	@Override
+	public void close() {
+		if (!parsing)
+			return;
+		for (AsyncHandler handler : asyncHandlers) {
+			handler.ring.cancel();
+			handler.ring.close();
+		}
+		for (AsyncHandler handler : asyncHandlers)
+			handler.join();
+		parsing = false;
+	}
+
+	/**
+	 * Starts threads of asynchronous handlers, stopping threads left by failed
+	 * parse.
+	 */
+	private void begin() {
+		close();
+		parsing = true;
+		for (AsyncHandler handler : asyncHandlers)
+			handler.start();
+	}
+
+	/**
+	 * Stops other handlers after failure of asynchronous handler, and returns
+	 * failure to be thrown.
+	 */
+	private RuntimeException fail(Throwable failure) {
+		close();
+		return rethrow(failure);
+	}
+
+	private static RuntimeException rethrow(Throwable failure) {
+		if (failure instanceof RuntimeException)
+			throw (RuntimeException) failure;
+		if (failure instanceof Error)
+			throw (Error) failure;
+		throw new STLParserException("STLP_0045: Unexpected exception of asynchronous handler.", failure);
+	}
+
+	/** Slot of ring, with facets or other event passed to handler. */
+	private static final class Batch {
+
+		final float	facets[];
+
+		final short	attributes[];
+
+		int					kind;
+
+		int					count;
+
+		Object			value;
+
+		int					number;
+
+		Batch(int batchSize) {
+			this.facets = new float[batchSize * STLBatchingHandler.FLOATS_PER_FACET];
+			this.attributes = new short[batchSize];
+		}
+	}
+
+	/**
+	 * The handler called on own thread. Methods other than {@link #run()} are
+	 * called on parsing thread.
+	 */
+	private final class AsyncHandler implements Runnable {
+
+		static final int							FACETS				= 0;
+
+		static final int							BEGIN_ASCII		= 1;
+
+		static final int							BEGIN_BINARY	= 2;
+
+		static final int							COUNT					= 3;
+
+		static final int							ESTIMATE			= 4;
+
+		static final int							DIAGNOSTICS		= 5;
+
+		static final int							END						= 6;
+
+		final STLParserHandler				handler;
+
+		private final STLFacetHandler	facetHandler;
+
+		private final int							batchSize;
+
+		private final int							depth;
+
+		STLSpscRing<Batch>						ring;
+
+		private Thread								thread;
+
+		volatile Throwable						failure;
+
+		/** Batch of facets being filled, or {@code null}. */
+		Batch													batch;
+
+		AsyncHandler(STLParserHandler handler, int batchSize, int depth) {
+			this.handler = handler;
+			this.facetHandler = STLFacetHandlerAdapter.wrap(handler);
+			this.batchSize = batchSize;
+			this.depth = depth;
+		}
+
+		void start() {
+			ring = new STLSpscRing<>(depth, () -> new Batch(batchSize));
+			batch = null;
+			failure = null;
+			thread = new Thread(this, "stl-multicast");
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		/**
+		 * Reserves place for next facet in {@link #batch}, which is claimed if
+		 * needed.
+		 *
+		 * @return offset of facet in batch
+		 */
+		int reserve() {
+			if (batch == null) {
+				batch = claim();
+				batch.kind = FACETS;
+				batch.count = 0;
+			}
+			return batch.count * STLBatchingHandler.FLOATS_PER_FACET;
+		}
+
+		/**
+		 * Adds reserved facet to batch, publishing full batch.
+		 */
+		void commit(short attribute) {
+			batch.attributes[batch.count++] = attribute;
+			if (batch.count == batchSize) {
+				batch = null;
+				ring.publish();
+			}
+		}
+
+		/**
+		 * Publishes partial batch of facets and event.
+		 */
+		void event(int kind, Object value, int number) {
+			if (batch != null) {
+				batch = null;
+				ring.publish();
+			}
+			Batch event = claim();
+			event.kind = kind;
+			event.value = value;
+			event.number = number;
+			ring.publish();
+		}
+
+		private Batch claim() {
+			Batch claimed = ring.claim();
+			if (claimed == null) {
+				if (failure == null)
+					throw new IllegalStateException("Multicast handler has been closed while model is being parsed");
+				throw fail(failure);
+			}
+			return claimed;
+		}
+
+		/**
+		 * Waits for thread of handler.
+		 */
+		void join() {
+			boolean interrupted = false;
+			while (thread.isAlive()) {
+				try {
+					thread.join();
+				} catch (InterruptedException ie) {
+					interrupted = true;
+				}
+			}
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+
+		@Override
+		public void run() {
+			try {
+				for (Batch taken; (taken = ring.take()) != null && !ring.isCancelled(); ring.release())
+					deliver(taken);
+			} catch (Throwable t) {
+				failure = t;
+				ring.cancel();
+			}
+		}
+
+		private void deliver(Batch taken) {
+			switch (taken.kind) {
+			case FACETS:
+				float f[] = taken.facets;
+				for (int i = 0, offset = 0; i < taken.count; i++, offset += STLBatchingHandler.FLOATS_PER_FACET)
+					facetHandler.facet(f[offset], f[offset + 1], f[offset + 2], f[offset + 3], f[offset + 4], f[offset + 5],
+							f[offset + 6], f[offset + 7], f[offset + 8], f[offset + 9], f[offset + 10], f[offset + 11],
+							taken.attributes[i]);
+				break;
+			case BEGIN_ASCII:
+				handler.beginAscii((String) taken.value);
+				break;
+			case BEGIN_BINARY:
+				handler.beginBinary((byte[]) taken.value);
+				break;
+			case COUNT:
+				handler.numberOfTrinagles(taken.number);
+				break;
+			case ESTIMATE:
+				((STLSizeHintHandler) handler).estimatedNumberOfTriangles(taken.number);
+				break;
+			case DIAGNOSTICS:
+				((STLDiagnosticsHandler) handler).diagnostics((STLDiagnostics) taken.value);
+				break;
+			case END:
+				handler.endSolid();
+				break;
+			default:
+				throw new IllegalStateException("Unknown event " + taken.kind);
+			}
+			taken.value = null;
+		}
+	}
+}
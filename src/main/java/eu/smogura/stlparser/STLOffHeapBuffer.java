@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2016 Radek Smogura <mail@smogura.eu>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package eu.smogura.stlparser;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Growing array of 4 byte values stored outside of heap, in segments of direct
+ * buffers or of memory mapped temporary file. Values are addressed with
+ * {@code long} indices, so buffer is not limited to 2GB.
+ * <p>
+ * Direct buffers count to limit of direct memory of JVM, set with
+ * {@code -XX:MaxDirectMemorySize} and equal to maximal heap size by default,
+ * and allocating segment over it throws {@link OutOfMemoryError}. Temporary
+ * file is limited only by free disk space and address space.
+ * </p>
+ * <p>
+ * Memory of direct buffers and mappings is released when buffer is closed, and
+ * temporary file is truncated and deleted, so buffer must not be used by other
+ * threads while it's closed. If runtime doesn't allow to release memory at
+ * once, it's released when segments are garbage collected.
+ * </p>
+ * 
+ * @author Radek Smogura
+ * @since 1.1.0
+ */
+final class STLOffHeapBuffer implements Closeable {
+
+	/** Number of values in segment, as power of two, segment holds 64MB. */
+	private static final int									SEGMENT_SHIFT	= 24;
+
+	private static final long									SEGMENT_MASK	= (1L << SEGMENT_SHIFT) - 1;
+
+	private static final long									SEGMENT_BYTES	= 4L << SEGMENT_SHIFT;
+
+	/** Releases memory of direct buffer or mapping, if runtime allows it. */
+	private static final Consumer<ByteBuffer>	RELEASE				= releaser();
+
+	private final FileChannel									file;
+
+	private ByteBuffer												segments[]		= new ByteBuffer[16];
+
+	private int																segmentCount;
+
+	/**
+	 * Creates buffer.
+	 * 
+	 * @param directory
+	 *          the directory of temporary file mapped by buffer, or {@code null}
+	 *          to use direct buffers
+	 */
+	public STLOffHeapBuffer(Path directory) throws IOException {
+		if (directory == null) {
+			file = null;
+		} else {
+			Path path = Files.createTempFile(directory, "stl", ".bin");
+			file = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE,
+					StandardOpenOption.DELETE_ON_CLOSE);
+		}
+	}
+
+	/**
+	 * Returns number of values buffer can hold without allocating segments.
+	 */
+	public long capacity() {
+		return (long) segmentCount << SEGMENT_SHIFT;
+	}
+
+	/**
+	 * Allocates segments needed to hold given number of values. New values are
+	 * {@code 0}.
+	 */
+	public void ensureCapacity(long values) throws IOException {
+		while (capacity() < values) {
+			if (segmentCount == segments.length)
+				segments = Arrays.copyOf(segments, segments.length * 2);
+			ByteBuffer segment;
+			if (file == null)
+				segment = ByteBuffer.allocateDirect((int) SEGMENT_BYTES);
+			else
+				segment = file.map(FileChannel.MapMode.READ_WRITE, segmentCount * SEGMENT_BYTES, SEGMENT_BYTES);
+			segments[segmentCount++] = segment.order(ByteOrder.nativeOrder());
+		}
+	}
+
+	public int getInt(long index) {
+		return segments[(int) (index >>> SEGMENT_SHIFT)].getInt((int) (index & SEGMENT_MASK) << 2);
+	}
+
+	public void putInt(long index, int value) {
+		segments[(int) (index >>> SEGMENT_SHIFT)].putInt((int) (index & SEGMENT_MASK) << 2, value);
+	}
+
+	public float getFloat(long index) {
+		return segments[(int) (index >>> SEGMENT_SHIFT)].getFloat((int) (index & SEGMENT_MASK) << 2);
+	}
+
+	public void putFloat(long index, float value) {
+		segments[(int) (index >>> SEGMENT_SHIFT)].putFloat((int) (index & SEGMENT_MASK) << 2, value);
+	}
+
+	/**
+	 * Releases segments, and truncates and deletes temporary file.
+	 */
+	@Override
+	public void close() throws IOException {
+		ByteBuffer released[] = segments;
+		int releasedCount = segmentCount;
+		segments = new ByteBuffer[0];
+		segmentCount = 0;
+		for (int i = 0; i < releasedCount; i++)
+			RELEASE.accept(released[i]);
+		if (file != null) {
+			try {
+				file.truncate(0);
+			} catch (IOException ioe) {
+				// Files still mapped can't be truncated on some systems
+			} finally {
+				file.close();
+			}
+		}
+	}
+
+	/**
+	 * Looks up method releasing memory of direct buffers and mappings.
+	 */
+	private static Consumer<ByteBuffer> releaser() {
+		try {
+			// Java 9 API, looked up to run on older versions
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Field field = unsafeClass.getDeclaredField("theUnsafe");
+			field.setAccessible(true);
+			Object unsafe = field.get(null);
+			Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			return buffer -> {
+				try {
+					invokeCleaner.invoke(unsafe, buffer);
+				} catch (ReflectiveOperationException | RuntimeException ex) {
+					// Released when garbage collected
+				}
+			};
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			// Java 8 buffers have cleaners
+			return buffer -> {
+				try {
+					Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+					cleanerMethod.setAccessible(true);
+					Object cleaner = cleanerMethod.invoke(buffer);
+					if (cleaner != null)
+						cleaner.getClass().getMethod("clean").invoke(cleaner);
+				} catch (ReflectiveOperationException | RuntimeException ex) {
+					// Released when garbage collected
+				}
+			};
+		}
+	}
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright (c) 2016 Radek Smogura <mail@smogura.eu>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package eu.smogura.stlparser;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * The handler storing indexed mesh outside of heap, for models too large to be
+ * kept in heap.
+ * <p>
+ * Vertices, triangles and vertex hash table are stored in segments of direct
+ * buffers, or of memory mapped temporary files, allocated as mesh grows.
+ * Vertices shared by triangles are stored once, as by {@link STLMeshBuilder}.
+ * Stored mesh is read with accessor methods, or passed facet by facet to other
+ * handler with {@link #replay(STLParserHandler)}.
+ * </p>
+ * <p>
+ * Direct buffers are limited by direct memory of JVM, set with
+ * {@code -XX:MaxDirectMemorySize} and equal to maximal heap size by default,
+ * so models larger than that should be stored in temporary files.
+ * </p>
+ * <p>
+ * Mesh should be closed when no longer needed, to release its memory and
+ * delete temporary files. Old hash tables are released as table grows.
+ * </p>
+ * 
+ * @author Radek Smogura
+ * @since 1.1.0
+ */
+public class STLOffHeapMesh extends STLFacetAbstractHandler implements Closeable {
+
+	/** Triangle record: three vertex indices, normal and attributes. */
+	private static final int				TRIANGLE_VALUES	= 7;
+
+	private static final long				INITIAL_TABLE		= 1 << 16;
+
+	private final Path							directory;
+
+	private final STLOffHeapBuffer	vertices;
+
+	private final STLOffHeapBuffer	triangles;
+
+	/**
+	 * Hash table of vertex indices increased by one, {@code 0} marks empty slot.
+	 */
+	private STLOffHeapBuffer				table;
+
+	private long										tableSize;
+
+	private long										vertexCount;
+
+	private long										triangleCount;
+
+	/**
+	 * Creates mesh stored in direct buffers, limited by direct memory of JVM.
+	 */
+	public STLOffHeapMesh() throws IOException {
+		this(null);
+	}
+
+	/**
+	 * Creates mesh stored in memory mapped temporary files.
+	 * 
+	 * @param directory
+	 *          the directory of temporary files, or {@code null} to use direct
+	 *          buffers
+	 */
+	public STLOffHeapMesh(Path directory) throws IOException {
+		this.directory = directory;
+		this.vertices = new STLOffHeapBuffer(directory);
+		this.triangles = new STLOffHeapBuffer(directory);
+		this.table = new STLOffHeapBuffer(directory);
+		this.tableSize = INITIAL_TABLE;
+		this.table.ensureCapacity(tableSize);
+	}
+
+	@Override
+	public void facet(float nx, float ny, float nz, float x1, float y1, float z1, float x2, float y2, float z2, float x3,
+			float y3, float z3, short attributes) {
+		try {
+			long v1 = vertex(x1, y1, z1);
+			long v2 = vertex(x2, y2, z2);
+			long v3 = vertex(x3, y3, z3);
+			long offset = triangleCount * TRIANGLE_VALUES;
+			triangles.ensureCapacity(offset + TRIANGLE_VALUES);
+			triangles.putInt(offset, (int) v1);
+			triangles.putInt(offset + 1, (int) v2);
+			triangles.putInt(offset + 2, (int) v3);
+			triangles.putFloat(offset + 3, nx);
+			triangles.putFloat(offset + 4, ny);
+			triangles.putFloat(offset + 5, nz);
+			triangles.putInt(offset + 6, attributes);
+			triangleCount++;
+		} catch (IOException ioe) {
+			throw new STLParserException("STLP_0026: Unexpected IO exception while growing off-heap mesh storage.", ioe);
+		}
+	}
+
+	private long vertex(float x, float y, float z) throws IOException {
+		// Normalize -0.0 to 0.0
+		x += 0.0f;
+		y += 0.0f;
+		z += 0.0f;
+		int bx = Float.floatToIntBits(x);
+		int by = Float.floatToIntBits(y);
+		int bz = Float.floatToIntBits(z);
+		long mask = tableSize - 1;
+		for (long slot = hash(bx, by, bz) & mask;; slot = (slot + 1) & mask) {
+			int entry = table.getInt(slot);
+			if (entry == 0) {
+				long index = vertexCount;
+				if (index == Integer.MAX_VALUE - 1)
+					throw new STLParserException("STLP_0027: Too many vertices for off-heap mesh.");
+				vertices.ensureCapacity(index * 3 + 3);
+				vertices.putFloat(index * 3, x);
+				vertices.putFloat(index * 3 + 1, y);
+				vertices.putFloat(index * 3 + 2, z);
+				vertexCount++;
+				table.putInt(slot, (int) index + 1);
+				if (vertexCount * 2 > tableSize)
+					rehash(tableSize * 2);
+				return index;
+			}
+			long offset = (entry - 1) * 3L;
+			if (Float.floatToIntBits(vertices.getFloat(offset)) == bx
+					&& Float.floatToIntBits(vertices.getFloat(offset + 1)) == by
+					&& Float.floatToIntBits(vertices.getFloat(offset + 2)) == bz)
+				return entry - 1;
+		}
+	}
+
+	private static long hash(int bx, int by, int bz) {
+		long h = bx * 0x9E3779B97F4A7C15L + by;
+		h = h * 0x9E3779B97F4A7C15L + bz;
+		h *= 0x9E3779B97F4A7C15L;
+		return h ^ (h >>> 32);
+	}
+
+	private void rehash(long size) throws IOException {
+		STLOffHeapBuffer newTable = new STLOffHeapBuffer(directory);
+		newTable.ensureCapacity(size);
+		long mask = size - 1;
+		for (long index = 0; index < vertexCount; index++) {
+			long offset = index * 3;
+			long slot = hash(Float.floatToIntBits(vertices.getFloat(offset)),
+					Float.floatToIntBits(vertices.getFloat(offset + 1)), Float.floatToIntBits(vertices.getFloat(offset + 2)))
+					& mask;
+			while (newTable.getInt(slot) != 0)
+				slot = (slot + 1) & mask;
+			newTable.putInt(slot, (int) index + 1);
+		}
+		table.close();
+		table = newTable;
+		tableSize = size;
+	}
+
+	/**
+	 * Returns number of distinct vertices.
+	 */
+	public long getVertexCount() {
+		return vertexCount;
+	}
+
+	/**
+	 * Returns number of triangles.
+	 */
+	public long getTriangleCount() {
+		return triangleCount;
+	}
+
+	/**
+	 * Returns coordinate of vertex.
+	 * 
+	 * @param vertex
+	 *          the index of vertex
+	 * @param axis
+	 *          the coordinate, {@code 0} for x, {@code 1} for y, {@code 2} for z
+	 */
+	public float getVertex(long vertex, int axis) {
+		return vertices.getFloat(vertex * 3 + axis);
+	}
+
+	/**
+	 * Returns index of triangle vertex.
+	 * 
+	 * @param triangle
+	 *          the index of triangle
+	 * @param corner
+	 *          the vertex of triangle, {@code 0}, {@code 1} or {@code 2}
+	 */
+	public int getIndex(long triangle, int corner) {
+		return triangles.getInt(triangle * TRIANGLE_VALUES + corner);
+	}
+
+	/**
+	 * Returns coordinate of triangle normal.
+	 */
+	public float getNormal(long triangle, int axis) {
+		return triangles.getFloat(triangle * TRIANGLE_VALUES + 3 + axis);
+	}
+
+	/**
+	 * Returns attribute field of triangle.
+	 */
+	public short getAttributes(long triangle) {
+		return (short) triangles.getInt(triangle * TRIANGLE_VALUES + 6);
+	}
+
+	/**
+	 * Passes stored triangles, in order they were added, to handler. Only facet
+	 * events are passed.
+	 */
+	public void replay(STLParserHandler parserHandler) {
+		STLFacetHandler handler = STLFacetHandlerAdapter.wrap(parserHandler);
+		for (long t = 0, offset = 0; t < triangleCount; t++, offset += TRIANGLE_VALUES) {
+			long v1 = triangles.getInt(offset) * 3L;
+			long v2 = triangles.getInt(offset + 1) * 3L;
+			long v3 = triangles.getInt(offset + 2) * 3L;
+			handler.facet(triangles.getFloat(offset + 3), triangles.getFloat(offset + 4), triangles.getFloat(offset + 5),
+					vertices.getFloat(v1), vertices.getFloat(v1 + 1), vertices.getFloat(v1 + 2), vertices.getFloat(v2),
+					vertices.getFloat(v2 + 1), vertices.getFloat(v2 + 2), vertices.getFloat(v3), vertices.getFloat(v3 + 1),
+					vertices.getFloat(v3 + 2), (short) triangles.getInt(offset + 6));
+		}
+	}
+
+	/**
+	 * Releases storage of mesh, deleting temporary files. Mesh must not be used
+	 * after it's closed.
+	 */
+	@Override
+	public void close() throws IOException {
+		vertices.close();
+		triangles.close();
+		table.close();
+	}
+}
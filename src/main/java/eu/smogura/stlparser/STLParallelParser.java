@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2016 Radek Smogura <mail@smogura.eu>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package eu.smogura.stlparser;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.BinaryOperator;
+import java.util.function.Supplier;
+
+/**
+ * The parser splitting model files into ranges of facets parsed concurrently.
+ * <p>
+ * Parser is created with {@link STLParserFactory#createParallelParser()}.
+ * </p>
+ * <p>
+ * Each range is parsed by own handler obtained from {@code handlerFactory}.
+ * Handler receives events as for separate model: {@code beginBinary} with model
+ * header, number of triangles of range, facets of range and {@code endSolid}.
+ * Number of triangles of ranges of ASCII models is estimated, and passed only
+ * to {@link STLSizeHintHandler}. When all ranges are parsed,
+ * handlers are reduced with {@code merger}, in order of ranges, so merger can
+ * rely on facets of left handler preceding facets of right one.
+ * </p>
+ * <p>
+ * Alternatively, facets of all ranges can be delivered to single handler, on
+ * calling thread. Facets are delivered either in order of model, with ranges
+ * parsed ahead held in reorder buffer, or in order in which ranges are parsed.
+ * Ranges are submitted only up to two per thread ahead of first range not
+ * delivered yet, and ranges have at most 64MB, so facets held for single
+ * handler take at most about {@code 2 * parallelism * 64MB} for binary models,
+ * and less for ASCII ones, whatever is size of model.
+ * </p>
+ * <p>
+ * Binary models are split by number of facets. ASCII models are split by size,
+ * each split is moved forward to next {@code facet normal} token. Facets
+ * following the {@code endsolid} line are ignored, except for unordered
+ * delivery, which can pass facets of ranges parsed ahead before end of solid
+ * is found.
+ * </p>
+ * 
+ * @author Radek Smogura
+ * @since 1.1.0
+ */
+public interface STLParallelParser {
+
+	/**
+	 * Parses model file concurrently.
+	 * 
+	 * @param channel
+	 *          the channel to read model from, starting at current position
+	 * @param handlerFactory
+	 *          the factory of handlers, called once per range
+	 * @param merger
+	 *          the function merging handlers of adjacent ranges
+	 * @return the merged handler
+	 * @throws STLParserException
+	 *           if model can't be parsed
+	 */
+	<H extends STLParserHandler> H parse(FileChannel channel, Supplier<H> handlerFactory, BinaryOperator<H> merger)
+			throws STLParserException;
+
+	/**
+	 * Parses model file concurrently, passing all facets to single handler.
+	 * Handler is called only by calling thread.
+	 * 
+	 * @param channel
+	 *          the channel to read model from, starting at current position
+	 * @param handler
+	 *          the handler notified about parsed data
+	 * @param ordered
+	 *          {@code true} if facets should be delivered in order of model,
+	 *          {@code false} if in order in which ranges are parsed
+	 * @throws STLParserException
+	 *           if model can't be parsed
+	 */
+	void parse(FileChannel channel, STLParserHandler handler, boolean ordered) throws STLParserException;
+
+	/**
+	 * Parses model file concurrently, passing all facets to single handler.
+	 * 
+	 * @see #parse(FileChannel, STLParserHandler, boolean)
+	 */
+	default void parse(Path path, STLParserHandler handler, boolean ordered) throws STLParserException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			parse(channel, handler, ordered);
+		} catch (IOException ioe) {
+			throw new STLParserException((new StringBuilder()).append("STLP_0022: Unexpected IO exception while opening ")
+					.append(path).append(".").toString(), ioe);
+		}
+	}
+
+	/**
+	 * Parses model file concurrently.
+	 * 
+	 * @see #parse(FileChannel, Supplier, BinaryOperator)
+	 */
+	default <H extends STLParserHandler> H parse(Path path, Supplier<H> handlerFactory, BinaryOperator<H> merger)
+			throws STLParserException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			return parse(channel, handlerFactory, merger);
+		} catch (IOException ioe) {
+			throw new STLParserException((new StringBuilder()).append("STLP_0022: Unexpected IO exception while opening ")
+					.append(path).append(".").toString(), ioe);
+		}
+	}
+}
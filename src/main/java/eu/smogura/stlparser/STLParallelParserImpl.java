@@ -0,0 +1,542 @@
+/*
+ * Copyright (c) 2016 Radek Smogura <mail@smogura.eu>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package eu.smogura.stlparser;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Implementation of parallel parser.
+ * <p>
+ * Model is split into chunks parsed by tasks submitted to executor. Binary
+ * models have fixed length facet records, so chunks are ranges of facets
+ * mapped by {@link STLBinaryParser}. ASCII models are split into byte ranges
+ * starting at {@code facet normal} token and parsed by {@link STLAsciiParser}.
+ * </p>
+ * 
+ * @author Radek Smogura
+ * @since 1.1.0
+ */
+class STLParallelParserImpl implements STLParallelParser {
+
+	/** Minimal size of chunk, smaller chunks are not worth a task. */
+	public static final int				MIN_CHUNK_BYTES			= 1 << 22;
+
+	/**
+	 * Maximal size of chunk, limits memory used by chunks parsed ahead when
+	 * facets are delivered to single handler.
+	 */
+	public static final int				MAX_CHUNK_BYTES			= 1 << 26;
+
+	/** Number of chunks per thread, balances load of uneven chunks. */
+	public static final int				CHUNKS_PER_THREAD		= 4;
+
+	/**
+	 * Number of chunks per thread submitted ahead of first chunk not delivered
+	 * yet, independent of number of chunks, so chunks held in reorder buffer
+	 * take at most {@code 2 * parallelism * MAX_CHUNK_BYTES} of model.
+	 */
+	public static final int				CHUNKS_AHEAD				= 2;
+
+	private static final int			SCAN_BUFFER_LENGTH	= 1 << 16;
+
+	private static final byte			FACET_NORMAL[]			= STLAsciiParser.FACET_NORMAL
+			.getBytes(StandardCharsets.US_ASCII);
+
+	private static final byte			NEW_LINE[]					= { '\n' };
+
+	private final Executor				executor;
+
+	private final int							parallelism;
+
+	private final STLAsciiParser	asciiParser;
+
+	private final STLBinaryParser	binaryParser;
+
+	public STLParallelParserImpl(Executor executor) {
+		this(executor, STLParserOptions.DEFAULT);
+	}
+
+	/**
+	 * @param options
+	 *          the options of parser, number of tasks is based on
+	 *          {@link STLParserOptions#parallelism} if it's set
+	 */
+	STLParallelParserImpl(Executor executor, STLParserOptions options) {
+		if (executor == null)
+			throw new IllegalArgumentException("Parameter executor should not be null");
+		this.executor = executor;
+		if (options.parallelism > 0)
+			this.parallelism = options.parallelism;
+		else
+			this.parallelism = executor instanceof ForkJoinPool ? ((ForkJoinPool) executor).getParallelism()
+					: Runtime.getRuntime().availableProcessors();
+		this.asciiParser = new STLAsciiParser(options);
+		this.binaryParser = new STLBinaryParser();
+	}
+
+	public STLParallelParserImpl() {
+		this(ForkJoinPool.commonPool());
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public <H extends STLParserHandler> H parse(FileChannel channel, Supplier<H> handlerFactory, BinaryOperator<H> merger)
+			throws STLParserException {
+		Split split = split(channel);
+		Object merged[] = new Object[1];
+		new ChunkRunner(split, handlerFactory, true).run(chunk -> {
+			merged[0] = merged[0] == null ? chunk.handler : merger.apply((H) merged[0], (H) chunk.handler);
+		});
+		position(channel, split.end);
+		return (H) merged[0];
+	}
+
+	@Override
+	public void parse(FileChannel channel, STLParserHandler handler, boolean ordered) throws STLParserException {
+		Split split = split(channel);
+		split.begin.accept(handler);
+		split.count(handler, split.bodyStart, split.end);
+		new ChunkRunner(split, STLFacetBuffer::new, ordered).run(chunk -> ((STLFacetBuffer) chunk.handler).replay(handler));
+		handler.endSolid();
+		position(channel, split.end);
+	}
+
+	/**
+	 * Splits model starting at current position of channel into chunks.
+	 */
+	private Split split(FileChannel channel) throws STLParserException {
+		long start;
+		long size;
+		try {
+			start = channel.position();
+			size = channel.size();
+		} catch (IOException ioe) {
+			throw new STLParserException("STLP_0020: Unexpected IO exception while trying to determine STL file format.",
+					ioe);
+		}
+		if (asciiParser.getOptions().decompress && STLDecompression.isCompressed(channel))
+			throw new STLParserException(
+					"STLP_0046: Compressed model can't be split into chunks, it should be parsed by STLParser.");
+		if (STLParserImpl.isAscii(channel, asciiParser.getOptions().lenient)) {
+			try {
+				return splitAscii(channel, start, size);
+			} catch (IOException ioe) {
+				throw new STLParserException("STLP_0006: Unexpected IO exception while reading ASCII STL header.", ioe);
+			}
+		} else {
+			return splitBinary(channel, start, size);
+		}
+	}
+
+	private Split splitBinary(FileChannel channel, long start, long size) throws STLParserException {
+		ByteBuffer header = binaryParser.readHeader(channel, start);
+		long numberOfTriangles = binaryParser.numberOfTriangles(header);
+		long facetsStart = start + header.capacity();
+		long facetsEnd = facetsStart + numberOfTriangles * STLBinaryParser.FACET_LENGTH;
+		if (facetsEnd > size)
+			throw new STLParserException((new StringBuilder())
+					.append("STLP_0023: Unexpected end of file, binary STL declares ").append(numberOfTriangles)
+					.append(" triangles, but file holds only ").append((size - facetsStart) / STLBinaryParser.FACET_LENGTH)
+					.append(".").toString());
+
+		Split split = new Split();
+		int chunks = chunkCount(facetsEnd - facetsStart);
+		for (int c = 0; c < chunks; c++) {
+			long first = numberOfTriangles * c / chunks;
+			long last = numberOfTriangles * (c + 1) / chunks;
+			split.chunks.add(new Chunk(c, facetsStart + first * STLBinaryParser.FACET_LENGTH,
+					facetsStart + last * STLBinaryParser.FACET_LENGTH));
+		}
+		split.begin = handler -> handler.beginBinary(binaryParser.headerBytes(header));
+		split.parser = (chunk, handler) -> {
+			binaryParser.parseMapped(channel, facetsStart, (chunk.start - facetsStart) / STLBinaryParser.FACET_LENGTH,
+					(chunk.end - chunk.start) / STLBinaryParser.FACET_LENGTH, handler);
+			return chunk.index == chunks - 1;
+		};
+		split.bodyStart = facetsStart;
+		split.end = facetsEnd;
+		return split;
+	}
+
+	private Split splitAscii(FileChannel channel, long start, long size) throws IOException, STLParserException {
+		long headerStart = start;
+		long headerEnd;
+		String line;
+		do {
+			headerEnd = indexOf(channel, headerStart, size, NEW_LINE);
+			if (headerEnd == -1)
+				headerEnd = size;
+			ByteBuffer headerLine = ByteBuffer.allocate((int) Math.min(headerEnd - headerStart, Integer.MAX_VALUE));
+			while (headerLine.hasRemaining() && channel.read(headerLine, headerStart + headerLine.position()) != -1)
+				;
+			line = new String(headerLine.array(), 0, headerLine.position(), asciiParser.getOptions().charset).trim();
+			headerStart = headerEnd + 1;
+			// Lenient grammar skips empty lines before header
+		} while (line.isEmpty() && asciiParser.getOptions().lenient && headerEnd < size);
+		String name = asciiParser.solidName(line);
+		if (name == null)
+			throw new STLParserException(
+					"STLP_0007: Unexpected end of stream or wrong STL header while reading ASCII STL header.");
+
+		Split split = new Split();
+		long bodyStart = Math.min(size, headerEnd + 1);
+		int chunks = chunkCount(size - bodyStart);
+		long chunkStart = bodyStart;
+		for (int c = 1; c < chunks; c++) {
+			long from = Math.max(chunkStart + 1, bodyStart + (size - bodyStart) * c / chunks);
+			// Lenient grammar accepts keywords in any case, separated by any white spaces
+			long boundary = asciiParser.getOptions().lenient ? indexOfKeyword(channel, from, size, FACET_NORMAL)
+					: indexOf(channel, from, size, FACET_NORMAL);
+			if (boundary == -1)
+				break;
+			if (boundary > chunkStart) {
+				split.chunks.add(new Chunk(split.chunks.size(), chunkStart, boundary));
+				chunkStart = boundary;
+			}
+		}
+		split.chunks.add(new Chunk(split.chunks.size(), chunkStart, size));
+		split.begin = handler -> handler.beginAscii(name);
+		split.parser = (chunk, handler) -> {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, chunk.start, chunk.end - chunk.start);
+			return asciiParser.parseChunk(new STLByteBufferInputStream(buffer), () -> {
+				try {
+					return countLines(channel, start, chunk.start);
+				} catch (IOException ioe) {
+					// Line numbers are informative only
+					return 0;
+				}
+			}, handler);
+		};
+		ByteBuffer sample = ByteBuffer.allocate((int) Math.min(STLAsciiParser.SAMPLE_LENGTH, size - bodyStart));
+		while (sample.hasRemaining() && channel.read(sample, bodyStart + sample.position()) != -1)
+			;
+		split.triangles = STLAsciiParser.estimateFacets(sample.array(), sample.position(), size - bodyStart);
+		split.ascii = true;
+		split.bodyStart = bodyStart;
+		split.end = size;
+		return split;
+	}
+
+	/**
+	 * Returns number of chunks for body of given size.
+	 */
+	private int chunkCount(long bytes) {
+		long chunks = Math.max(Math.min(bytes / MIN_CHUNK_BYTES, (long) parallelism * CHUNKS_PER_THREAD),
+				(bytes + MAX_CHUNK_BYTES - 1) / MAX_CHUNK_BYTES);
+		return (int) Math.max(1, chunks);
+	}
+
+	private void position(FileChannel channel, long position) throws STLParserException {
+		try {
+			channel.position(position);
+		} catch (IOException ioe) {
+			throw new STLParserException("STLP_0008: Unexpected IO exception while positioning channel after model.", ioe);
+		}
+	}
+
+	/**
+	 * Finds position of pattern in channel between {@code from} and {@code to}.
+	 * 
+	 * @return the position of 1st byte of pattern or {@code -1} if not found
+	 */
+	static long indexOf(FileChannel channel, long from, long to, byte pattern[]) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_LENGTH);
+		byte data[] = buffer.array();
+		for (long position = from; to - position >= pattern.length;) {
+			buffer.clear();
+			buffer.limit((int) Math.min(data.length, to - position));
+			while (buffer.hasRemaining() && channel.read(buffer, position + buffer.position()) != -1)
+				;
+			int length = buffer.position();
+			if (length < pattern.length)
+				return -1;
+			search: for (int i = 0; i <= length - pattern.length; i++) {
+				for (int j = 0; j < pattern.length; j++) {
+					if (data[i + j] != pattern[j])
+						continue search;
+				}
+				return position + i;
+			}
+			position += length - pattern.length + 1;
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns position of first occurrence of keyword in channel between
+	 * {@code from} and {@code to}, matched like by
+	 * {@link STLAsciiReader#match(byte[])}, ignoring case of letters and matching
+	 * each space of keyword with any run of white spaces within line, or
+	 * {@code -1} if keyword is not found.
+	 * 
+	 * @param keyword
+	 *          the keyword of lower case letters and single spaces
+	 */
+	static long indexOfKeyword(FileChannel channel, long from, long to, byte keyword[]) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_LENGTH);
+		byte data[] = buffer.array();
+		scan: for (long position = from; position < to;) {
+			buffer.clear();
+			buffer.limit((int) Math.min(data.length, to - position));
+			while (buffer.hasRemaining() && channel.read(buffer, position + buffer.position()) != -1)
+				;
+			int length = buffer.position();
+			if (length == 0)
+				return -1;
+			boolean last = position + length >= to;
+			for (int i = 0; i < length; i++) {
+				if ((data[i] | 0x20) != keyword[0])
+					continue;
+				int matched = matchKeyword(data, i, length, keyword);
+				if (matched == 1)
+					return position + i;
+				// Keyword may continue in next buffer, so it's read again from here
+				if (matched == 0 && !last && i > 0) {
+					position += i;
+					continue scan;
+				}
+			}
+			position += length;
+		}
+		return -1;
+	}
+
+	/**
+	 * Matches keyword at {@code offset} of data.
+	 * 
+	 * @return {@code 1} if keyword matches, {@code -1} if it doesn't, and
+	 *         {@code 0} if data ends before keyword can be matched
+	 */
+	private static int matchKeyword(byte data[], int offset, int length, byte keyword[]) {
+		int i = offset;
+		for (byte k : keyword) {
+			if (i == length)
+				return 0;
+			if (k == ' ') {
+				if ((data[i] & 0xff) > ' ' || data[i] == '\n')
+					return -1;
+				while (i < length && (data[i] & 0xff) <= ' ' && data[i] != '\n')
+					i++;
+			} else if ((data[i++] | 0x20) != k) {
+				return -1;
+			}
+		}
+		return 1;
+	}
+
+	/**
+	 * Counts new line characters in channel between {@code from} and {@code to}.
+	 */
+	static int countLines(FileChannel channel, long from, long to) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_LENGTH);
+		byte data[] = buffer.array();
+		int lines = 0;
+		for (long position = from; position < to;) {
+			buffer.clear();
+			buffer.limit((int) Math.min(data.length, to - position));
+			int length = channel.read(buffer, position);
+			if (length == -1)
+				break;
+			for (int i = 0; i < length; i++) {
+				if (data[i] == '\n')
+					lines++;
+			}
+			position += length;
+		}
+		return lines;
+	}
+
+	/** Range of model parsed by single task. */
+	private static final class Chunk {
+
+		final int						index;
+
+		final long					start;
+
+		final long					end;
+
+		STLParserHandler		handler;
+
+		boolean							endOfSolid;
+
+		Throwable						failure;
+
+		Chunk(int index, long start, long end) {
+			this.index = index;
+			this.start = start;
+			this.end = end;
+		}
+	}
+
+	/** Parses single chunk. */
+	private interface ChunkParser {
+
+		/**
+		 * @return {@code true} if end of solid has been reached in chunk
+		 */
+		boolean parse(Chunk chunk, STLParserHandler handler) throws IOException;
+	}
+
+	/** Model split into chunks. */
+	private static final class Split {
+
+		final List<Chunk>						chunks	= new ArrayList<>();
+
+		Consumer<STLParserHandler>	begin;
+
+		ChunkParser									parser;
+
+		boolean											ascii;
+
+		/** Position of 1st facet, or of body of ASCII model. */
+		long												bodyStart;
+
+		long												end;
+
+		/** Estimated number of triangles of ASCII model. */
+		long												triangles;
+
+		/**
+		 * Passes number of triangles in range of model to handler, exact for
+		 * binary models, and estimated for ASCII models.
+		 */
+		void count(STLParserHandler handler, long start, long end) {
+			if (!ascii) {
+				handler.numberOfTrinagles((int) ((end - start) / STLBinaryParser.FACET_LENGTH));
+			} else if (this.end > bodyStart) {
+				STLAsciiParser.sizeHint(handler, Math.round((double) triangles * (end - start) / (this.end - bodyStart)));
+			}
+		}
+	}
+
+	/**
+	 * Submits chunks to executor and passes parsed chunks to consumer on calling
+	 * thread. Chunks parsed ahead, and failures, are held in reorder buffer until
+	 * all preceding chunks are parsed, so chunks following end of solid are
+	 * ignored, as by sequential parser.
+	 */
+	private class ChunkRunner {
+
+		private final Split															split;
+
+		private final Supplier<? extends STLParserHandler>	handlers;
+
+		private final boolean														ordered;
+
+		private final BlockingQueue<Chunk>							completed	= new LinkedBlockingQueue<>();
+
+		private final AtomicBoolean											cancelled	= new AtomicBoolean();
+
+		ChunkRunner(Split split, Supplier<? extends STLParserHandler> handlers, boolean ordered) {
+			this.split = split;
+			this.handlers = handlers;
+			this.ordered = ordered;
+		}
+
+		private void submit(Chunk chunk) {
+			executor.execute(() -> {
+				try {
+					if (!cancelled.get()) {
+						chunk.handler = handlers.get();
+						split.begin.accept(chunk.handler);
+						split.count(chunk.handler, chunk.start, chunk.end);
+						chunk.endOfSolid = split.parser.parse(chunk, chunk.handler);
+						chunk.handler.endSolid();
+					}
+				} catch (Throwable t) {
+					chunk.failure = t;
+				} finally {
+					completed.add(chunk);
+				}
+			});
+		}
+
+		void run(Consumer<Chunk> consumer) throws STLParserException {
+			List<Chunk> chunks = split.chunks;
+			Chunk received[] = new Chunk[chunks.size()];
+			int last = chunks.size() - 1;
+			int submitted = 0;
+			int next = 0;
+			boolean endOfSolid = false;
+			try {
+				for (int window = parallelism * CHUNKS_AHEAD; submitted <= last && submitted < window; submitted++)
+					submit(chunks.get(submitted));
+
+				while (next <= last) {
+					Chunk chunk = completed.take();
+					if (chunk.index > last)
+						continue;
+					received[chunk.index] = chunk;
+					if (!ordered && chunk.failure == null) {
+						consumer.accept(chunk);
+						if (submitted <= last)
+							submit(chunks.get(submitted++));
+					}
+					while (next <= last && (chunk = received[next]) != null) {
+						received[next++] = null;
+						if (chunk.failure != null)
+							throw failure(chunk.failure);
+						if (ordered) {
+							consumer.accept(chunk);
+							if (submitted <= last && !chunk.endOfSolid)
+								submit(chunks.get(submitted++));
+						}
+						if (chunk.endOfSolid) {
+							endOfSolid = true;
+							last = chunk.index;
+						}
+					}
+				}
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				throw new STLParserException("STLP_0025: Interrupted while waiting for chunks of model being parsed.", ie);
+			} finally {
+				cancelled.set(true);
+			}
+			if (split.ascii && !endOfSolid && !asciiParser.getOptions().lenient)
+				throw new STLParserException("STLP_0012: Unexpected end of file while parsing ASCII STL.");
+		}
+
+		private RuntimeException failure(Throwable failure) {
+			if (failure instanceof RuntimeException)
+				return (RuntimeException) failure;
+			if (failure instanceof Error)
+				throw (Error) failure;
+			return new STLParserException("STLP_0024: Unexpected exception while parsing STL in parallel.", failure);
+		}
+	}
+}
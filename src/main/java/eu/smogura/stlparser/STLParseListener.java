@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2016 Radek Smogura <mail@smogura.eu>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package eu.smogura.stlparser;
+
+/**
+ * Listener notified about each parse, when instrumentation is enabled.
+ * <p>
+ * Listeners are registered with
+ * {@link STLInstrumentation#addListener(STLParseListener)}. Listener is called
+ * by thread which has parsed model, so it should be thread safe, and fast.
+ * </p>
+ * 
+ * @author Radek Smogura
+ * @since 1.1.0
+ */
+@FunctionalInterface
+public interface STLParseListener {
+
+	/**
+	 * Callback method called when parsing has finished, successfully or not.
+	 * 
+	 * @param metrics
+	 *          the metrics of parse
+	 */
+	void parseFinished(STLParseMetrics metrics);
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2016 Radek Smogura <mail@smogura.eu>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package eu.smogura.stlparser;
+
+/**
+ * Metrics of single parse, passed to {@link STLParseListener}.
+ * <p>
+ * Time of parse is split into time of reading data from stream, time of
+ * handler callbacks, and remaining time of decoding. Time of handler callbacks
+ * is estimated from sample of facets. Mapped files are not read explicitly, so
+ * for such models time of reading them is included in time of decoding, as
+ * page faults.
+ * </p>
+ * <p>
+ * When streams are read ahead, reading overlaps decoding, and time of reading
+ * is time in which parser waited for data read ahead. Stalls of read ahead
+ * show which side is slower: parser waiting for data is bound by reads, and
+ * reader waiting for free buffer is bound by decoding or handler.
+ * </p>
+ * 
+ * @author Radek Smogura
+ * @since 1.1.0
+ */
+public final class STLParseMetrics {
+
+	private final STLFormat	format;
+
+	private final long			bytes;
+
+	private final long			facets;
+
+	private final long			totalNanos;
+
+	private final long			ioNanos;
+
+	private final long			handlerNanos;
+
+	private final String		errorCode;
+
+	private final long			readAheadStalls;
+
+	private final long			readAheadStallNanos;
+
+	private final long			readAheadFullStalls;
+
+	private final long			readAheadFullNanos;
+
+	STLParseMetrics(STLFormat format, long bytes, long facets, long totalNanos, long ioNanos, long handlerNanos,
+			String errorCode, long readAheadStalls, long readAheadStallNanos, long readAheadFullStalls,
+			long readAheadFullNanos) {
+		this.format = format;
+		this.bytes = bytes;
+		this.facets = facets;
+		this.totalNanos = totalNanos;
+		this.ioNanos = ioNanos;
+		this.handlerNanos = handlerNanos;
+		this.errorCode = errorCode;
+		this.readAheadStalls = readAheadStalls;
+		this.readAheadStallNanos = readAheadStallNanos;
+		this.readAheadFullStalls = readAheadFullStalls;
+		this.readAheadFullNanos = readAheadFullNanos;
+	}
+
+	/**
+	 * Returns detected format of model, or {@code null} if parsing failed before
+	 * format has been detected.
+	 */
+	public STLFormat getFormat() {
+		return format;
+	}
+
+	/**
+	 * Returns number of bytes of model read.
+	 */
+	public long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * Returns number of facets passed to handler.
+	 */
+	public long getFacets() {
+		return facets;
+	}
+
+	public long getTotalNanos() {
+		return totalNanos;
+	}
+
+	/**
+	 * Returns time spent reading data from stream.
+	 */
+	public long getIoNanos() {
+		return ioNanos;
+	}
+
+	/**
+	 * Returns estimated time spent in handler callbacks.
+	 */
+	public long getHandlerNanos() {
+		return handlerNanos;
+	}
+
+	/**
+	 * Returns time spent decoding model, i.e. time of parse which is not time of
+	 * reading data nor of handler callbacks.
+	 */
+	public long getDecodeNanos() {
+		return Math.max(0, totalNanos - ioNanos - handlerNanos);
+	}
+
+	public double getFacetsPerSecond() {
+		return totalNanos > 0 ? facets * 1e9 / totalNanos : 0;
+	}
+
+	/**
+	 * Checks if parse has failed.
+	 */
+	public boolean isFailed() {
+		return errorCode != null;
+	}
+
+	/**
+	 * Returns code of error, e.g. {@code STLP_0005}, or simple name of class of
+	 * exception which is not {@link STLParserException}, or {@code null} if
+	 * parse hasn't failed.
+	 */
+	public String getErrorCode() {
+		return errorCode;
+	}
+
+	/**
+	 * Returns number of times parser waited for data read ahead, {@code 0} if
+	 * stream was not read ahead.
+	 */
+	public long getReadAheadStalls() {
+		return readAheadStalls;
+	}
+
+	public long getReadAheadStallNanos() {
+		return readAheadStallNanos;
+	}
+
+	/**
+	 * Returns number of times reader thread waited for buffer released by
+	 * parser, {@code 0} if stream was not read ahead.
+	 */
+	public long getReadAheadFullStalls() {
+		return readAheadFullStalls;
+	}
+
+	public long getReadAheadFullNanos() {
+		return readAheadFullNanos;
+	}
+
+	@Override
+	public String toString() {
+		return (new StringBuilder()).append("STLParseMetrics[format=").append(format).append(", bytes=").append(bytes)
+				.append(", facets=").append(facets).append(", totalNanos=").append(totalNanos).append(", ioNanos=")
+				.append(ioNanos).append(", handlerNanos=").append(handlerNanos).append(", errorCode=").append(errorCode)
+				.append(", readAheadStalls=").append(readAheadStalls).append(", readAheadStallNanos=")
+				.append(readAheadStallNanos).append(", readAheadFullStalls=").append(readAheadFullStalls)
+				.append(", readAheadFullNanos=").append(readAheadFullNanos).append("]").toString();
+	}
+}
@@ -0,0 +1,288 @@
+/*
+ * Copyright (c) 2016 Radek Smogura <mail@smogura.eu>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package eu.smogura.stlparser;
+
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+
+/**
+ * Collects metrics of single parse, when instrumentation is enabled.
+ * <p>
+ * Streams are wrapped to count bytes and time of reads, and buffered, so time
+ * is measured once per buffer, not per facet. Handler is wrapped to count
+ * facets, and to time every {@link #SAMPLE_INTERVAL}th facet callback, as
+ * measuring each callback would cost more than decoding facet.
+ * </p>
+ * <p>
+ * {@link STLBatchingHandler} is replaced with batching handler of same batch
+ * size, so parsers still decode facets directly into its buffers, and each
+ * block passed to batch handler is counted and timed.
+ * </p>
+ * 
+ * @author Radek Smogura
+ * @since 1.1.0
+ */
+final class STLParseRecorder {
+
+	/** Interval of facets which callbacks are timed, power of two. */
+	static final int			SAMPLE_INTERVAL	= 64;
+
+	private static final int	BUFFER_LENGTH		= 1 << 16;
+
+	private STLFormat			format;
+
+	private long					bytes;
+
+	private long					facets;
+
+	private long					ioNanos;
+
+	/** Time of callbacks other than facets. */
+	private long					eventNanos;
+
+	private long					sampleNanos;
+
+	/** Time of batch callbacks, each of them is timed. */
+	private long					batchNanos;
+
+	private long					samples;
+
+	/** Read ahead of stream being parsed, or {@code null}. */
+	private STLReadAheadInputStream	readAhead;
+
+	/**
+	 * Runs parse, and notifies listeners about its metrics.
+	 */
+	void record(Runnable parse) {
+		long start = System.nanoTime();
+		String errorCode = null;
+		try {
+			parse.run();
+		} catch (STLParserException e) {
+			errorCode = errorCode(e);
+			throw e;
+		} catch (RuntimeException | Error e) {
+			errorCode = e.getClass().getSimpleName();
+			throw e;
+		} finally {
+			long totalNanos = System.nanoTime() - start;
+			long facetNanos = samples > 0 ? (long) ((double) sampleNanos * facets / samples) : 0;
+			// Estimate can exceed measured time, e.g. if samples were taken before
+			// handler has been compiled
+			long handlerNanos = Math.min(eventNanos + facetNanos + batchNanos, Math.max(0, totalNanos - ioNanos));
+			STLParseMetrics metrics;
+			if (readAhead != null) {
+				// Stalls of reader thread are final when it's stopped
+				readAhead.stop();
+				metrics = new STLParseMetrics(format, bytes, facets, totalNanos, ioNanos, handlerNanos, errorCode,
+						readAhead.getDecoderStalls(), readAhead.getDecoderStallNanos(), readAhead.getReaderStalls(),
+						readAhead.getReaderStallNanos());
+			} else {
+				metrics = new STLParseMetrics(format, bytes, facets, totalNanos, ioNanos, handlerNanos, errorCode, 0, 0, 0, 0);
+			}
+			STLInstrumentation.notify(metrics);
+		}
+	}
+
+	/**
+	 * Runs parse of stream read ahead, recording stalls of read ahead.
+	 * 
+	 * @param readAhead
+	 *          the read ahead of stream, or {@code null} if stream is read inline
+	 */
+	void record(STLReadAheadInputStream readAhead, Runnable parse) {
+		this.readAhead = readAhead;
+		record(parse);
+	}
+
+	/**
+	 * Runs parse of model starting at current position of channel, counting
+	 * bytes by change of position.
+	 */
+	void record(FileChannel channel, Runnable parse) {
+		record(() -> {
+			long start = position(channel);
+			try {
+				parse.run();
+			} finally {
+				bytes = Math.max(0, position(channel) - start);
+			}
+		});
+	}
+
+	private static long position(FileChannel channel) {
+		try {
+			return channel.position();
+		} catch (IOException ioe) {
+			return 0;
+		}
+	}
+
+	/**
+	 * Returns STLP code of exception, or name of its class if message has no
+	 * code.
+	 */
+	static String errorCode(STLParserException e) {
+		String code = e.getCode();
+		return code != null ? code : e.getClass().getSimpleName();
+	}
+
+	/**
+	 * Wraps stream with buffered stream reading from stream measuring reads.
+	 */
+	InputStream wrap(InputStream in) {
+		return new BufferedInputStream(new FilterInputStream(in) {
+
+			@Override
+			public int read() throws IOException {
+				long start = System.nanoTime();
+				int read = super.read();
+				ioNanos += System.nanoTime() - start;
+				if (read != -1)
+					bytes++;
+				return read;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				long start = System.nanoTime();
+				int read = super.read(b, off, len);
+				ioNanos += System.nanoTime() - start;
+				if (read > 0)
+					bytes += read;
+				return read;
+			}
+
+			@Override
+			public long skip(long n) throws IOException {
+				long skipped = super.skip(n);
+				bytes += skipped;
+				return skipped;
+			}
+		}, BUFFER_LENGTH);
+	}
+
+	/**
+	 * Wraps handler with handler counting and sampling callbacks.
+	 */
+	STLParserHandler wrap(STLParserHandler parserHandler) {
+		if (parserHandler instanceof STLBatchingHandler) {
+			STLBatchingHandler batcher = (STLBatchingHandler) parserHandler;
+			return new STLBatchingHandler(new RecordingBatchHandler(batcher.batchHandler), batcher.attributes.length,
+					new RecordingHandler(batcher));
+		}
+		return new RecordingHandler(parserHandler);
+	}
+
+	/**
+	 * The batch handler counting and timing blocks of facets.
+	 */
+	private final class RecordingBatchHandler implements STLBatchHandler {
+
+		private final STLBatchHandler	batchHandler;
+
+		RecordingBatchHandler(STLBatchHandler batchHandler) {
+			this.batchHandler = batchHandler;
+		}
+
+		@Override
+		public void facets(float[] facets, short[] attributes, int count) {
+			STLParseRecorder.this.facets += count;
+			long start = System.nanoTime();
+			batchHandler.facets(facets, attributes, count);
+			batchNanos += System.nanoTime() - start;
+		}
+	}
+
+	/**
+	 * The handler counting and sampling callbacks, passing optional callbacks
+	 * only to handlers accepting them.
+	 */
+	private final class RecordingHandler extends STLFacetAbstractHandler
+			implements STLSizeHintHandler, STLDiagnosticsHandler {
+
+		private final STLParserHandler	parserHandler;
+
+		private final STLFacetHandler		handler;
+
+		RecordingHandler(STLParserHandler parserHandler) {
+			this.parserHandler = parserHandler;
+			this.handler = STLFacetHandlerAdapter.wrap(parserHandler);
+		}
+
+		@Override
+		public void beginAscii(String name) {
+			format = STLFormat.ASCII;
+			long start = System.nanoTime();
+			handler.beginAscii(name);
+			eventNanos += System.nanoTime() - start;
+		}
+
+		@Override
+		public void beginBinary(byte[] header) {
+			format = STLFormat.BINARY;
+			long start = System.nanoTime();
+			handler.beginBinary(header);
+			eventNanos += System.nanoTime() - start;
+		}
+
+		@Override
+		public void numberOfTrinagles(int count) {
+			handler.numberOfTrinagles(count);
+		}
+
+		@Override
+		public void estimatedNumberOfTriangles(int count) {
+			STLAsciiParser.sizeHint(parserHandler, count);
+		}
+
+		@Override
+		public void diagnostics(STLDiagnostics diagnostics) {
+			if (parserHandler instanceof STLDiagnosticsHandler)
+				((STLDiagnosticsHandler) parserHandler).diagnostics(diagnostics);
+		}
+
+		@Override
+		public void facet(float nx, float ny, float nz, float x1, float y1, float z1, float x2, float y2, float z2,
+				float x3, float y3, float z3, short attributes) {
+			if ((facets++ & (SAMPLE_INTERVAL - 1)) != 0) {
+				handler.facet(nx, ny, nz, x1, y1, z1, x2, y2, z2, x3, y3, z3, attributes);
+				return;
+			}
+			long start = System.nanoTime();
+			handler.facet(nx, ny, nz, x1, y1, z1, x2, y2, z2, x3, y3, z3, attributes);
+			sampleNanos += System.nanoTime() - start;
+			samples++;
+		}
+
+		@Override
+		public void endSolid() {
+			long start = System.nanoTime();
+			handler.endSolid();
+			eventNanos += System.nanoTime() - start;
+		}
+	}
+}
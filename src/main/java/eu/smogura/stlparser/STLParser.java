@@ -22,12 +22,19 @@
 
 package eu.smogura.stlparser;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 
 /**
  * The parser interface used to parse streams.
  * <p>
- * Parser is created with {@link }
+ * Parser is created with {@link STLParserFactory}. Parsers are immutable and
+ * safe for concurrent use, single instance can parse many models in many
+ * threads, each with its own handler.
  * </p>
  * <p>
  * This parser is streaming parser, it means that as parser moves forward with
@@ -36,6 +43,12 @@ import java.io.InputStream;
  * {@link STLParserAbstractHandler} or implement {@link STLParser} to get
  * callback notifications when file is parsed.
  * </p>
+ * <p>
+ * Files should be passed with {@link #parse(Path, STLParserHandler)} or
+ * {@link #parse(FileChannel, STLParserHandler)}, as this allows
+ * implementation to map binary models into memory instead of copying every
+ * facet through stream buffers.
+ * </p>
  * 
  * @author Radek Smogura
  * @since 1.0.0
@@ -43,4 +56,41 @@ import java.io.InputStream;
 public interface STLParser {
 
 	void parse(InputStream inputstream, STLParserHandler stlparserhandler) throws STLParserException;
+
+	/**
+	 * Parses model stored in file. Default implementation opens channel and
+	 * passes it to {@link #parse(FileChannel, STLParserHandler)}.
+	 * 
+	 * @param path
+	 *          the path to model file
+	 * @param handler
+	 *          the handler notified about parsed data
+	 * @throws STLParserException
+	 *           if file can't be opened or parsed
+	 * @since 1.1.0
+	 */
+	default void parse(Path path, STLParserHandler handler) throws STLParserException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			parse(channel, handler);
+		} catch (IOException ioe) {
+			throw new STLParserException((new StringBuilder()).append("STLP_0022: Unexpected IO exception while opening ")
+					.append(path).append(".").toString(), ioe);
+		}
+	}
+
+	/**
+	 * Parses model from file channel, starting at channel's current position.
+	 * Default implementation reads channel as a stream.
+	 * 
+	 * @param channel
+	 *          the channel to read model from
+	 * @param handler
+	 *          the handler notified about parsed data
+	 * @throws STLParserException
+	 *           if model can't be parsed
+	 * @since 1.1.0
+	 */
+	default void parse(FileChannel channel, STLParserHandler handler) throws STLParserException {
+		parse(Channels.newInputStream(channel), handler);
+	}
 }
@@ -30,6 +30,8 @@ package eu.smogura.stlparser;
  */
 public class STLParserException extends RuntimeException {
 
+	private static final String	CODE_PREFIX	= "STLP_";
+
 	public STLParserException() {
 	}
 
@@ -44,4 +46,18 @@ public class STLParserException extends RuntimeException {
 	public STLParserException(String message, Throwable cause) {
 		super(message, cause);
 	}
+
+	/**
+	 * Returns code of error, like {@code STLP_0012}, from beginning of message.
+	 * 
+	 * @return the code, or {@code null} if message doesn't start with code
+	 * @since 1.1.0
+	 */
+	public String getCode() {
+		String message = getMessage();
+		if (message == null || !message.startsWith(CODE_PREFIX))
+			return null;
+		int end = message.indexOf(':');
+		return end != -1 ? message.substring(0, end) : null;
+	}
 }
@@ -22,32 +22,549 @@
 
 package eu.smogura.stlparser;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
 /**
  * The factory used to create STL Parsers
+ * <p>
+ * Created parsers map binary files into memory when model is passed as
+ * {@link java.nio.file.Path}, {@link java.nio.channels.FileChannel} or
+ * {@link java.io.FileInputStream}, other streams are read sequentially.
+ * Models compressed with gzip or zlib are decompressed transparently, see
+ * {@link Builder#decompress(boolean)}.
+ * </p>
+ * <p>
+ * Factory with default options is returned by {@link #getInstance()}, factory
+ * with custom options is created with {@link #builder()}. Factories, and
+ * parsers created by them, are immutable and safe for concurrent use, so single
+ * instance can serve many threads.
+ * </p>
  * 
  * @author Radek Smogura
  * @since 1.0.0
  */
 public class STLParserFactory {
 
-	private static STLParserFactory	instance;
+	/**
+	 * Pools of parallel parsers by parallelism, created lazily and shared by
+	 * factories, so factories don't need to be closed.
+	 */
+	private static final Map<Integer, ForkJoinPool>	POOLS	= new ConcurrentHashMap<>();
+
+	private final STLParserOptions									options;
 
-	private STLParserImpl						parser;
+	private final STLParserImpl											parser;
 
-	private STLParserFactory() {
-		parser = new STLParserImpl();
+	private STLParserFactory(STLParserOptions options) {
+		this.options = options;
+		this.parser = new STLParserImpl(options, this::executor);
 	}
 
+	/**
+	 * Returns parser, which can be used concurrently to parse many models.
+	 */
 	public STLParser createParser() {
 		return parser;
 	}
 
+	/**
+	 * Creates parallel parser running tasks in common {@link ForkJoinPool}, or,
+	 * if parallelism is set with {@link Builder#parallelism(int)}, in pool with
+	 * given number of threads, shared by parallel parsers of all factories with
+	 * same parallelism.
+	 * 
+	 * @since 1.1.0
+	 */
+	public STLParallelParser createParallelParser() {
+		return new STLParallelParserImpl(executor(), options);
+	}
+
+	/**
+	 * Creates parallel parser running tasks with given executor.
+	 * 
+	 * @param executor
+	 *          the executor used to parse chunks of model
+	 * @since 1.1.0
+	 */
+	public STLParallelParser createParallelParser(Executor executor) {
+		return new STLParallelParserImpl(executor, options);
+	}
+
+	/**
+	 * Creates parser of single model, which is fed with chunks of model as they
+	 * arrive.
+	 * 
+	 * @param handler
+	 *          the handler notified about parsed model
+	 * @since 1.1.0
+	 */
+	public STLIncrementalParser createIncrementalParser(STLParserHandler handler) {
+		return new STLIncrementalParserImpl(handler, options);
+	}
+
+	/**
+	 * Opens cursor of model stored in file. Cursor closes file when closed.
+	 * 
+	 * @throws STLParserException
+	 *           if file can't be opened, or header of model can't be parsed
+	 * @since 1.1.0
+	 */
+	public STLFacetCursor createCursor(Path path) throws STLParserException {
+		FileChannel channel = open(path, StandardOpenOption.READ);
+		try {
+			STLAbstractFacetCursor cursor = parser.cursor(channel);
+			cursor.setResource(channel);
+			return cursor;
+		} catch (RuntimeException e) {
+			close(channel);
+			throw e;
+		}
+	}
+
+	/**
+	 * Opens cursor of model starting at current position of channel.
+	 * 
+	 * @throws STLParserException
+	 *           if header of model can't be parsed
+	 * @since 1.1.0
+	 */
+	public STLFacetCursor createCursor(FileChannel channel) throws STLParserException {
+		return parser.cursor(channel);
+	}
+
+	/**
+	 * Opens cursor of model read from stream.
+	 * 
+	 * @throws STLParserException
+	 *           if header of model can't be parsed
+	 * @since 1.1.0
+	 */
+	public STLFacetCursor createCursor(InputStream in) throws STLParserException {
+		return parser.cursor(in);
+	}
+
+	/**
+	 * Opens stream of facets of model stored in file. Facets are read lazily, as
+	 * stream is consumed, and are flyweights valid only in call of stream
+	 * operation. Binary models can be processed with parallel streams, each
+	 * thread reading its own part of file.
+	 * <p>
+	 * The stream should be closed, e.g. with try-with-resources, to close file.
+	 * </p>
+	 * 
+	 * @throws STLParserException
+	 *           if file can't be opened, or header of model can't be parsed
+	 * @since 1.1.0
+	 */
+	public Stream<STLFacet> createStream(Path path) throws STLParserException {
+		FileChannel channel = open(path, StandardOpenOption.READ);
+		try {
+			return StreamSupport.stream(parser.spliterator(channel), false).onClose(() -> close(channel));
+		} catch (RuntimeException e) {
+			close(channel);
+			throw e;
+		}
+	}
+
+	/**
+	 * Opens stream of facets of model starting at current position of channel,
+	 * as by {@link #createStream(Path)}. Channel is not closed with stream.
+	 * 
+	 * @throws STLParserException
+	 *           if header of model can't be parsed
+	 * @since 1.1.0
+	 */
+	public Stream<STLFacet> createStream(FileChannel channel) throws STLParserException {
+		return StreamSupport.stream(parser.spliterator(channel), false);
+	}
+
+	/**
+	 * Opens sequential stream of facets of model read from stream.
+	 * 
+	 * @throws STLParserException
+	 *           if header of model can't be parsed
+	 * @since 1.1.0
+	 */
+	public Stream<STLFacet> createStream(InputStream in) throws STLParserException {
+		return StreamSupport.stream(parser.spliterator(in), false);
+	}
+
+	/**
+	 * Creates writer of binary models. Number of triangles is written at the
+	 * end of solid, at position of header if channel is seekable.
+	 * 
+	 * @param channel
+	 *          the channel to which model is written, not closed by writer
+	 * @since 1.1.0
+	 */
+	public STLWriter createBinaryWriter(WritableByteChannel channel) {
+		return new STLBinaryWriter(channel, false);
+	}
+
+	/**
+	 * Creates writer of binary model to file, closed with writer.
+	 * 
+	 * @throws STLParserException
+	 *           if file can't be opened
+	 * @since 1.1.0
+	 */
+	public STLWriter createBinaryWriter(Path path) throws STLParserException {
+		return new STLBinaryWriter(open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING), true);
+	}
+
+	/**
+	 * Creates writer of ASCII models.
+	 * 
+	 * @param channel
+	 *          the channel to which model is written, not closed by writer
+	 * @since 1.1.0
+	 */
+	public STLWriter createAsciiWriter(WritableByteChannel channel) {
+		return new STLAsciiWriter(channel, false);
+	}
+
+	/**
+	 * Creates writer of ASCII model to file, closed with writer.
+	 * 
+	 * @throws STLParserException
+	 *           if file can't be opened
+	 * @since 1.1.0
+	 */
+	public STLWriter createAsciiWriter(Path path) throws STLParserException {
+		return new STLAsciiWriter(open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING), true);
+	}
+
+	/**
+	 * Creates cache of meshes of models, stored in directory, which parses
+	 * models with {@link #createParallelParser()}.
+	 * 
+	 * @param directory
+	 *          the directory of cache, created if needed
+	 * @param maxSize
+	 *          the size of cached meshes, in bytes, above which least recently
+	 *          used meshes are deleted
+	 * @since 1.1.0
+	 */
+	public STLMeshCache createMeshCache(Path directory, long maxSize) {
+		return new STLMeshCache(createParallelParser(), options, directory, maxSize);
+	}
+
+	/**
+	 * Probes model stored in file, reading only its beginning, and end of ASCII
+	 * models.
+	 * 
+	 * @throws STLParserException
+	 *           if file can't be read, or is too short to detect format
+	 * @since 1.1.0
+	 */
+	public STLProbe probe(Path path) throws STLParserException {
+		FileChannel channel = open(path, StandardOpenOption.READ);
+		try {
+			return STLProbe.probe(channel, options);
+		} finally {
+			close(channel);
+		}
+	}
+
+	/**
+	 * Probes model starting at current position of channel. Channel position is
+	 * not changed.
+	 * 
+	 * @throws STLParserException
+	 *           if channel can't be read, or model is too short to detect format
+	 * @since 1.1.0
+	 */
+	public STLProbe probe(FileChannel channel) throws STLParserException {
+		return STLProbe.probe(channel, options);
+	}
+
+	/**
+	 * Validates mesh stored in file with {@link STLMeshValidator}, with
+	 * {@link STLMeshValidator#DEFAULT_NORMAL_TOLERANCE}, validating one shard at
+	 * once, see {@link #validate(Path, int, int)}.
+	 * 
+	 * @since 1.1.0
+	 */
+	public STLMeshValidator validate(Path path, int shards) throws STLParserException {
+		return validate(path, shards, 1);
+	}
+
+	/**
+	 * Validates mesh stored in file with {@link STLMeshValidator}, with
+	 * {@link STLMeshValidator#DEFAULT_NORMAL_TOLERANCE}.
+	 * <p>
+	 * Edges are split into given number of shards, each validated by own parse
+	 * of file. Each shard holds table of its fraction of edges until its parse
+	 * ends, so memory used by edges is about {@code concurrency / shards} of
+	 * memory used by single parse. Running more shards at once validates model
+	 * faster, at cost of memory, and each shard parses whole model, so more
+	 * shards bound memory more tightly at cost of more parses. Shards run by
+	 * executor of parallel parsers of this factory, or on calling thread, if
+	 * single shard runs at once.
+	 * </p>
+	 * 
+	 * @param shards
+	 *          the number of shards, {@code 1} to validate model by single parse
+	 * @param concurrency
+	 *          the maximal number of shards validated at once
+	 * @return the validator with merged results of all shards
+	 * @throws STLParserException
+	 *           if file can't be parsed
+	 * @since 1.1.0
+	 */
+	public STLMeshValidator validate(Path path, int shards, int concurrency) throws STLParserException {
+		if (shards < 1)
+			throw new IllegalArgumentException("Parameter shards should be positive");
+		if (concurrency < 1)
+			throw new IllegalArgumentException("Parameter concurrency should be positive");
+		if (shards == 1) {
+			STLMeshValidator validator = new STLMeshValidator();
+			parser.parse(path, validator);
+			return validator;
+		}
+		if (concurrency == 1) {
+			STLMeshValidator merged = null;
+			for (int i = 0; i < shards; i++) {
+				STLMeshValidator validator = new STLMeshValidator(STLMeshValidator.DEFAULT_NORMAL_TOLERANCE, i, shards);
+				parser.parse(path, validator);
+				merged = merged == null ? validator : merged.merge(validator);
+			}
+			return merged;
+		}
+		// Next shard is started when oldest one is merged, so at most concurrency
+		// shards hold tables
+		ArrayDeque<CompletableFuture<STLMeshValidator>> results = new ArrayDeque<>(concurrency);
+		STLMeshValidator merged = null;
+		try {
+			for (int i = 0; i < shards || !results.isEmpty();) {
+				if (i < shards && results.size() < concurrency) {
+					STLMeshValidator validator = new STLMeshValidator(STLMeshValidator.DEFAULT_NORMAL_TOLERANCE, i++, shards);
+					results.add(CompletableFuture.supplyAsync(() -> {
+						parser.parse(path, validator);
+						return validator;
+					}, executor()));
+					continue;
+				}
+				STLMeshValidator validator = results.poll().join();
+				merged = merged == null ? validator : merged.merge(validator);
+			}
+			return merged;
+		} catch (CompletionException ce) {
+			for (CompletableFuture<STLMeshValidator> result : results)
+				result.cancel(false);
+			if (ce.getCause() instanceof RuntimeException)
+				throw (RuntimeException) ce.getCause();
+			if (ce.getCause() instanceof Error)
+				throw (Error) ce.getCause();
+			throw ce;
+		}
+	}
+
+	/**
+	 * Creates ingestor parsing many models concurrently with
+	 * {@link #createParser()}.
+	 * 
+	 * @param concurrency
+	 *          the maximal number of models parsed at once
+	 * @param maxInFlightBytes
+	 *          the size of models, in bytes, above which new models are not
+	 *          started until models being parsed are finished
+	 * @since 1.1.0
+	 */
+	public STLBulkIngestor createBulkIngestor(int concurrency, long maxInFlightBytes) {
+		if (concurrency < 1)
+			throw new IllegalArgumentException("Parameter concurrency should be positive");
+		if (maxInFlightBytes < 1)
+			throw new IllegalArgumentException("Parameter maxInFlightBytes should be positive");
+		return new STLBulkIngestor(parser, concurrency, maxInFlightBytes);
+	}
+
+	private Executor executor() {
+		if (options.parallelism == 0)
+			return ForkJoinPool.commonPool();
+		// Workers of pools are daemon threads, and exit when pool is idle
+		return POOLS.computeIfAbsent(options.parallelism, ForkJoinPool::new);
+	}
+
+	private static FileChannel open(Path path, OpenOption... options) throws STLParserException {
+		try {
+			return FileChannel.open(path, options);
+		} catch (IOException ioe) {
+			throw new STLParserException((new StringBuilder()).append("STLP_0022: Unexpected IO exception while opening ")
+					.append(path).append(".").toString(), ioe);
+		}
+	}
+
+	private static void close(FileChannel channel) throws STLParserException {
+		try {
+			channel.close();
+		} catch (IOException ioe) {
+			throw new STLParserException("STLP_0028: Unexpected IO exception while closing model.", ioe);
+		}
+	}
+
+	/**
+	 * Returns factory with default options.
+	 */
 	public static STLParserFactory getInstance() {
-		// We don't care here about true singleton instance, as it's unneeded right
-		// now. The probability that there will be few instances is very low,
-		// and currently two implementaion instances doesn't break anything
-		if (instance == null)
-			instance = new STLParserFactory();
-		return instance;
+		return InstanceHolder.INSTANCE;
+	}
+
+	/**
+	 * Creates builder of factory with custom options.
+	 * 
+	 * @since 1.1.0
+	 */
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	/** Holds default instance, initialized by class loader on first use. */
+	private static final class InstanceHolder {
+		static final STLParserFactory INSTANCE = new STLParserFactory(STLParserOptions.DEFAULT);
+	}
+
+	/**
+	 * Builder of {@link STLParserFactory} with custom options. Options not set
+	 * have default values.
+	 * 
+	 * @author Radek Smogura
+	 * @since 1.1.0
+	 */
+	public static final class Builder {
+
+		private int			bufferSize					= STLParserOptions.DEFAULT.bufferSize;
+
+		private boolean	mapped							= STLParserOptions.DEFAULT.mapped;
+
+		private int			parallelism					= STLParserOptions.DEFAULT.parallelism;
+
+		private boolean	lenient							= STLParserOptions.DEFAULT.lenient;
+
+		private Charset	charset							= STLParserOptions.DEFAULT.charset;
+
+		private int			readAheadDepth			= STLParserOptions.DEFAULT.readAheadDepth;
+
+		private int			readAheadBufferSize	= STLParserOptions.DEFAULT.readAheadBufferSize;
+
+		private boolean	decompress					= STLParserOptions.DEFAULT.decompress;
+
+		private Builder() {
+		}
+
+		/**
+		 * Sets size of buffers used to read streams, by default 64KB.
+		 */
+		public Builder bufferSize(int bufferSize) {
+			if (bufferSize < STLParserImpl.PEEK_LENGTH)
+				throw new IllegalArgumentException((new StringBuilder()).append("Parameter bufferSize should be at least ")
+						.append(STLParserImpl.PEEK_LENGTH).toString());
+			this.bufferSize = bufferSize;
+			return this;
+		}
+
+		/**
+		 * Sets if files should be mapped into memory, by default {@code true}.
+		 * Otherwise files are read as streams, like other streams.
+		 */
+		public Builder mapped(boolean mapped) {
+			this.mapped = mapped;
+			return this;
+		}
+
+		/**
+		 * Sets number of threads of parallel parsers, by default {@code 0}, which
+		 * means common {@link ForkJoinPool}. Pool of given number of threads is
+		 * shared by all factories with same parallelism.
+		 */
+		public Builder parallelism(int parallelism) {
+			if (parallelism < 0)
+				throw new IllegalArgumentException("Parameter parallelism should not be negative");
+			this.parallelism = parallelism;
+			return this;
+		}
+
+		/**
+		 * Sets if ASCII models should be parsed with lenient grammar, by default
+		 * {@code false}. Lenient grammar ignores case of keywords, accepts tabs and
+		 * runs of spaces between words, many solids, and models without
+		 * {@code endsolid}. Malformed lines and facets are skipped, and reported to
+		 * handlers implementing {@link STLDiagnosticsHandler}, instead of stopping
+		 * parsing with {@link STLParserException}.
+		 */
+		public Builder lenient(boolean lenient) {
+			this.lenient = lenient;
+			return this;
+		}
+
+		/**
+		 * Sets charset of names of ASCII solids, by default UTF-8.
+		 */
+		public Builder charset(Charset charset) {
+			if (charset == null)
+				throw new IllegalArgumentException("Parameter charset should not be null");
+			this.charset = charset;
+			return this;
+		}
+
+		/**
+		 * Sets read ahead of streams, by default disabled. When enabled, streams
+		 * are read by dedicated thread into ring of buffers, while data read
+		 * before is decoded, which helps when reads are slow, like from network
+		 * file systems. Applies to models parsed from streams, and to files which
+		 * are not mapped. Times in which parsing waits for data, or reading waits
+		 * for free buffer, are reported by {@link STLInstrumentation}.
+		 * 
+		 * @param depth
+		 *          the number of buffers, {@code 0} disables read ahead
+		 * @param bufferSize
+		 *          the size of each buffer, by default 1MB
+		 */
+		public Builder readAhead(int depth, int bufferSize) {
+			if (depth < 0)
+				throw new IllegalArgumentException("Parameter depth should not be negative");
+			if (bufferSize < 1)
+				throw new IllegalArgumentException("Parameter bufferSize should be positive");
+			this.readAheadDepth = depth;
+			this.readAheadBufferSize = bufferSize;
+			return this;
+		}
+
+		/**
+		 * Sets if compressed models should be decompressed, by default
+		 * {@code true}. Models compressed with gzip or zlib are detected by magic
+		 * bytes at their beginning. Gzip models made of blocks recording their
+		 * size, like BGZF, are inflated in parallel, by executor of parallel
+		 * parsers of factory. Other compressed models are inflated sequentially,
+		 * read ahead by dedicated thread. Compressed models can't be parsed by
+		 * {@link STLParallelParser}.
+		 */
+		public Builder decompress(boolean decompress) {
+			this.decompress = decompress;
+			return this;
+		}
+
+		public STLParserFactory build() {
+			return new STLParserFactory(new STLParserOptions(bufferSize, mapped, parallelism, lenient, charset,
+					readAheadDepth, readAheadBufferSize, decompress));
+		}
 	}
 }
@@ -29,6 +29,9 @@ package eu.smogura.stlparser;
  * encoded as 3-elements array {@code {x,y,z}}. This notion allows fast and
  * memory efficient passing of vertices.
  * <p>
+ * Handlers processing large models should implement {@link STLFacetHandler},
+ * which receives each facet as primitive values without allocating arrays.
+ * <p>
  * Unless needed, the caller should use {@link STLParserAbstractHandler} as it
  * provides default functionality.
  * </p>
@@ -54,11 +57,15 @@ public interface STLParserHandler {
 	void beginBinary(byte[] header);
 
 	/**
-	 * Callback method used to notify caller about triangles. This method may not
-	 * be always called (ie. for ASCII models it will not be called).
+	 * Callback method used to notify caller about triangles. Parsers call this
+	 * method for binary models, after {@link #beginBinary(byte[])} and before
+	 * any facets, with number of triangles declared in model. It's not called for
+	 * ASCII models, estimated number of triangles is passed to handlers
+	 * implementing {@link STLSizeHintHandler}.
 	 * 
 	 * @param count
-	 *          number of triangles
+	 *          number of triangles, declared number is unsigned, so numbers
+	 *          above maximal {@code int} are passed as maximal {@code int}
 	 */
 	void numberOfTrinagles(int count);
 
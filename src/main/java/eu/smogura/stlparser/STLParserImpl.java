@@ -22,10 +22,37 @@
 
 package eu.smogura.stlparser;
 
-import java.io.*;
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
 
 /**
  * Implementation of parser
+ * <p>
+ * Format is detected by peeking beginning of model. Models starting with
+ * {@code solid} are ASCII models, unless size of file, or content of header
+ * for streams, shows that it's binary model.
+ * </p>
+ * <p>
+ * Compressed models are detected before format, and parsed from
+ * {@link STLDecompression decompressed} streams.
+ * </p>
+ * <p>
+ * When {@link STLInstrumentation} is enabled, each parse is measured by
+ * {@link STLParseRecorder}.
+ * </p>
+ * <p>
+ * Parser is immutable, state of parse is kept in objects created for each
+ * parse, so single instance can be used concurrently by many threads.
+ * </p>
  * 
  * @author Radek Smogura
  * @since 1.0.0
@@ -33,105 +60,329 @@ import java.io.*;
 class STLParserImpl implements STLParser {
 
 	/** Holds SOLID used to identify is STL is binary or ASCII model. */
-	private static final String	SOLID	= "solid";
+	private static final byte		SOLID_BYTES[]	= STLAsciiParser.SOLID_HEADER.getBytes(StandardCharsets.US_ASCII);
 
-	private STLAsciiParser			asciiParser;
+	/** Number of bytes peeked to detect format, binary header and count. */
+	static final int						PEEK_LENGTH		= STLBinaryParser.BINARY_STL_HEADER_LENGTH
+			+ STLBinaryParser.INTEGER_LENGTH;
 
-	private STLBinaryParser			binaryParser;
+	private final STLParserOptions							options;
+
+	private final STLAsciiParser								asciiParser;
+
+	private final STLBinaryParser								binaryParser;
+
+	/** Supplier of executor inflating blocks of compressed models. */
+	private final Supplier<? extends Executor>	executors;
 
 	public STLParserImpl() {
-		asciiParser = new STLAsciiParser();
+		this(STLParserOptions.DEFAULT, ForkJoinPool::commonPool);
+	}
+
+	STLParserImpl(STLParserOptions options, Supplier<? extends Executor> executors) {
+		this.options = options;
+		this.executors = executors;
+		asciiParser = new STLAsciiParser(options);
 		binaryParser = new STLBinaryParser();
 	}
 
 	@Override
 	public void parse(InputStream inStream, STLParserHandler handler) throws STLParserException {
-		try {
-			ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-			// Clone input stream for reading begin of file, we can't prove how much
-			// bytes will be read from stream by reader (in theory) , so
-			// InputStream.mark can be used. Additionaly, not all streams support
-			// marking.
-			CloneInputStream stIn = new CloneInputStream(inStream, buffer);
-			Reader reader = new InputStreamReader(stIn);
-
-			// Read buffer
-			// TODO Is there Apache Commons method for this?
-			int pos, read;
-			char buff[] = new char[SOLID.length()];
-			for (pos = 0; pos < buff.length && (read = reader.read(buff, pos, buff.length - pos)) != -1; pos += read)
-				;
-			if (pos != buff.length)
-				throw new STLParserException("STLP_0021: Unexpected end of stream while trying to determine STL file format.");
+		FileChannel channel = regularFileChannel(inStream);
+		if (channel != null) {
+			parse(channel, handler);
+			return;
+		}
+		parse(inStream, handler, -1);
+	}
 
-			// Construct sequential stream from read data and rest of stream
-			SequenceInputStream sin = new SequenceInputStream(new ByteArrayInputStream(buffer.toByteArray()), inStream);
-			if ((new String(buff)).startsWith(SOLID)) {
-				asciiParser.parse(sin, handler);
+	/**
+	 * Parses model from stream, decompressing it if it's compressed, and read
+	 * ahead if it's enabled, or if it's inflated sequentially.
+	 * 
+	 * @param size
+	 *          the size of model, or {@code -1} if it's unknown
+	 */
+	private void parse(InputStream inStream, STLParserHandler handler, long size) throws STLParserException {
+		InputStream decompressed = null;
+		int readAheadDepth = options.readAheadDepth;
+		if (options.decompress) {
+			inStream = peekable(inStream);
+			decompressed = STLDecompression.decompress(inStream, options.bufferSize, executors);
+			if (decompressed != null) {
+				inStream = decompressed;
+				size = -1;
+				if (!(decompressed instanceof STLBlockGzipInputStream))
+					readAheadDepth = Math.max(readAheadDepth, STLDecompression.READ_AHEAD_DEPTH);
+			}
+		}
+		STLReadAheadInputStream readAhead = readAheadDepth > 0
+				? new STLReadAheadInputStream(inStream, readAheadDepth, options.readAheadBufferSize) : null;
+		InputStream in = readAhead != null ? readAhead : inStream;
+		long modelSize = size;
+		try {
+			if (STLInstrumentation.isEnabled()) {
+				STLParseRecorder recorder = new STLParseRecorder();
+				recorder.record(readAhead, () -> parseStream(recorder.wrap(in), recorder.wrap(handler), modelSize));
 			} else {
-				binaryParser.parse(sin, handler);
+				parseStream(in, handler, modelSize);
 			}
+		} finally {
+			if (readAhead != null)
+				readAhead.stop();
+			if (decompressed != null)
+				close(decompressed);
+		}
+	}
+
+	/**
+	 * Closes decompressed stream, releasing inflater, without closing stream of
+	 * caller.
+	 */
+	private static void close(InputStream decompressed) {
+		try {
+			decompressed.close();
 		} catch (IOException ioe) {
-			throw new STLParserException("STLP_0020: Unexpected IO exception while trying to determine STL file format.",
-					ioe);
+			// Underlying stream is not closed, nothing is lost
+		}
+	}
+
+	private void parseStream(InputStream inStream, STLParserHandler handler, long size) throws STLParserException {
+		InputStream in = peekable(inStream);
+		if (isAscii(in, size)) {
+			asciiParser.parse(in, handler, size);
+		} else {
+			binaryParser.parse(in, handler);
 		}
 	}
 
 	/**
-	 * This stream writes all read data to provided {@link OutputStream}.
-	 * 
+	 * Returns stream which beginning can be peeked by {@link #isAscii(InputStream)}.
 	 */
-	private class CloneInputStream extends FilterInputStream {
+	private InputStream peekable(InputStream inStream) {
+		return inStream.markSupported() ? inStream : new BufferedInputStream(inStream, options.bufferSize);
+	}
 
-		/** Holds output stream */
-		private OutputStream outputStream;
+	/**
+	 * Checks if model read from stream returned by {@link #peekable(InputStream)}
+	 * is ASCII model. Peeked bytes are read again from stream.
+	 * 
+	 * @param size
+	 *          the size of model, or {@code -1} if it's unknown
+	 */
+	private boolean isAscii(InputStream in, long size) throws STLParserException {
+		try {
+			byte peek[] = new byte[PEEK_LENGTH];
+			in.mark(PEEK_LENGTH);
+			int length = readFully(in, peek);
+			in.reset();
+			return isAscii(peek, length, size, options.lenient);
+		} catch (IOException ioe) {
+			throw new STLParserException("STLP_0020: Unexpected IO exception while trying to determine STL file format.",
+					ioe);
+		}
+	}
 
-		public CloneInputStream(final InputStream in, final OutputStream outputStream) {
-			super(in);
-			setOutputStream(outputStream);
+	/**
+	 * Returns channel of stream of regular file, or {@code null} for other
+	 * streams, and if files should not be mapped.
+	 */
+	private FileChannel regularFileChannel(InputStream inStream) {
+		if (options.mapped && inStream instanceof FileInputStream) {
+			// Regular files can be mapped, pipes and devices have to be streamed
+			FileChannel channel = ((FileInputStream) inStream).getChannel();
+			try {
+				if (channel.size() > channel.position())
+					return channel;
+			} catch (IOException ioe) {
+				// Not a regular file, fall back to stream
+			}
 		}
+		return null;
+	}
 
-		@Override
-		public int read() throws IOException {
-			int result = super.read();
-			if (result != -1)
-				outputStream.write(result);
-			return result;
+	/**
+	 * Returns size of model starting at current position of channel, or
+	 * {@code -1} if it can't be determined.
+	 */
+	private static long remaining(FileChannel channel) {
+		try {
+			return channel.size() - channel.position();
+		} catch (IOException ioe) {
+			return -1;
 		}
+	}
+
+	static int readFully(InputStream in, byte buffer[]) throws IOException {
+		return readFully(in, buffer, 0, buffer.length);
+	}
 
-		@Override
-		public int read(byte b[]) throws IOException {
-			return read(b, 0, b.length);
+	/**
+	 * Reads bytes until {@code length} bytes are read, or end of stream.
+	 * 
+	 * @return the number of read bytes
+	 */
+	static int readFully(InputStream in, byte buffer[], int offset, int length) throws IOException {
+		int pos, read;
+		for (pos = 0; pos < length && (read = in.read(buffer, offset + pos, length - pos)) != -1; pos += read)
+			;
+		return pos;
+	}
+
+	@Override
+	public void parse(FileChannel channel, STLParserHandler handler) throws STLParserException {
+		if (!options.mapped || isCompressed(channel)) {
+			parse(Channels.newInputStream(channel), handler, remaining(channel));
+			return;
 		}
+		if (STLInstrumentation.isEnabled()) {
+			STLParseRecorder recorder = new STLParseRecorder();
+			recorder.record(channel, () -> parseChannel(channel, recorder.wrap(handler), recorder));
+		} else {
+			parseChannel(channel, handler, null);
+		}
+	}
 
-		@Override
-		public int read(byte b[], int off, int len) throws IOException {
-			int result = super.read(b, off, len);
-			if (result != -1)
-				outputStream.write(b, off, result);
-			return result;
+	/**
+	 * @param recorder
+	 *          the recorder measuring reads of ASCII models, or {@code null}
+	 */
+	private void parseChannel(FileChannel channel, STLParserHandler handler, STLParseRecorder recorder)
+			throws STLParserException {
+		if (isAscii(channel, options.lenient)) {
+			InputStream in = Channels.newInputStream(channel);
+			asciiParser.parse(recorder != null ? recorder.wrap(in) : in, handler, remaining(channel));
+		} else {
+			binaryParser.parse(channel, handler);
 		}
+	}
 
-		/**
-		 * Returns output stream used to store read data.
-		 * 
-		 * @return output stream used to store read data.
-		 */
-		public OutputStream getOutputStream() {
-			return outputStream;
+	/**
+	 * Opens cursor of model read from stream. Regular files are mapped, as by
+	 * {@link #parse(InputStream, STLParserHandler)}.
+	 */
+	STLAbstractFacetCursor cursor(InputStream inStream) throws STLParserException {
+		FileChannel channel = regularFileChannel(inStream);
+		if (channel != null)
+			return cursor(channel);
+		InputStream in = peekable(inStream);
+		if (options.decompress) {
+			// Cursor is read on demand, so model is inflated sequentially, by reads
+			InputStream decompressed = STLDecompression.decompress(in, options.bufferSize, null);
+			if (decompressed != null)
+				in = peekable(decompressed);
 		}
+		return isAscii(in, -1) ? asciiParser.cursor(in) : binaryParser.cursor(in);
+	}
+
+	/**
+	 * Opens cursor of model starting at current position of channel.
+	 */
+	STLAbstractFacetCursor cursor(FileChannel channel) throws STLParserException {
+		if (!options.mapped || isCompressed(channel))
+			return cursor(Channels.newInputStream(channel));
+		if (isAscii(channel, options.lenient))
+			return asciiParser.cursor(Channels.newInputStream(channel));
+		return binaryParser.spliterator(channel).cursor();
+	}
 
-		/**
-		 * Sets output stream used to store read data.
-		 * 
-		 * @param outputStream
-		 *          the new output stream used to store data
-		 */
-		public void setOutputStream(OutputStream outputStream) {
-			if (outputStream == null)
-				throw new IllegalArgumentException("Parameter output stream should not be null");
-			this.outputStream = outputStream;
+	/**
+	 * Opens spliterator of facets of model starting at current position of
+	 * channel, splittable for binary models.
+	 */
+	STLFacetSpliterator spliterator(FileChannel channel) throws STLParserException {
+		if (!options.mapped || isCompressed(channel))
+			return spliterator(Channels.newInputStream(channel));
+		if (isAscii(channel, options.lenient))
+			return new STLFacetSpliterator(asciiParser.cursor(Channels.newInputStream(channel)));
+		return binaryParser.spliterator(channel);
+	}
+
+	/**
+	 * Opens spliterator of facets of model read from stream.
+	 */
+	STLFacetSpliterator spliterator(InputStream inStream) throws STLParserException {
+		FileChannel channel = regularFileChannel(inStream);
+		if (channel != null)
+			return spliterator(channel);
+		return new STLFacetSpliterator(cursor(inStream));
+	}
+
+	/**
+	 * Checks if model starting at current position of channel is compressed,
+	 * and should be decompressed.
+	 */
+	private boolean isCompressed(FileChannel channel) throws STLParserException {
+		return options.decompress && STLDecompression.isCompressed(channel);
+	}
+
+	/**
+	 * Checks if model starting at current position of channel is ASCII model.
+	 * Channel position is not changed.
+	 * 
+	 * @param lenient
+	 *          if {@code solid} keyword is matched as by lenient grammar
+	 */
+	static boolean isAscii(FileChannel channel, boolean lenient) throws STLParserException {
+		ByteBuffer buff = ByteBuffer.allocate(PEEK_LENGTH);
+		long size;
+		try {
+			long position = channel.position();
+			size = channel.size() - position;
+			while (buff.hasRemaining() && channel.read(buff, position + buff.position()) != -1)
+				;
+		} catch (IOException ioe) {
+			throw new STLParserException("STLP_0020: Unexpected IO exception while trying to determine STL file format.",
+					ioe);
 		}
+		return isAscii(buff.array(), buff.position(), size, lenient);
+	}
 
+	/**
+	 * Checks if model is ASCII model, by its beginning.
+	 * <p>
+	 * Some exporters write {@code solid} at the beginning of header of binary
+	 * models, so model starting with {@code solid} is treated as binary if size
+	 * of model matches number of triangles from binary header, or, when size is
+	 * unknown, if header contains bytes not present in text.
+	 * </p>
+	 * 
+	 * @param peek
+	 *          the beginning of model, up to {@link #PEEK_LENGTH} bytes
+	 * @param size
+	 *          the size of model, or {@code -1} if unknown
+	 * @param lenient
+	 *          if {@code solid} keyword may be preceded by white spaces, and
+	 *          written in any case
+	 */
+	static boolean isAscii(byte peek[], int length, long size, boolean lenient) throws STLParserException {
+		if (length < SOLID_BYTES.length)
+			throw new STLParserException("STLP_0021: Unexpected end of stream while trying to determine STL file format.");
+		int start = 0;
+		if (lenient) {
+			while (start < length && (peek[start] & 0xff) <= ' ')
+				start++;
+			if (length - start < SOLID_BYTES.length)
+				return false;
+		}
+		for (int i = 0; i < SOLID_BYTES.length; i++) {
+			if ((lenient ? peek[start + i] | 0x20 : peek[i]) != SOLID_BYTES[i])
+				return false;
+		}
+		if (length == PEEK_LENGTH) {
+			if (size != -1) {
+				long triangles = (peek[80] & 0xff) | (peek[81] & 0xff) << 8 | (peek[82] & 0xff) << 16
+						| (peek[83] & 0xffL) << 24;
+				if (size == PEEK_LENGTH + triangles * STLBinaryParser.FACET_LENGTH)
+					return false;
+			} else {
+				for (int i = 0; i < length; i++) {
+					int b = peek[i] & 0xff;
+					if (b < ' ' && b != '\t' && b != '\n' && b != '\r' && b != '\f')
+						return false;
+				}
+			}
+		}
+		return true;
 	}
 }
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2016 Radek Smogura <mail@smogura.eu>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package eu.smogura.stlparser;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Immutable options of parsers, set with {@link STLParserFactory.Builder}.
+ * 
+ * @author Radek Smogura
+ * @since 1.1.0
+ */
+final class STLParserOptions {
+
+	static final int								DEFAULT_BUFFER_SIZE						= 1 << 16;
+
+	static final int								DEFAULT_READ_AHEAD_BUFFER_SIZE	= 1 << 20;
+
+	static final STLParserOptions		DEFAULT												= new STLParserOptions(DEFAULT_BUFFER_SIZE, true, 0,
+			false, StandardCharsets.UTF_8, 0, DEFAULT_READ_AHEAD_BUFFER_SIZE, true);
+
+	/** Size of buffers used to read streams. */
+	final int												bufferSize;
+
+	/** If files should be mapped into memory, instead of read as streams. */
+	final boolean										mapped;
+
+	/** Number of threads of parallel parsers, {@code 0} for common pool. */
+	final int												parallelism;
+
+	/** If ASCII models should be parsed with lenient grammar. */
+	final boolean										lenient;
+
+	/** Charset of names of ASCII solids. */
+	final Charset										charset;
+
+	/** Number of buffers streams are read ahead into, {@code 0} to read inline. */
+	final int												readAheadDepth;
+
+	/** Size of each buffer of read ahead. */
+	final int												readAheadBufferSize;
+
+	/** If compressed models should be detected and decompressed. */
+	final boolean										decompress;
+
+	STLParserOptions(int bufferSize, boolean mapped, int parallelism, boolean lenient, Charset charset,
+			int readAheadDepth, int readAheadBufferSize, boolean decompress) {
+		this.bufferSize = bufferSize;
+		this.mapped = mapped;
+		this.parallelism = parallelism;
+		this.lenient = lenient;
+		this.charset = charset;
+		this.readAheadDepth = readAheadDepth;
+		this.readAheadBufferSize = readAheadBufferSize;
+		this.decompress = decompress;
+	}
+}
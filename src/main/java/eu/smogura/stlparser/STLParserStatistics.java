@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2016 Radek Smogura <mail@smogura.eu>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package eu.smogura.stlparser;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The listener aggregating metrics of all parses, exposed as MBean by
+ * {@link STLInstrumentation#registerMBean()}.
+ * 
+ * @author Radek Smogura
+ * @since 1.1.0
+ */
+public class STLParserStatistics implements STLParserStatisticsMXBean, STLParseListener {
+
+	private final LongAdder														parses				= new LongAdder();
+
+	private final LongAdder														failures			= new LongAdder();
+
+	private final LongAdder														asciiParses		= new LongAdder();
+
+	private final LongAdder														binaryParses	= new LongAdder();
+
+	private final LongAdder														bytes					= new LongAdder();
+
+	private final LongAdder														facets				= new LongAdder();
+
+	private final LongAdder														totalNanos		= new LongAdder();
+
+	private final LongAdder														ioNanos				= new LongAdder();
+
+	private final LongAdder														decodeNanos		= new LongAdder();
+
+	private final LongAdder														handlerNanos	= new LongAdder();
+
+	private final LongAdder														readAheadStalls	= new LongAdder();
+
+	private final LongAdder														readAheadStallNanos	= new LongAdder();
+
+	private final LongAdder														readAheadFullStalls	= new LongAdder();
+
+	private final LongAdder														readAheadFullNanos	= new LongAdder();
+
+	private final ConcurrentHashMap<String, LongAdder>	errors				= new ConcurrentHashMap<>();
+
+	public STLParserStatistics() {
+	}
+
+	@Override
+	public void parseFinished(STLParseMetrics metrics) {
+		parses.increment();
+		if (metrics.getFormat() == STLFormat.ASCII)
+			asciiParses.increment();
+		else if (metrics.getFormat() == STLFormat.BINARY)
+			binaryParses.increment();
+		bytes.add(metrics.getBytes());
+		facets.add(metrics.getFacets());
+		totalNanos.add(metrics.getTotalNanos());
+		ioNanos.add(metrics.getIoNanos());
+		decodeNanos.add(metrics.getDecodeNanos());
+		handlerNanos.add(metrics.getHandlerNanos());
+		readAheadStalls.add(metrics.getReadAheadStalls());
+		readAheadStallNanos.add(metrics.getReadAheadStallNanos());
+		readAheadFullStalls.add(metrics.getReadAheadFullStalls());
+		readAheadFullNanos.add(metrics.getReadAheadFullNanos());
+		if (metrics.isFailed()) {
+			failures.increment();
+			errors.computeIfAbsent(metrics.getErrorCode(), code -> new LongAdder()).increment();
+		}
+	}
+
+	@Override
+	public long getParseCount() {
+		return parses.sum();
+	}
+
+	@Override
+	public long getFailureCount() {
+		return failures.sum();
+	}
+
+	@Override
+	public long getAsciiParseCount() {
+		return asciiParses.sum();
+	}
+
+	@Override
+	public long getBinaryParseCount() {
+		return binaryParses.sum();
+	}
+
+	@Override
+	public long getBytesRead() {
+		return bytes.sum();
+	}
+
+	@Override
+	public long getFacetCount() {
+		return facets.sum();
+	}
+
+	@Override
+	public long getTotalTimeMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(totalNanos.sum());
+	}
+
+	@Override
+	public long getIoTimeMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(ioNanos.sum());
+	}
+
+	@Override
+	public long getDecodeTimeMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(decodeNanos.sum());
+	}
+
+	@Override
+	public long getHandlerTimeMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(handlerNanos.sum());
+	}
+
+	@Override
+	public long getReadAheadStalls() {
+		return readAheadStalls.sum();
+	}
+
+	@Override
+	public long getReadAheadStallTimeMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(readAheadStallNanos.sum());
+	}
+
+	@Override
+	public long getReadAheadFullStalls() {
+		return readAheadFullStalls.sum();
+	}
+
+	@Override
+	public long getReadAheadFullTimeMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(readAheadFullNanos.sum());
+	}
+
+	@Override
+	public double getFacetsPerSecond() {
+		long nanos = totalNanos.sum();
+		return nanos > 0 ? facets.sum() * 1e9 / nanos : 0;
+	}
+
+	@Override
+	public Map<String, Long> getErrorCounts() {
+		Map<String, Long> counts = new TreeMap<>();
+		errors.forEach((code, count) -> counts.put(code, count.sum()));
+		return counts;
+	}
+
+	@Override
+	public void reset() {
+		parses.reset();
+		failures.reset();
+		asciiParses.reset();
+		binaryParses.reset();
+		bytes.reset();
+		facets.reset();
+		totalNanos.reset();
+		ioNanos.reset();
+		decodeNanos.reset();
+		handlerNanos.reset();
+		readAheadStalls.reset();
+		readAheadStallNanos.reset();
+		readAheadFullStalls.reset();
+		readAheadFullNanos.reset();
+		errors.clear();
+	}
+}
@@ -0,0 +1,362 @@
+/*
+ * Copyright (c) 2016 Radek Smogura <mail@smogura.eu>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package eu.smogura.stlparser;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * The summary of model read from its beginning, without parsing facets.
+ * <p>
+ * Probe reads header and first {@value #HEAD_LENGTH} bytes of model, and last
+ * {@value #TAIL_LENGTH} bytes of ASCII models. Number of facets of binary
+ * models is declared in header, number of facets of larger ASCII models is
+ * estimated from average length of facets read. Attributes convention of
+ * binary models is detected from header and attributes of facets read.
+ * </p>
+ * <p>
+ * Problems visible without parsing are reported as {@link Issue}. Model is not
+ * validated further, so model without issues can still fail to parse.
+ * </p>
+ * <p>
+ * Probe is created with {@link STLParserFactory#probe(java.nio.file.Path)}.
+ * </p>
+ * 
+ * @author Radek Smogura
+ * @since 1.1.0
+ */
+public final class STLProbe {
+
+	/** Number of bytes read from the beginning of model. */
+	public static final int								HEAD_LENGTH			= STLAsciiParser.SAMPLE_LENGTH;
+
+	/** Number of bytes read from the end of ASCII model. */
+	public static final int								TAIL_LENGTH			= 1024;
+
+	/** Marker of default color in header of Materialise Magics models. */
+	private static final byte							COLOR_BYTES[]		= "COLOR=".getBytes(StandardCharsets.US_ASCII);
+
+	/** Bit of attributes marking color of VisCAM, and default color of Magics. */
+	private static final int							COLOR_BIT				= 0x8000;
+
+	/**
+	 * Convention of 16 bit attributes of facets of binary models.
+	 * 
+	 * @since 1.1.0
+	 */
+	public enum AttributeConvention {
+
+		/** Attributes are zero, or model is ASCII model. */
+		NONE,
+
+		/**
+		 * Colors of VisCAM and SolidView, 5 bits of blue, green and red from lowest
+		 * bits, with highest bit set for facets having color.
+		 */
+		VISCAM,
+
+		/**
+		 * Colors of Materialise Magics, with default color declared by
+		 * {@code COLOR=} in header, and 5 bits of red, green and blue from lowest
+		 * bits, with highest bit cleared for facets having own color.
+		 */
+		MAGICS,
+
+		/** Attributes are set, but don't follow known convention. */
+		UNKNOWN
+	}
+
+	/**
+	 * Problem of model visible without parsing it.
+	 * 
+	 * @since 1.1.0
+	 */
+	public enum Issue {
+
+		/** Binary model is shorter than declared number of facets requires. */
+		TRUNCATED,
+
+		/** Binary model is longer than declared number of facets requires. */
+		TRAILING_DATA,
+
+		/**
+		 * Header of binary model starts with {@code solid}, like ASCII models, so
+		 * model can be misdetected by other readers.
+		 */
+		SOLID_HEADER,
+
+		/** Last line of ASCII model is not {@code endsolid}. */
+		MISSING_END_SOLID,
+
+		/** Model has no facets. */
+		EMPTY
+	}
+
+	private final STLFormat								format;
+
+	private final String									name;
+
+	private final byte										header[];
+
+	private final long										size;
+
+	private final long										facetCount;
+
+	private final boolean									facetCountExact;
+
+	private final AttributeConvention			attributeConvention;
+
+	private final Set<Issue>							issues;
+
+	private STLProbe(STLFormat format, String name, byte header[], long size, long facetCount, boolean facetCountExact,
+			AttributeConvention attributeConvention, Set<Issue> issues) {
+		this.format = format;
+		this.name = name;
+		this.header = header;
+		this.size = size;
+		this.facetCount = facetCount;
+		this.facetCountExact = facetCountExact;
+		this.attributeConvention = attributeConvention;
+		this.issues = Collections.unmodifiableSet(issues);
+	}
+
+	/**
+	 * Probes model starting at current position of channel. Channel position is
+	 * not changed.
+	 */
+	static STLProbe probe(FileChannel channel, STLParserOptions options) throws STLParserException {
+		long start;
+		long size;
+		ByteBuffer head;
+		try {
+			start = channel.position();
+			size = channel.size() - start;
+			head = read(channel, start, (int) Math.min(HEAD_LENGTH, size));
+		} catch (IOException ioe) {
+			throw new STLParserException("STLP_0044: Unexpected IO exception while probing model.", ioe);
+		}
+		byte data[] = head.array();
+		int length = head.position();
+		if (STLParserImpl.isAscii(data, Math.min(length, STLParserImpl.PEEK_LENGTH), size, options.lenient))
+			return probeAscii(channel, start, size, data, length, options);
+		return probeBinary(size, data, length);
+	}
+
+	private static STLProbe probeAscii(FileChannel channel, long start, long size, byte data[], int length,
+			STLParserOptions options) throws STLParserException {
+		STLAsciiParser parser = new STLAsciiParser(options);
+		STLAsciiReader reader = new STLAsciiReader(new ByteArrayInputStream(data, 0, length), () -> 0, length);
+		String name = parser.readHeader(reader);
+		byte sample[] = new byte[length];
+		int sampleLength = reader.peek(sample);
+		long bodySize = size - (length - sampleLength);
+		long facetCount = STLAsciiParser.estimateFacets(sample, sampleLength, bodySize);
+
+		Set<Issue> issues = EnumSet.noneOf(Issue.class);
+		byte tail[];
+		int tailLength;
+		if (size <= length) {
+			tail = data;
+			tailLength = length;
+		} else {
+			try {
+				int tailSize = (int) Math.min(TAIL_LENGTH, size);
+				tail = read(channel, start + size - tailSize, tailSize).array();
+				tailLength = tailSize;
+			} catch (IOException ioe) {
+				throw new STLParserException("STLP_0044: Unexpected IO exception while probing model.", ioe);
+			}
+		}
+		if (!endsWithEndSolid(tail, tailLength, options.lenient))
+			issues.add(Issue.MISSING_END_SOLID);
+		if (facetCount == 0)
+			issues.add(Issue.EMPTY);
+		return new STLProbe(STLFormat.ASCII, name, null, size, facetCount, bodySize <= sampleLength,
+				AttributeConvention.NONE, issues);
+	}
+
+	/**
+	 * Checks if last non empty line of data is {@code endsolid} line.
+	 */
+	private static boolean endsWithEndSolid(byte data[], int length, boolean lenient) throws STLParserException {
+		STLAsciiReader reader = new STLAsciiReader(new ByteArrayInputStream(data, 0, length), () -> 0, length);
+		boolean endSolid = false;
+		try {
+			while (reader.readLine()) {
+				if (!reader.isEmpty())
+					endSolid = lenient ? reader.match(STLAsciiParser.END_SOLID_BYTES) != -1
+							: reader.startsWith(STLAsciiParser.END_SOLID_BYTES);
+			}
+		} catch (IOException ioe) {
+			// Data is read from memory
+			throw new IllegalStateException(ioe);
+		}
+		return endSolid;
+	}
+
+	private static STLProbe probeBinary(long size, byte data[], int length) {
+		Set<Issue> issues = EnumSet.noneOf(Issue.class);
+		byte header[] = new byte[Math.min(length, STLBinaryParser.BINARY_STL_HEADER_LENGTH)];
+		System.arraycopy(data, 0, header, 0, header.length);
+		if (startsWith(header, header.length, STLAsciiParser.SOLID_BYTES))
+			issues.add(Issue.SOLID_HEADER);
+		if (length < STLParserImpl.PEEK_LENGTH) {
+			issues.add(Issue.TRUNCATED);
+			return new STLProbe(STLFormat.BINARY, null, header, size, -1, false, AttributeConvention.NONE, issues);
+		}
+
+		ByteBuffer buffer = ByteBuffer.wrap(data, 0, length).order(ByteOrder.LITTLE_ENDIAN);
+		long facetCount = buffer.getInt(STLBinaryParser.BINARY_STL_HEADER_LENGTH) & STLBinaryWriter.MAX_FACETS;
+		long expectedSize = STLParserImpl.PEEK_LENGTH + facetCount * STLBinaryParser.FACET_LENGTH;
+		if (size < expectedSize)
+			issues.add(Issue.TRUNCATED);
+		else if (size > expectedSize)
+			issues.add(Issue.TRAILING_DATA);
+		if (facetCount == 0)
+			issues.add(Issue.EMPTY);
+
+		boolean colored = false;
+		boolean uncolored = false;
+		long sampled = Math.min(facetCount, (length - STLParserImpl.PEEK_LENGTH) / STLBinaryParser.FACET_LENGTH);
+		for (int f = 0; f < sampled; f++) {
+			int attributes = buffer.getShort(STLParserImpl.PEEK_LENGTH + f * STLBinaryParser.FACET_LENGTH
+					+ STLBinaryParser.FACET_LENGTH - 2) & 0xffff;
+			if ((attributes & COLOR_BIT) != 0)
+				colored = true;
+			else if (attributes != 0)
+				uncolored = true;
+		}
+		AttributeConvention convention;
+		if (indexOf(header, COLOR_BYTES) != -1)
+			convention = AttributeConvention.MAGICS;
+		else if (uncolored)
+			convention = AttributeConvention.UNKNOWN;
+		else if (colored)
+			convention = AttributeConvention.VISCAM;
+		else
+			convention = AttributeConvention.NONE;
+		return new STLProbe(STLFormat.BINARY, null, header, size, facetCount, true, convention, issues);
+	}
+
+	private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while (buffer.hasRemaining() && channel.read(buffer, position + buffer.position()) != -1)
+			;
+		return buffer;
+	}
+
+	private static boolean startsWith(byte data[], int length, byte prefix[]) {
+		if (length < prefix.length)
+			return false;
+		for (int i = 0; i < prefix.length; i++) {
+			if (data[i] != prefix[i])
+				return false;
+		}
+		return true;
+	}
+
+	private static int indexOf(byte data[], byte pattern[]) {
+		for (int i = 0; i <= data.length - pattern.length; i++) {
+			int k = 0;
+			while (k < pattern.length && data[i + k] == pattern[k])
+				k++;
+			if (k == pattern.length)
+				return i;
+		}
+		return -1;
+	}
+
+	public STLFormat getFormat() {
+		return format;
+	}
+
+	/**
+	 * Returns name of solid of ASCII model, or {@code null} for binary models.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns header of binary model, typically 80 bytes long, or {@code null}
+	 * for ASCII models.
+	 */
+	public byte[] getHeader() {
+		return header == null ? null : header.clone();
+	}
+
+	/**
+	 * Returns size of model, in bytes.
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * Returns number of facets, declared by binary model, or estimated for ASCII
+	 * model, or {@code -1} if header of binary model is truncated.
+	 */
+	public long getFacetCount() {
+		return facetCount;
+	}
+
+	/**
+	 * Checks if number of facets is declared by binary model, or counted in
+	 * whole ASCII model, rather than estimated.
+	 */
+	public boolean isFacetCountExact() {
+		return facetCountExact;
+	}
+
+	public AttributeConvention getAttributeConvention() {
+		return attributeConvention;
+	}
+
+	/**
+	 * Returns problems of model visible without parsing it.
+	 */
+	public Set<Issue> getIssues() {
+		return issues;
+	}
+
+	/**
+	 * Checks if no problems were found.
+	 */
+	public boolean isConsistent() {
+		return issues.isEmpty();
+	}
+
+	@Override
+	public String toString() {
+		return (new StringBuilder()).append("STLProbe[format=").append(format).append(", size=").append(size)
+				.append(", facets=").append(facetCountExact ? "" : "~").append(facetCount).append(", attributes=")
+				.append(attributeConvention).append(", issues=").append(issues).append("]").toString();
+	}
+}
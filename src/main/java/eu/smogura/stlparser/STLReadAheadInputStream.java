@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 2016 Radek Smogura <mail@smogura.eu>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package eu.smogura.stlparser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+
+/**
+ * The stream reading data of other stream ahead, on reader thread, so reads
+ * overlap with decoding.
+ * <p>
+ * Reader thread fills {@link STLSpscRing} of reusable buffers, and decoding
+ * thread takes filled buffers from ring, and releases them when they are
+ * consumed. Times in which decoding thread waits for data, and reader thread
+ * waits for free buffer, are counted as stalls. Stream is read by single
+ * decoding thread. Reader threads are daemon threads of pool shared by all
+ * streams, so parsing many models doesn't start thread for each of them.
+ * </p>
+ * <p>
+ * Reader fills whole buffers, so it reads underlying stream past end of model,
+ * up to number of buffers of ring, and data following model in underlying
+ * stream is consumed even if parser doesn't use it.
+ * </p>
+ * 
+ * @author Radek Smogura
+ * @since 1.1.0
+ */
+final class STLReadAheadInputStream extends InputStream {
+
+	/** Pool of reader threads, idle threads exit after a while. */
+	private static final ExecutorService	READERS	= Executors.newCachedThreadPool(runnable -> {
+		Thread thread = new Thread(runnable, "stl-read-ahead");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final InputStream							in;
+
+	private final STLSpscRing<Buffer>			ring;
+
+	private final FutureTask<Void>				reader;
+
+	private volatile Throwable						failure;
+
+	// State of decoding thread
+
+	private byte													current[];
+
+	private int														position;
+
+	private int														limit;
+
+	/**
+	 * Starts reading on reader thread.
+	 * 
+	 * @param depth
+	 *          the number of buffers of ring
+	 * @param bufferSize
+	 *          the size of each buffer
+	 */
+	STLReadAheadInputStream(InputStream in, int depth, int bufferSize) {
+		this.in = in;
+		this.ring = new STLSpscRing<>(depth, () -> new Buffer(bufferSize));
+		this.reader = new FutureTask<>(this::fill, null);
+		READERS.execute(reader);
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (position == limit && !next())
+			return -1;
+		return current[position++] & 0xff;
+	}
+
+	@Override
+	public int read(byte b[], int off, int len) throws IOException {
+		if (len == 0)
+			return 0;
+		if (position == limit && !next())
+			return -1;
+		int length = Math.min(len, limit - position);
+		System.arraycopy(current, position, b, off, length);
+		position += length;
+		return length;
+	}
+
+	@Override
+	public int available() {
+		return limit - position;
+	}
+
+	/**
+	 * Stops reader thread, without closing underlying stream.
+	 */
+	@Override
+	public void close() {
+		stop();
+	}
+
+	/**
+	 * Stops reader thread, and waits until it finishes read in progress, so
+	 * underlying stream is not used after this call. Idempotent.
+	 */
+	void stop() {
+		ring.cancel();
+		boolean interrupted = false;
+		while (!reader.isDone()) {
+			try {
+				reader.get();
+			} catch (InterruptedException ie) {
+				interrupted = true;
+			} catch (ExecutionException ee) {
+				// Failures are kept by reader
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	/**
+	 * Releases current buffer, and takes next filled one.
+	 * 
+	 * @return {@code false} at end of stream
+	 */
+	private boolean next() throws IOException {
+		if (current != null) {
+			current = null;
+			ring.release();
+		}
+		Buffer buffer = ring.take();
+		if (buffer == null) {
+			Throwable t = failure;
+			if (t != null)
+				throw new IOException("Read ahead failed: " + t.getMessage(), t);
+			return false;
+		}
+		current = buffer.data;
+		position = 0;
+		limit = buffer.length;
+		return true;
+	}
+
+	/**
+	 * Body of reader task.
+	 */
+	private void fill() {
+		try {
+			for (Buffer buffer; (buffer = ring.claim()) != null;) {
+				byte data[] = buffer.data;
+				int length = 0;
+				int read = 0;
+				while (length < data.length && !ring.isCancelled()
+						&& (read = in.read(data, length, data.length - length)) != -1)
+					length += read;
+				if (length > 0) {
+					buffer.length = length;
+					ring.publish();
+				}
+				if (read == -1)
+					break;
+			}
+		} catch (Throwable t) {
+			failure = t;
+		} finally {
+			ring.close();
+		}
+	}
+
+	/**
+	 * Returns number of times decoding thread waited for data.
+	 */
+	long getDecoderStalls() {
+		return ring.getConsumerStalls();
+	}
+
+	long getDecoderStallNanos() {
+		return ring.getConsumerStallNanos();
+	}
+
+	/**
+	 * Returns number of times reader thread waited for free buffer, valid after
+	 * {@link #stop()}.
+	 */
+	long getReaderStalls() {
+		return ring.getProducerStalls();
+	}
+
+	long getReaderStallNanos() {
+		return ring.getProducerStallNanos();
+	}
+
+	/** Slot of ring, with data read from stream. */
+	private static final class Buffer {
+
+		final byte	data[];
+
+		int					length;
+
+		Buffer(int size) {
+			this.data = new byte[size];
+		}
+	}
+}
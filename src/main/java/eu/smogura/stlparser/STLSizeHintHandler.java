@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2016 Radek Smogura <mail@smogura.eu>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package eu.smogura.stlparser;
+
+/**
+ * Handler notified about estimated number of triangles of ASCII model, so it
+ * can reserve space for facets in advance.
+ * <p>
+ * ASCII models don't declare number of triangles, so it's estimated from size
+ * of model and average length of facets at its beginning. Estimate is passed
+ * once, after {@link #beginAscii(String)} and before any facets, only when
+ * size of model is known, like for files. Exact number of triangles of binary
+ * models is passed with {@link #numberOfTrinagles(int)}.
+ * </p>
+ * 
+ * @author Radek Smogura
+ * @since 1.1.0
+ */
+public interface STLSizeHintHandler extends STLParserHandler {
+
+	/**
+	 * Callback method called with estimated number of triangles of ASCII model.
+	 * Model may contain less or more triangles.
+	 * 
+	 * @param count
+	 *          estimated number of triangles
+	 */
+	void estimatedNumberOfTriangles(int count);
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) 2016 Radek Smogura <mail@smogura.eu>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package eu.smogura.stlparser;
+
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * The bounded ring of reusable slots handed over from single producer thread
+ * to single consumer thread.
+ * <p>
+ * Producer claims free slot, fills it and publishes it, consumer takes
+ * published slot, and releases it when it's consumed. Slots are handed over
+ * with volatile counters of published and released slots, without locks.
+ * Thread which can't proceed yields for a few checks, then parks until other
+ * thread signals change of counter. Times in which producer waits for free
+ * slot, and consumer waits for published slot, are counted as stalls.
+ * </p>
+ * <p>
+ * Producer closes ring after last slot, consumer cancels ring when it stops
+ * consuming, so producer doesn't wait for slots which won't be released.
+ * </p>
+ * 
+ * @param <T>
+ *          the type of slots
+ * @author Radek Smogura
+ * @since 1.1.0
+ */
+final class STLSpscRing<T> {
+
+	/** Number of checks of counter, yielding, before waiting thread parks. */
+	private static final int	SPINS	= 64;
+
+	private final Object			slots[];
+
+	/** Number of slots published by producer. */
+	private volatile long			published;
+
+	/** Number of slots released by consumer. */
+	private volatile long			released;
+
+	/** Set by producer after last slot is published. */
+	private volatile boolean	closed;
+
+	/** Set by consumer when it stops consuming. */
+	private volatile boolean	cancelled;
+
+	/** Producer parked until slot is released, or {@code null}. */
+	private volatile Thread		parkedProducer;
+
+	/** Consumer parked until slot is published, or {@code null}. */
+	private volatile Thread		parkedConsumer;
+
+	// State of producer
+
+	private long							producerStalls;
+
+	private long							producerStallNanos;
+
+	// State of consumer
+
+	private long							consumerStalls;
+
+	private long							consumerStallNanos;
+
+	/**
+	 * @param capacity
+	 *          the number of slots
+	 * @param slots
+	 *          the factory of slots, called {@code capacity} times
+	 */
+	STLSpscRing(int capacity, Supplier<? extends T> slots) {
+		this.slots = new Object[capacity];
+		for (int i = 0; i < capacity; i++)
+			this.slots[i] = slots.get();
+	}
+
+	/**
+	 * Waits for free slot, called by producer.
+	 * 
+	 * @return the slot to be filled and published, or {@code null} if ring has
+	 *         been cancelled
+	 */
+	@SuppressWarnings("unchecked")
+	T claim() {
+		long index = published;
+		if (index - released >= slots.length) {
+			long start = System.nanoTime();
+			producerStalls++;
+			for (int spin = 0; index - released >= slots.length && !cancelled; spin++) {
+				if (spin < SPINS) {
+					Thread.yield();
+					continue;
+				}
+				parkedProducer = Thread.currentThread();
+				if (index - released >= slots.length && !cancelled)
+					LockSupport.park(this);
+				parkedProducer = null;
+			}
+			producerStallNanos += System.nanoTime() - start;
+		}
+		return cancelled ? null : (T) slots[(int) (index % slots.length)];
+	}
+
+	/**
+	 * Publishes claimed slot, called by producer.
+	 */
+	void publish() {
+		published = published + 1;
+		signal(parkedConsumer);
+	}
+
+	/**
+	 * Marks that no more slots will be published, called by producer.
+	 */
+	void close() {
+		closed = true;
+		signal(parkedConsumer);
+	}
+
+	/**
+	 * Waits for published slot, called by consumer.
+	 * 
+	 * @return the slot to be consumed and released, or {@code null} if ring has
+	 *         been closed and all published slots are consumed
+	 */
+	@SuppressWarnings("unchecked")
+	T take() {
+		long index = released;
+		if (published <= index) {
+			long start = System.nanoTime();
+			consumerStalls++;
+			try {
+				for (int spin = 0; published <= index; spin++) {
+					// Counter is checked again after close, as it's written before
+					if (closed && published <= index)
+						return null;
+					if (spin < SPINS) {
+						Thread.yield();
+						continue;
+					}
+					parkedConsumer = Thread.currentThread();
+					if (published <= index && !closed)
+						LockSupport.park(this);
+					parkedConsumer = null;
+				}
+			} finally {
+				consumerStallNanos += System.nanoTime() - start;
+			}
+		}
+		return (T) slots[(int) (index % slots.length)];
+	}
+
+	/**
+	 * Releases consumed slot, called by consumer.
+	 */
+	void release() {
+		released = released + 1;
+		signal(parkedProducer);
+	}
+
+	/**
+	 * Marks that no more slots will be consumed, called by consumer, or by
+	 * other thread stopping producer.
+	 */
+	void cancel() {
+		cancelled = true;
+		signal(parkedProducer);
+	}
+
+	boolean isCancelled() {
+		return cancelled;
+	}
+
+	private static void signal(Thread parked) {
+		if (parked != null)
+			LockSupport.unpark(parked);
+	}
+
+	/**
+	 * Returns number of times producer waited for free slot.
+	 */
+	long getProducerStalls() {
+		return producerStalls;
+	}
+
+	long getProducerStallNanos() {
+		return producerStallNanos;
+	}
+
+	/**
+	 * Returns number of times consumer waited for published slot.
+	 */
+	long getConsumerStalls() {
+		return consumerStalls;
+	}
+
+	long getConsumerStallNanos() {
+		return consumerStallNanos;
+	}
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2016 Radek Smogura <mail@smogura.eu>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package eu.smogura.stlparser;
+
+/**
+ * The handler computing statistics of model in single pass: axis aligned
+ * bounding box, surface area, signed volume, number of triangles and of
+ * degenerate triangles.
+ * <p>
+ * Area and volume are summed in {@code double} with Kahan compensated
+ * summation, so error doesn't grow with number of triangles. Volume is
+ * positive for closed meshes with counter clockwise winding of outer faces.
+ * Degenerate triangles are ones with zero area.
+ * </p>
+ * <p>
+ * Handler can be used with {@link STLParallelParser}, with {@link #merge} as
+ * merge function.
+ * </p>
+ * 
+ * @author Radek Smogura
+ * @since 1.1.0
+ */
+public class STLStatisticsHandler extends STLFacetAbstractHandler {
+
+	private float		minX	= Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY, minZ = Float.POSITIVE_INFINITY;
+
+	private float		maxX	= Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY, maxZ = Float.NEGATIVE_INFINITY;
+
+	private double	area, areaCompensation;
+
+	private double	volume, volumeCompensation;
+
+	private long		triangleCount;
+
+	private long		degenerateCount;
+
+	public STLStatisticsHandler() {
+	}
+
+	@Override
+	public void facet(float nx, float ny, float nz, float x1, float y1, float z1, float x2, float y2, float z2, float x3,
+			float y3, float z3, short attributes) {
+		minX = Math.min(minX, Math.min(x1, Math.min(x2, x3)));
+		minY = Math.min(minY, Math.min(y1, Math.min(y2, y3)));
+		minZ = Math.min(minZ, Math.min(z1, Math.min(z2, z3)));
+		maxX = Math.max(maxX, Math.max(x1, Math.max(x2, x3)));
+		maxY = Math.max(maxY, Math.max(y1, Math.max(y2, y3)));
+		maxZ = Math.max(maxZ, Math.max(z1, Math.max(z2, z3)));
+
+		// Cross product of edges, its length is twice the area
+		double ux = (double) x2 - x1, uy = (double) y2 - y1, uz = (double) z2 - z1;
+		double vx = (double) x3 - x1, vy = (double) y3 - y1, vz = (double) z3 - z1;
+		double cx = uy * vz - uz * vy;
+		double cy = uz * vx - ux * vz;
+		double cz = ux * vy - uy * vx;
+		double doubleArea = Math.sqrt(cx * cx + cy * cy + cz * cz);
+		if (doubleArea == 0)
+			degenerateCount++;
+		addArea(doubleArea * 0.5);
+
+		// Signed volume of tetrahedron spanned with origin, v1 . (v2 x v3) / 6
+		double v = (x1 * ((double) y2 * z3 - (double) z2 * y3) + y1 * ((double) z2 * x3 - (double) x2 * z3)
+				+ z1 * ((double) x2 * y3 - (double) y2 * x3)) / 6;
+		addVolume(v);
+		triangleCount++;
+	}
+
+	private void addArea(double value) {
+		double y = value - areaCompensation;
+		double t = area + y;
+		areaCompensation = (t - area) - y;
+		area = t;
+	}
+
+	private void addVolume(double value) {
+		double y = value - volumeCompensation;
+		double t = volume + y;
+		volumeCompensation = (t - volume) - y;
+		volume = t;
+	}
+
+	/**
+	 * Adds statistics of other handler to this one.
+	 * 
+	 * @return this handler
+	 */
+	public STLStatisticsHandler merge(STLStatisticsHandler other) {
+		minX = Math.min(minX, other.minX);
+		minY = Math.min(minY, other.minY);
+		minZ = Math.min(minZ, other.minZ);
+		maxX = Math.max(maxX, other.maxX);
+		maxY = Math.max(maxY, other.maxY);
+		maxZ = Math.max(maxZ, other.maxZ);
+		addArea(other.area);
+		addArea(-other.areaCompensation);
+		addVolume(other.volume);
+		addVolume(-other.volumeCompensation);
+		triangleCount += other.triangleCount;
+		degenerateCount += other.degenerateCount;
+		return this;
+	}
+
+	/**
+	 * Returns minimal x coordinate, or positive infinity if there are no
+	 * triangles.
+	 */
+	public float getMinX() {
+		return minX;
+	}
+
+	public float getMinY() {
+		return minY;
+	}
+
+	public float getMinZ() {
+		return minZ;
+	}
+
+	/**
+	 * Returns maximal x coordinate, or negative infinity if there are no
+	 * triangles.
+	 */
+	public float getMaxX() {
+		return maxX;
+	}
+
+	public float getMaxY() {
+		return maxY;
+	}
+
+	public float getMaxZ() {
+		return maxZ;
+	}
+
+	/**
+	 * Returns total area of triangles.
+	 */
+	public double getSurfaceArea() {
+		return area - areaCompensation;
+	}
+
+	/**
+	 * Returns signed volume enclosed by triangles, meaningful for closed meshes.
+	 */
+	public double getVolume() {
+		return volume - volumeCompensation;
+	}
+
+	public long getTriangleCount() {
+		return triangleCount;
+	}
+
+	/**
+	 * Returns number of triangles with zero area.
+	 */
+	public long getDegenerateCount() {
+		return degenerateCount;
+	}
+}
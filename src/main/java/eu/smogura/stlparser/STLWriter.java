@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2016 Radek Smogura <mail@smogura.eu>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package eu.smogura.stlparser;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * The streaming writer of STL models.
+ * <p>
+ * Writer is a handler, so model can be written by passing writer directly to
+ * parser, or by calling handler methods: {@link #beginAscii(String)} or
+ * {@link #beginBinary(byte[])}, {@link #facet} for each facet and
+ * {@link #endSolid()}. Format of written model is chosen when writer is
+ * created with {@link STLParserFactory#createBinaryWriter} or
+ * {@link STLParserFactory#createAsciiWriter}, not by the begin method called.
+ * </p>
+ * <p>
+ * Data is collected in buffer and written to channel when buffer is full, so
+ * memory used by writer doesn't depend on size of model. The writer is not
+ * thread safe.
+ * </p>
+ * 
+ * @author Radek Smogura
+ * @since 1.1.0
+ */
+public abstract class STLWriter extends STLFacetAbstractHandler implements Closeable, Flushable {
+
+	protected final WritableByteChannel	channel;
+
+	protected final ByteBuffer					buffer;
+
+	/** If channel has been opened by writer, and should be closed with it. */
+	private final boolean								ownChannel;
+
+	private boolean											begun;
+
+	private long												facets;
+
+	STLWriter(WritableByteChannel channel, boolean ownChannel, ByteBuffer buffer) {
+		this.channel = channel;
+		this.ownChannel = ownChannel;
+		this.buffer = buffer;
+	}
+
+	/**
+	 * Writes beginning of solid.
+	 * 
+	 * @param name
+	 *          the name of ASCII solid, or {@code null} if binary model is begun
+	 * @param header
+	 *          the header of binary model, or {@code null} if ASCII model is
+	 *          begun
+	 */
+	abstract void writeBegin(String name, byte header[]) throws STLParserException;
+
+	abstract void writeFacet(float nx, float ny, float nz, float x1, float y1, float z1, float x2, float y2, float z2,
+			float x3, float y3, float z3, short attributes) throws STLParserException;
+
+	abstract void writeEnd() throws STLParserException;
+
+	@Override
+	public void beginAscii(String name) throws STLParserException {
+		begin(name, null);
+	}
+
+	@Override
+	public void beginBinary(byte header[]) throws STLParserException {
+		begin(null, header);
+	}
+
+	private void begin(String name, byte header[]) throws STLParserException {
+		if (begun)
+			throw new IllegalStateException("Solid has been already begun.");
+		begun = true;
+		facets = 0;
+		writeBegin(name, header);
+	}
+
+	/**
+	 * Writes facet, beginning solid with empty name or header if it hasn't been
+	 * begun.
+	 */
+	@Override
+	public void facet(float nx, float ny, float nz, float x1, float y1, float z1, float x2, float y2, float z2, float x3,
+			float y3, float z3, short attributes) throws STLParserException {
+		if (!begun)
+			begin("", null);
+		writeFacet(nx, ny, nz, x1, y1, z1, x2, y2, z2, x3, y3, z3, attributes);
+		facets++;
+	}
+
+	/**
+	 * Writes end of solid, and flushes buffered data.
+	 */
+	@Override
+	public void endSolid() throws STLParserException {
+		if (!begun)
+			begin("", null);
+		begun = false;
+		writeEnd();
+		flush();
+	}
+
+	/**
+	 * Returns number of facets written in current solid.
+	 */
+	public long getNumberOfFacets() {
+		return facets;
+	}
+
+	/**
+	 * Writes buffered data to channel.
+	 */
+	@Override
+	public void flush() throws STLParserException {
+		buffer.flip();
+		try {
+			while (buffer.hasRemaining())
+				channel.write(buffer);
+		} catch (IOException ioe) {
+			throw new STLParserException("STLP_0029: Unexpected IO exception while writing STL.", ioe);
+		} finally {
+			buffer.clear();
+		}
+	}
+
+	/**
+	 * Ends solid if it has been begun, and closes channel if it has been opened
+	 * by writer.
+	 */
+	@Override
+	public void close() throws STLParserException {
+		try {
+			if (begun)
+				endSolid();
+		} finally {
+			if (ownChannel) {
+				try {
+					channel.close();
+				} catch (IOException ioe) {
+					throw new STLParserException("STLP_0028: Unexpected IO exception while closing model.", ioe);
+				}
+			}
+		}
+	}
+}